@@ -0,0 +1,52 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.Date;
+
+/**
+ * Simple, abstract implementation of {@link MillisJobSchedule}. This implementation adapts the {@link Date} based
+ * {@link JobSchedule} method to the millisecond based one, so subclasses only implement
+ * {@link #nextScheduledExecutionTimeMillis(long, long, long)}.
+ */
+public abstract class AbstractJobSchedule implements MillisJobSchedule {
+
+    /**
+     * Compute the next scheduled execution time by converting the given dates to milliseconds, with <code>null</code>
+     * dates becoming {@link JobStatus#NO_TIME}, and delegating to
+     * {@link #nextScheduledExecutionTimeMillis(long, long, long)}.
+     */
+    @Override
+    public Date nextScheduledExecutionTime(Date lastScheduledExecutionTime, Date lastActualExecutionTime,
+        Date lastCompletionTime) {
+        return new Date(nextScheduledExecutionTimeMillis(JobStatus.toMillis(lastScheduledExecutionTime),
+            JobStatus.toMillis(lastActualExecutionTime), JobStatus.toMillis(lastCompletionTime)));
+    }
+}
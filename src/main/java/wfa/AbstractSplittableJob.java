@@ -0,0 +1,89 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Simple, abstract implementation of {@link SplittableJob}. Executing the job hands the run to the
+ * {@link JobTaskDistributor}, which fans the tasks out across the cluster and returns once they are all acknowledged.
+ * Without a distributor the tasks are executed in parallel in the local common {@link ForkJoinPool}.
+ */
+public abstract class AbstractSplittableJob extends AbstractJob implements SplittableJob {
+
+    /** the distributor fanning tasks out across the cluster, or <code>null</code> to execute tasks locally. */
+    private JobTaskDistributor distributor;
+
+    /**
+     * Execute this job using the given context. This method should only be called by the currently elected job leader.
+     * This implementation distributes the tasks produced by {@link #split(JobContext)} and waits for all of them.
+     *
+     * @throws IllegalStateException
+     *             if any task failed or the run could not be distributed.
+     */
+    @Override
+    public void execute(JobContext ctx) {
+        if (distributor != null) {
+            distributor.distribute(this, ctx);
+            return;
+        }
+
+        final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for (final byte[] task : split(ctx)) {
+            tasks.add(ForkJoinTask.adapt(new Runnable() {
+                @Override
+                public void run() {
+                    executeTask(task);
+                }
+            }));
+        }
+        if (ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            for (final ForkJoinTask<?> task : tasks) {
+                ForkJoinPool.commonPool().execute(task);
+            }
+            for (final ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+    }
+
+    public JobTaskDistributor getDistributor() {
+        return distributor;
+    }
+
+    public void setDistributor(JobTaskDistributor distributor) {
+        this.distributor = distributor;
+    }
+}
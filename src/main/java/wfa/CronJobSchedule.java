@@ -0,0 +1,479 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.TimeZone;
+
+/**
+ * A cron expression {@link JobSchedule} implementation. The next scheduled execution time is the first time after the
+ * last scheduled execution time that matches the expression.
+ * <p>
+ * Expressions have five fields (minute, hour, day of month, month and day of week) or six fields with a leading
+ * seconds field. Each field is <code>*</code>, <code>?</code>, a value, a range <code>a-b</code>, a step
+ * <code>*&#47;n</code>, <code>a&#47;n</code> or <code>a-b&#47;n</code>, or a comma separated list of those. Months
+ * and days of the week may be given by their three letter English names, and both 0 and 7 mean Sunday. When both the
+ * day of month and the day of week are restricted, a day matching either one matches, as in the traditional cron. The
+ * macros <code>@yearly</code>, <code>@annually</code>, <code>@monthly</code>, <code>@weekly</code>,
+ * <code>@daily</code>, <code>@midnight</code> and <code>@hourly</code> are also accepted.
+ * <p>
+ * The expression is compiled once into one bit set per field. Computing the next execution time finds each field's
+ * next value with a single bit scan and converts between epoch milliseconds and calendar fields arithmetically, so it
+ * takes a small, bounded number of steps and allocates nothing, whatever the expression.
+ * <p>
+ * When runs have been missed, the schedule returns each missed time in turn. The job leader's {@link MisfirePolicy}
+ * decides which of them run.
+ */
+public class CronJobSchedule extends AbstractJobSchedule {
+
+    private static final String[] DAY_NAMES = { "SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT" };
+
+    private static final String[] MONTH_NAMES = { "JAN", "FEB", "MAR", "APR", "MAY", "JUN", "JUL", "AUG", "SEP",
+        "OCT", "NOV", "DEC" };
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+
+    private static final long SECONDS_PER_DAY = 86400L;
+
+    /** a span longer than any daylight saving shift and shorter than the time between transitions. */
+    private static final long TRANSITION_WINDOW_MILLIS = 6L * 60L * 60L * 1000L;
+
+    /**
+     * Compute the days since the epoch of the given proleptic Gregorian date.
+     */
+    private static long daysFromCivil(long year, int month, int day) {
+        final long y = month <= 2 ? year - 1L : year;
+        final long era = Math.floorDiv(y, 400L);
+        final long yearOfEra = y - era * 400L;
+        final long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2L) / 5L + day - 1L;
+        final long dayOfEra = yearOfEra * 365L + yearOfEra / 4L - yearOfEra / 100L + dayOfYear;
+        return era * 146097L + dayOfEra - 719468L;
+    }
+
+    /**
+     * Compute the day of the week, with 0 for Sunday, of the given days since the epoch.
+     */
+    private static int dayOfWeek(long days) {
+        // the epoch was a Thursday
+        return (int) Math.floorMod(days + 4L, 7L);
+    }
+
+    private static boolean isLeapYear(long year) {
+        return (year & 3L) == 0L && (year % 100L != 0L || year % 400L == 0L);
+    }
+
+    private static boolean isUnrestricted(String field) {
+        return "*".equals(field) || "?".equals(field);
+    }
+
+    private static int lengthOfMonth(long year, int month) {
+        switch (month) {
+        case 2:
+            return isLeapYear(year) ? 29 : 28;
+        case 4:
+        case 6:
+        case 9:
+        case 11:
+            return 30;
+        default:
+            return 31;
+        }
+    }
+
+    /**
+     * Find the smallest value in the given bit set that is not less than the given value.
+     *
+     * @return the value, or -1 if there is none.
+     */
+    private static int nextSetBit(long bits, int from) {
+        if (from > 63) {
+            return -1;
+        }
+        final long remaining = bits & (-1L << from);
+        return remaining == 0L ? -1 : Long.numberOfTrailingZeros(remaining);
+    }
+
+    /**
+     * Parse a single value of a field, accepting the given names in place of values starting at {@code firstName}.
+     */
+    private static int parseValue(String value, String[] names, int firstName, String field) {
+        if (names != null) {
+            for (int i = 0; i < names.length; ++i) {
+                if (names[i].equalsIgnoreCase(value)) {
+                    return firstName + i;
+                }
+            }
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (final NumberFormatException ex) {
+            throw new IllegalArgumentException("invalid value '" + value + "' in cron field '" + field + "'.");
+        }
+    }
+
+    /**
+     * Compile a field into a bit set with one bit per matching value.
+     */
+    private static long parseField(String field, int min, int max, String[] names, int firstName) {
+        long bits = 0L;
+        for (final String part : field.split(",")) {
+            String range = part;
+            int step = 1;
+            final int slash = part.indexOf('/');
+            if (slash >= 0) {
+                range = part.substring(0, slash);
+                step = parseValue(part.substring(slash + 1), null, 0, field);
+                if (step < 1) {
+                    throw new IllegalArgumentException("invalid step in cron field '" + field + "'.");
+                }
+            }
+
+            int start;
+            int end;
+            if (isUnrestricted(range)) {
+                start = min;
+                end = max;
+            } else {
+                final int dash = range.indexOf('-');
+                if (dash > 0) {
+                    start = parseValue(range.substring(0, dash), names, firstName, field);
+                    end = parseValue(range.substring(dash + 1), names, firstName, field);
+                } else {
+                    start = parseValue(range, names, firstName, field);
+                    end = slash >= 0 ? max : start;
+                }
+            }
+            if (start < min || end > max || start > end) {
+                throw new IllegalArgumentException("value out of range in cron field '" + field + "'.");
+            }
+
+            for (int value = start; value <= end; value += step) {
+                bits |= 1L << value;
+            }
+        }
+        return bits;
+    }
+
+    private static String expandMacro(String expression) {
+        final String trimmed = expression.trim();
+        if ("@yearly".equals(trimmed) || "@annually".equals(trimmed)) {
+            return "0 0 1 1 *";
+        } else if ("@monthly".equals(trimmed)) {
+            return "0 0 1 * *";
+        } else if ("@weekly".equals(trimmed)) {
+            return "0 0 * * 0";
+        } else if ("@daily".equals(trimmed) || "@midnight".equals(trimmed)) {
+            return "0 0 * * *";
+        } else if ("@hourly".equals(trimmed)) {
+            return "0 * * * *";
+        }
+        return trimmed;
+    }
+
+    /** days of the month 1-31, one bit per day. */
+    private final long daysOfMonth;
+
+    /** whether the day of month field is unrestricted. */
+    private final boolean daysOfMonthUnrestricted;
+
+    /** days of the week 0-6, Sunday first, one bit per day. */
+    private final long daysOfWeek;
+
+    /** whether the day of week field is unrestricted. */
+    private final boolean daysOfWeekUnrestricted;
+
+    /** the expression this schedule was compiled from. */
+    private final String expression;
+
+    /** hours 0-23, one bit per hour. */
+    private final long hours;
+
+    /** minutes 0-59, one bit per minute. */
+    private final long minutes;
+
+    /** months 1-12, one bit per month. */
+    private final long months;
+
+    /** seconds 0-59, one bit per second. */
+    private final long seconds;
+
+    /** the time zone the expression is evaluated in. */
+    private final TimeZone timeZone;
+
+    /**
+     * Construct a new schedule evaluating the given expression in the default time zone.
+     *
+     * @param expression
+     *            the cron expression.
+     * @throws IllegalArgumentException
+     *             if the expression is invalid or can never match.
+     */
+    public CronJobSchedule(String expression) {
+        this(expression, TimeZone.getDefault());
+    }
+
+    /**
+     * Construct a new schedule evaluating the given expression in the given time zone.
+     *
+     * @param expression
+     *            the cron expression.
+     * @param timeZone
+     *            the time zone the expression is evaluated in.
+     * @throws IllegalArgumentException
+     *             if the expression is invalid or can never match.
+     */
+    public CronJobSchedule(String expression, TimeZone timeZone) {
+        super();
+        this.expression = expression;
+        this.timeZone = (TimeZone) timeZone.clone();
+
+        final String[] fields = expandMacro(expression).split("\\s+");
+        if (fields.length != 5 && fields.length != 6) {
+            throw new IllegalArgumentException("cron expression '" + expression + "' must have 5 or 6 fields.");
+        }
+        final int offset = fields.length - 5;
+        seconds = offset == 0 ? 1L : parseField(fields[0], 0, 59, null, 0);
+        minutes = parseField(fields[offset], 0, 59, null, 0);
+        hours = parseField(fields[offset + 1], 0, 23, null, 0);
+        daysOfMonth = parseField(fields[offset + 2], 1, 31, null, 0);
+        months = parseField(fields[offset + 3], 1, 12, MONTH_NAMES, 1);
+
+        long dayBits = parseField(fields[offset + 4], 0, 7, DAY_NAMES, 0);
+        if ((dayBits & (1L << 7)) != 0L) {
+            // 7 is another name for Sunday
+            dayBits = (dayBits & ~(1L << 7)) | 1L;
+        }
+        daysOfWeek = dayBits;
+
+        daysOfMonthUnrestricted = isUnrestricted(fields[offset + 2]);
+        daysOfWeekUnrestricted = isUnrestricted(fields[offset + 4]);
+
+        if (daysOfWeekUnrestricted && !daysOfMonthUnrestricted) {
+            // make sure some selected month is long enough for some selected day, so searching always ends
+            boolean possible = false;
+            for (int month = 1; month <= 12 && !possible; ++month) {
+                if ((months & (1L << month)) != 0L) {
+                    final int longest = month == 2 ? 29 : lengthOfMonth(1L, month);
+                    possible = (daysOfMonth & ((1L << (longest + 1)) - 2L)) != 0L;
+                }
+            }
+            if (!possible) {
+                throw new IllegalArgumentException("cron expression '" + expression + "' can never match.");
+            }
+        }
+    }
+
+    /**
+     * Compute the bit set of the days of the given month matching the day of month and day of week fields.
+     */
+    private long dayMask(long year, int month, int length) {
+        final long lengthMask = (1L << (length + 1)) - 2L;
+        if (daysOfMonthUnrestricted && daysOfWeekUnrestricted) {
+            return lengthMask;
+        }
+
+        // rotate the day of week bits so bit i is the (i + 1)th day of the month, then repeat them for every week
+        final int first = dayOfWeek(daysFromCivil(year, month, 1));
+        final long week = ((daysOfWeek >>> first) | (daysOfWeek << (7 - first))) & 0x7FL;
+        final long weekdays = (week | (week << 7) | (week << 14) | (week << 21) | (week << 28)) << 1;
+
+        if (daysOfMonthUnrestricted) {
+            return weekdays & lengthMask;
+        } else if (daysOfWeekUnrestricted) {
+            return daysOfMonth & lengthMask;
+        }
+        return (daysOfMonth | weekdays) & lengthMask;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * Compute the first local time, in milliseconds since the epoch as if the time zone were UTC, that matches the
+     * expression and is after the given local time.
+     */
+    private long nextLocalTime(long localTime) {
+        final long start = Math.floorDiv(localTime, MILLIS_PER_SECOND) + 1L;
+        long days = Math.floorDiv(start, SECONDS_PER_DAY);
+        final int secondOfDay = (int) Math.floorMod(start, SECONDS_PER_DAY);
+        int hour = secondOfDay / 3600;
+        int minute = secondOfDay / 60 % 60;
+        int second = secondOfDay % 60;
+
+        // convert the days since the epoch to a date
+        final long shifted = days + 719468L;
+        final long era = Math.floorDiv(shifted, 146097L);
+        final long dayOfEra = shifted - era * 146097L;
+        final long yearOfEra = (dayOfEra - dayOfEra / 1460L + dayOfEra / 36524L - dayOfEra / 146096L) / 365L;
+        final long dayOfYear = dayOfEra - (365L * yearOfEra + yearOfEra / 4L - yearOfEra / 100L);
+        final long shiftedMonth = (5L * dayOfYear + 2L) / 153L;
+        int day = (int) (dayOfYear - (153L * shiftedMonth + 2L) / 5L + 1L);
+        int month = (int) (shiftedMonth < 10L ? shiftedMonth + 3L : shiftedMonth - 9L);
+        long year = yearOfEra + era * 400L + (month <= 2 ? 1L : 0L);
+
+        while (true) {
+            final int nextMonth = nextSetBit(months, month);
+            if (nextMonth < 0) {
+                ++year;
+                month = Long.numberOfTrailingZeros(months);
+                day = 1;
+                hour = minute = second = 0;
+                continue;
+            } else if (nextMonth != month) {
+                month = nextMonth;
+                day = 1;
+                hour = minute = second = 0;
+            }
+
+            final int length = lengthOfMonth(year, month);
+            final int nextDay = nextSetBit(dayMask(year, month, length), day);
+            if (nextDay < 0) {
+                if (++month > 12) {
+                    ++year;
+                    month = 1;
+                }
+                day = 1;
+                hour = minute = second = 0;
+                continue;
+            } else if (nextDay != day) {
+                day = nextDay;
+                hour = minute = second = 0;
+            }
+
+            final int nextHour = nextSetBit(hours, hour);
+            if (nextHour < 0) {
+                if (++day > length) {
+                    ++month;
+                    day = 1;
+                }
+                hour = minute = second = 0;
+                continue;
+            } else if (nextHour != hour) {
+                hour = nextHour;
+                minute = second = 0;
+            }
+
+            final int nextMinute = nextSetBit(minutes, minute);
+            if (nextMinute < 0) {
+                ++hour;
+                minute = second = 0;
+                continue;
+            } else if (nextMinute != minute) {
+                minute = nextMinute;
+                second = 0;
+            }
+
+            final int nextSecond = nextSetBit(seconds, second);
+            if (nextSecond < 0) {
+                ++minute;
+                second = 0;
+                continue;
+            }
+            second = nextSecond;
+            break;
+        }
+
+        days = daysFromCivil(year, month, day);
+        return ((days * SECONDS_PER_DAY) + hour * 3600L + minute * 60L + second) * MILLIS_PER_SECOND;
+    }
+
+    /**
+     * Compute the first time after the given time that matches the expression.
+     *
+     * @param time
+     *            the time in milliseconds since the epoch.
+     * @return the next matching time in milliseconds since the epoch.
+     */
+    public long nextMatchingTime(long time) {
+        long localTime = time + timeZone.getOffset(time);
+        while (true) {
+            final long nextLocalTime = nextLocalTime(localTime);
+
+            final long next = toTime(nextLocalTime);
+            if (next > time) {
+                return next;
+            }
+
+            // the local time repeats after a daylight saving transition and this occurrence has passed
+            localTime = nextLocalTime;
+        }
+    }
+
+    /**
+     * Compute the next scheduled execution time for a job based on the last scheduled execution time. The next
+     * scheduled execution time is the first time after {@code lastScheduledExecutionTime} matching the expression.
+     *
+     * @param lastScheduledExecutionTime
+     *            the last time the job was scheduled to execute, or {@link JobStatus#NO_TIME} to use the current
+     *            time.
+     * @param lastActualExecutionTime
+     *            ignored by this implementation
+     * @param lastCompletionTime
+     *            ignored by this implementation
+     * @return the next scheduled execution time.
+     */
+    @Override
+    public long nextScheduledExecutionTimeMillis(long lastScheduledExecutionTime, long lastActualExecutionTime,
+        long lastCompletionTime) {
+
+        if (lastScheduledExecutionTime == JobStatus.NO_TIME) {
+            // use now as the last scheduled time
+            return nextMatchingTime(System.currentTimeMillis());
+        }
+        return nextMatchingTime(lastScheduledExecutionTime);
+    }
+
+    /**
+     * Convert a local time, in milliseconds since the epoch as if the time zone were UTC, to a time. A local time
+     * skipped by a daylight saving transition is moved forward by the transition's length, and a local time repeated
+     * by one resolves to its earlier occurrence.
+     */
+    private long toTime(long localTime) {
+        final int offset = timeZone.getOffset(localTime - timeZone.getOffset(localTime));
+        final long time = localTime - offset;
+        final int actualOffset = timeZone.getOffset(time);
+        if (actualOffset != offset) {
+            // the local time falls in a gap
+            return localTime - actualOffset;
+        }
+
+        final int earlierOffset = timeZone.getOffset(time - TRANSITION_WINDOW_MILLIS);
+        if (earlierOffset > offset && timeZone.getOffset(localTime - earlierOffset) == earlierOffset) {
+            // the local time repeats and this is its earlier occurrence
+            return localTime - earlierOffset;
+        }
+        return time;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
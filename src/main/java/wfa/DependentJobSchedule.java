@@ -0,0 +1,223 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.NodeCache;
+import org.apache.curator.framework.recipes.cache.NodeCacheListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link JobSchedule} that runs a job once its upstream jobs have completed instead of at a time. The schedule
+ * watches the status node of every upstream job and the job becomes due as soon as each upstream has completed a run
+ * since the job's last scheduled execution time, so runs of upstream jobs finishing within the same window fan in to a
+ * single run. The scheduled execution time of that run is the completion time of the last upstream to finish, so the
+ * job's lag measures how long the hand off took.
+ * <p>
+ * Until then the next scheduled execution time is {@link MillisJobSchedule#NEVER}, and the job's leader is woken by
+ * the watch the moment the last upstream status is written: a pipeline of dependent jobs takes the sum of its run
+ * times rather than the sum of polling delays. Only runs with a {@link JobOutcome#COMPLETED completed} outcome count;
+ * a failed upstream run leaves the job waiting for the next successful one.
+ * <p>
+ * The schedule must be {@link #initializeSchedule() initialized} before the job's leader, and misfire policies do not
+ * apply to it: a run whose upstream jobs completed while no leader was watching simply starts late.
+ */
+public class DependentJobSchedule extends AbstractJobSchedule {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DependentJobSchedule.class);
+
+    /** the watches of the upstream status nodes, in upstream order. */
+    private final List<NodeCache> caches = new ArrayList<NodeCache>();
+
+    private CuratorFramework client;
+
+    /** the latest completion time of a completed run of each upstream job, in upstream order. */
+    private final AtomicLongArray completions;
+
+    /** the callbacks notified when an upstream job completes a run. */
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<Runnable>();
+
+    /** the unique names of the upstream jobs. */
+    private final List<String> upstreamJobNames;
+
+    /**
+     * Construct a schedule depending on the given upstream jobs.
+     *
+     * @param upstreamJobNames
+     *            the unique names of the upstream jobs.
+     */
+    public DependentJobSchedule(Collection<String> upstreamJobNames) {
+        super();
+        if (upstreamJobNames.isEmpty()) {
+            throw new IllegalArgumentException("a dependent schedule needs at least one upstream job.");
+        }
+        this.upstreamJobNames = new ArrayList<String>(upstreamJobNames);
+        this.completions = new AtomicLongArray(this.upstreamJobNames.size());
+        for (int i = 0; i < completions.length(); ++i) {
+            completions.set(i, JobStatus.NO_TIME);
+        }
+    }
+
+    /**
+     * Construct a schedule depending on the given upstream jobs.
+     *
+     * @param upstreamJobNames
+     *            the unique names of the upstream jobs.
+     */
+    public DependentJobSchedule(String... upstreamJobNames) {
+        this(Arrays.asList(upstreamJobNames));
+    }
+
+    /**
+     * Register a callback notified every time an upstream job completes a run. Job leaders register themselves to be
+     * woken when the job becomes due.
+     */
+    void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public void destroySchedule() {
+        for (final NodeCache cache : caches) {
+            try {
+                cache.close();
+            } catch (final Exception ex) {
+                LOG.warn("failed to close watch of upstream job status.", ex);
+            }
+        }
+        caches.clear();
+    }
+
+    public List<String> getUpstreamJobNames() {
+        return upstreamJobNames;
+    }
+
+    /**
+     * Start watching the upstream status nodes, reading their current statuses before returning.
+     */
+    public void initializeSchedule() throws Exception {
+        for (int i = 0; i < upstreamJobNames.size(); ++i) {
+            final int index = i;
+            final NodeCache cache = new NodeCache(client, "/job/" + upstreamJobNames.get(i) + "/status");
+            cache.getListenable().addListener(new NodeCacheListener() {
+                @Override
+                public void nodeChanged() {
+                    if (update(index, cache.getCurrentData())) {
+                        for (final Runnable listener : listeners) {
+                            listener.run();
+                        }
+                    }
+                }
+            });
+            caches.add(cache);
+            cache.start(true);
+            update(index, cache.getCurrentData());
+        }
+    }
+
+    /**
+     * Compute the next scheduled execution time: the latest upstream completion time once every upstream job has
+     * completed a run after the last scheduled execution time, or {@link MillisJobSchedule#NEVER} until then.
+     *
+     * @param lastScheduledExecutionTime
+     *            the last time the job was scheduled to execute, or {@link JobStatus#NO_TIME} if it never ran.
+     * @param lastActualExecutionTime
+     *            ignored by this implementation
+     * @param lastCompletionTime
+     *            ignored by this implementation
+     * @return the next scheduled execution time.
+     */
+    @Override
+    public long nextScheduledExecutionTimeMillis(long lastScheduledExecutionTime, long lastActualExecutionTime,
+        long lastCompletionTime) {
+        long latest = JobStatus.NO_TIME;
+        for (int i = 0; i < completions.length(); ++i) {
+            final long completion = completions.get(i);
+            if (completion == JobStatus.NO_TIME || completion <= lastScheduledExecutionTime) {
+                return NEVER;
+            }
+            latest = Math.max(latest, completion);
+        }
+        return latest;
+    }
+
+    /**
+     * Unregister a callback registered with {@link #addListener(Runnable)}.
+     */
+    void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    public void setClient(CuratorFramework client) {
+        this.client = client;
+    }
+
+    /**
+     * Record the completion time of the given upstream job from its status data.
+     *
+     * @return whether the upstream job completed a run since the last update.
+     */
+    private boolean update(int index, ChildData data) {
+        if (data == null || data.getData() == null) {
+            return false;
+        }
+
+        final JobStatus status = new JobStatus();
+        try {
+            JobStatusCodec.decode(data.getData(), status);
+        } catch (final IllegalArgumentException ex) {
+            LOG.warn("could not decode status of upstream job " + upstreamJobNames.get(index) + ".", ex);
+            return false;
+        }
+
+        final long completion = status.getLastActualCompletionTimeMillis();
+        final JobOutcome outcome = status.getLastOutcome();
+        if (completion == JobStatus.NO_TIME || (outcome != null && outcome != JobOutcome.COMPLETED)) {
+            return false;
+        }
+        while (true) {
+            final long previous = completions.get(index);
+            if (completion <= previous) {
+                return false;
+            }
+            if (completions.compareAndSet(index, previous, completion)) {
+                return true;
+            }
+        }
+    }
+}
@@ -29,14 +29,13 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 package wfa;
 
-import java.util.Date;
 import java.util.concurrent.TimeUnit;
 
 /**
  * A fixed delay {@link JobSchedule} implementation. The next scheduled execution time is a fixed amount of time after
  * the last completion time for the job.
  */
-public class FixedDelayJobSchedule implements JobSchedule {
+public class FixedDelayJobSchedule extends AbstractJobSchedule {
 
     /** the fixed delay in milliseconds. */
     private final long delayInMillis;
@@ -66,38 +65,27 @@ public class FixedDelayJobSchedule implements JobSchedule {
 
     /**
      * Compute the next scheduled execution time for a job based on the last completion time. The next scheduled
-     * execution time is {@code lastCompletionTimeMillis.getTime()} + {@link #delayInMillis} returned as a date.
+     * execution time is {@code lastCompletionTime} + {@link #delayInMillis}.
      * 
      * @param lastScheduledExecutionTime
      *            ignored by this implementation
      * @param lastActualExecutionTime
      *            ignored by this implementation
      * @param lastCompletionTime
-     *            the last time the job execution actually completed.
+     *            the last time the job execution actually completed, or {@link JobStatus#NO_TIME} to use the current
+     *            time.
      * @return the next scheduled execution time.
      */
     @Override
-    public Date nextScheduledExecutionTime(Date lastScheduledExecutionTime, Date lastActualExecutionTime,
-        Date lastCompletionTime) {
+    public long nextScheduledExecutionTimeMillis(long lastScheduledExecutionTime, long lastActualExecutionTime,
+        long lastCompletionTime) {
 
-        if (lastCompletionTime == null) {
+        if (lastCompletionTime == JobStatus.NO_TIME) {
             // use now as the last completion time
-            return nextScheduledExecutionTime(System.currentTimeMillis());
+            return System.currentTimeMillis() + delayInMillis;
         }
 
         // add the delay to the last completion time
-        return nextScheduledExecutionTime(lastCompletionTime.getTime());
-    }
-
-    /**
-     * Compute the next scheduled execution time. {@code lastCompletionTimeMillis} + {@link #delayInMillis} returned as
-     * a date.
-     * 
-     * @param lastCompletionTimeMillis
-     *            the last time the job execution actually completed.
-     * @return the next scheduled execution time.
-     */
-    private Date nextScheduledExecutionTime(long lastCompletionTimeMillis) {
-        return new Date(lastCompletionTimeMillis + delayInMillis);
+        return lastCompletionTime + delayInMillis;
     }
 }
@@ -0,0 +1,98 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A fixed rate {@link JobSchedule} implementation. The next scheduled execution time is a fixed amount of time after
+ * the last <strong>scheduled</strong> execution time for the job, so execution times do not drift with the job's run
+ * time.
+ * <p>
+ * When runs have been missed, for example because no node held leadership, the schedule returns each missed time in
+ * turn. The job leader's {@link MisfirePolicy} decides which of them run.
+ */
+public class FixedRateJobSchedule extends AbstractJobSchedule {
+
+    /** the fixed period in milliseconds. */
+    private final long periodInMillis;
+
+    /**
+     * Construct a new schedule with the given fixed period measured in milliseconds.
+     * 
+     * @param periodInMillis
+     *            fixed period measured in milliseconds.
+     */
+    public FixedRateJobSchedule(long periodInMillis) {
+        super();
+        if (periodInMillis < 1L) {
+            throw new IllegalArgumentException("period must be positive.");
+        }
+        this.periodInMillis = periodInMillis;
+    }
+
+    /**
+     * Construct a new schedule with the given fixed period measured in the given units of time.
+     * 
+     * @param period
+     *            the fixed period measured in {@code units}.
+     * @param units
+     *            the units of time for the period.
+     */
+    public FixedRateJobSchedule(long period, TimeUnit units) {
+        this(TimeUnit.MILLISECONDS.convert(period, units));
+    }
+
+    /**
+     * Compute the next scheduled execution time for a job based on the last scheduled execution time. The next
+     * scheduled execution time is {@code lastScheduledExecutionTime} + {@link #periodInMillis}.
+     * 
+     * @param lastScheduledExecutionTime
+     *            the last time the job was scheduled to execute, or {@link JobStatus#NO_TIME} to use the current
+     *            time.
+     * @param lastActualExecutionTime
+     *            ignored by this implementation
+     * @param lastCompletionTime
+     *            ignored by this implementation
+     * @return the next scheduled execution time.
+     */
+    @Override
+    public long nextScheduledExecutionTimeMillis(long lastScheduledExecutionTime, long lastActualExecutionTime,
+        long lastCompletionTime) {
+
+        if (lastScheduledExecutionTime == JobStatus.NO_TIME) {
+            // use now as the last scheduled time
+            return System.currentTimeMillis() + periodInMillis;
+        }
+
+        // add the period to the last scheduled time
+        return lastScheduledExecutionTime + periodInMillis;
+    }
+}
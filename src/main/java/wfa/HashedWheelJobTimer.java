@@ -0,0 +1,431 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link JobTimer} backed by a hierarchical hashed timing wheel. Inserting and cancelling a task are constant time
+ * operations regardless of how many tasks are pending, unlike the heap based delay queue of a
+ * {@link java.util.concurrent.ScheduledExecutorService}.
+ * <p>
+ * Time is divided into ticks of a configurable duration. The wheel has several levels of {@code wheelSize} buckets
+ * each; level <i>n</i> buckets span {@code wheelSize}<sup><i>n</i></sup> ticks. A single tick thread advances the
+ * wheel, moves tasks from coarse buckets into finer ones as their deadlines approach and hands due tasks off to a
+ * separate dispatch executor, so slow tasks never delay the tick. Tasks may run up to one tick after their deadline,
+ * except tasks scheduled without a delay, such as runs fired ahead of their scheduled execution time, which skip the
+ * wheel and are dispatched at once.
+ * <p>
+ * The tick thread starts when the first task is scheduled and runs until {@link #stop()} is called.
+ */
+public class HashedWheelJobTimer implements JobTimer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HashedWheelJobTimer.class);
+
+    /** the longest delay in nanoseconds, about 73 years. */
+    private static final long MAX_DELAY = Long.MAX_VALUE / 4;
+
+    /** the number used to name tick threads. */
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+
+    private static final int STATE_INIT = 0;
+
+    private static final int STATE_STARTED = 1;
+
+    private static final int STATE_STOPPED = 2;
+
+    /** updates the state of a timeout. */
+    private static final AtomicIntegerFieldUpdater<WheelTimeout> STATE_UPDATER = AtomicIntegerFieldUpdater.newUpdater(
+        WheelTimeout.class, "state");
+
+    /** the number of bits in a bucket index. */
+    private final int bitsPerLevel;
+
+    /** the tasks cancelled since the last tick, awaiting removal from their buckets. */
+    private final Queue<WheelTimeout> cancelled = new ConcurrentLinkedQueue<WheelTimeout>();
+
+    /** the timeout of every task dispatched without a delay, which is already due and can no longer be cancelled. */
+    private final WheelTimeout dispatched;
+
+    /** the executor running due tasks. */
+    private final Executor dispatcher;
+
+    /** the mask extracting a bucket index from a tick. */
+    private final long mask;
+
+    /** the tasks scheduled since the last tick, awaiting placement in a bucket. */
+    private final Queue<WheelTimeout> pending = new ConcurrentLinkedQueue<WheelTimeout>();
+
+    /** the time the wheel started, measured by {@link System#nanoTime()}, or zero until the tick thread set it. */
+    private volatile long startTime;
+
+    /** released once the tick thread set the start time. */
+    private final CountDownLatch startTimeInitialized = new CountDownLatch(1);
+
+    /** the lifecycle state of the tick thread. */
+    private final AtomicInteger state = new AtomicInteger(STATE_INIT);
+
+    /** the tick currently being processed. Only accessed by the tick thread. */
+    private long tick;
+
+    /** the duration of a tick measured in nanoseconds. */
+    private final long tickNanos;
+
+    /** the bucket heads for each level of the wheel. Only accessed by the tick thread. */
+    private final WheelTimeout[][] wheels;
+
+    /** the tick thread. */
+    private final Thread worker;
+
+    /**
+     * Construct a new timer with a tick duration of one hundred milliseconds, 512 buckets per level and the given
+     * dispatch executor.
+     *
+     * @param dispatcher
+     *            the executor running due tasks.
+     */
+    public HashedWheelJobTimer(Executor dispatcher) {
+        this(100L, TimeUnit.MILLISECONDS, 512, dispatcher);
+    }
+
+    /**
+     * Construct a new timer with the given tick duration, number of buckets per level and dispatch executor.
+     *
+     * @param tickDuration
+     *            the resolution of the timer measured in {@code unit}.
+     * @param unit
+     *            the units of time for the tick duration.
+     * @param wheelSize
+     *            the number of buckets per level, rounded up to a power of two.
+     * @param dispatcher
+     *            the executor running due tasks.
+     */
+    public HashedWheelJobTimer(long tickDuration, TimeUnit unit, int wheelSize, Executor dispatcher) {
+        super();
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tick duration must be positive.");
+        }
+        if (wheelSize < 2 || wheelSize > (1 << 16)) {
+            throw new IllegalArgumentException("wheel size must be between 2 and 65536.");
+        }
+
+        this.dispatched = new WheelTimeout(null, 0L, 0L);
+        this.dispatched.state = WheelTimeout.EXPIRED;
+        this.dispatcher = dispatcher;
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.bitsPerLevel = 32 - Integer.numberOfLeadingZeros(wheelSize - 1);
+        this.mask = (1L << bitsPerLevel) - 1;
+
+        // enough levels to hold any non-negative tick
+        final int levels = (63 + bitsPerLevel - 1) / bitsPerLevel;
+        this.wheels = new WheelTimeout[levels][1 << bitsPerLevel];
+
+        this.worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runWheel();
+            }
+        }, "wfa-timer-" + THREAD_NUMBER.incrementAndGet());
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Move the tasks in the given bucket into finer buckets now that their deadlines are closer.
+     */
+    private void cascade(int level, int index) {
+        WheelTimeout timeout = wheels[level][index];
+        wheels[level][index] = null;
+        while (timeout != null) {
+            final WheelTimeout next = timeout.next;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.level = -1;
+            place(timeout);
+            timeout = next;
+        }
+    }
+
+    /**
+     * Hand off every task in the current tick's bucket for execution.
+     */
+    private void expire() {
+        final int index = (int) (tick & mask);
+        WheelTimeout timeout = wheels[0][index];
+        wheels[0][index] = null;
+        while (timeout != null) {
+            final WheelTimeout next = timeout.next;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.level = -1;
+            if (STATE_UPDATER.compareAndSet(timeout, WheelTimeout.PENDING, WheelTimeout.EXPIRED)) {
+                try {
+                    dispatcher.execute(timeout.task);
+                } catch (final RejectedExecutionException ex) {
+                    LOG.warn("dispatcher rejected timer task.", ex);
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Place the given task in the bucket matching its remaining delay.
+     */
+    private void place(WheelTimeout timeout) {
+        final long remaining = Math.max(timeout.deadlineTick - tick, 0L);
+        final long deadlineTick = tick + remaining;
+
+        int level = 0;
+        while (level + 1 < wheels.length && (remaining >>> (bitsPerLevel * (level + 1))) != 0) {
+            ++level;
+        }
+
+        final int index = (int) ((deadlineTick >>> (bitsPerLevel * level)) & mask);
+        final WheelTimeout head = wheels[level][index];
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        timeout.level = level;
+        timeout.index = index;
+        wheels[level][index] = timeout;
+    }
+
+    /**
+     * Remove cancelled tasks from their buckets.
+     */
+    private void removeCancelled() {
+        WheelTimeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.level < 0) {
+                // never placed or already removed
+                continue;
+            }
+            if (timeout.prev == null) {
+                wheels[timeout.level][timeout.index] = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.level = -1;
+        }
+    }
+
+    private void runWheel() {
+        // zero is reserved for a start time not set yet
+        final long now = System.nanoTime();
+        startTime = now == 0L ? 1L : now;
+        startTimeInitialized.countDown();
+
+        while (state.get() == STATE_STARTED) {
+            if (!waitForTick()) {
+                break;
+            }
+
+            removeCancelled();
+
+            WheelTimeout timeout;
+            while ((timeout = pending.poll()) != null) {
+                if (timeout.state == WheelTimeout.PENDING) {
+                    place(timeout);
+                }
+            }
+
+            // cascade coarser levels whose buckets roll over at this tick, coarsest first
+            int levels = 1;
+            while (levels < wheels.length && (tick & ((1L << (bitsPerLevel * levels)) - 1)) == 0) {
+                ++levels;
+            }
+            for (int level = levels - 1; level > 0; --level) {
+                cascade(level, (int) ((tick >>> (bitsPerLevel * level)) & mask));
+            }
+
+            expire();
+            ++tick;
+        }
+    }
+
+    @Override
+    public JobTimeout schedule(Runnable task, long delay, TimeUnit unit) {
+        start();
+
+        if (delay <= 0L) {
+            // already due, so waiting for the next tick would only add latency, and sharing the timeout allocates none
+            if (state.get() == STATE_STOPPED) {
+                throw new RejectedExecutionException("timer has been stopped.");
+            }
+            dispatcher.execute(task);
+            return dispatched;
+        }
+
+        // delays of centuries are capped so the deadline cannot overflow
+        final long deadline = System.nanoTime() - startTime + Math.min(unit.toNanos(delay), MAX_DELAY);
+        final WheelTimeout timeout = new WheelTimeout(task, deadline, (deadline + tickNanos - 1) / tickNanos);
+        pending.add(timeout);
+        if (state.get() == STATE_STOPPED) {
+            throw new RejectedExecutionException("timer has been stopped.");
+        }
+        return timeout;
+    }
+
+    /**
+     * Start the tick thread if it is not already running, and wait until it set the start time so deadlines computed
+     * by other threads never see the wheel started without it.
+     */
+    public void start() {
+        if (state.get() == STATE_INIT && state.compareAndSet(STATE_INIT, STATE_STARTED)) {
+            worker.start();
+        }
+
+        boolean interrupted = false;
+        while (startTime == 0L && state.get() == STATE_STARTED) {
+            try {
+                startTimeInitialized.await();
+            } catch (final InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stop the tick thread. Pending tasks are discarded without running.
+     */
+    public void stop() {
+        if (state.getAndSet(STATE_STOPPED) == STATE_STARTED) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Sleep until the start of the current tick.
+     *
+     * @return <code>false</code> if the timer was stopped while waiting.
+     */
+    private boolean waitForTick() {
+        final long deadline = tick * tickNanos;
+        while (true) {
+            final long sleepNanos = deadline - (System.nanoTime() - startTime);
+            if (sleepNanos <= 0) {
+                return true;
+            }
+            try {
+                Thread.sleep(TimeUnit.NANOSECONDS.toMillis(sleepNanos + 999999L));
+            } catch (final InterruptedException ex) {
+                if (state.get() == STATE_STOPPED) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * A task stored in the wheel. Bucket membership is an intrusive doubly linked list so a cancelled task is removed
+     * in constant time.
+     */
+    private class WheelTimeout implements JobTimeout {
+
+        static final int PENDING = 0;
+
+        static final int EXPIRED = 1;
+
+        static final int CANCELLED = 2;
+
+        /** the deadline relative to the start of the wheel measured in nanoseconds. */
+        final long deadline;
+
+        /** the tick at which the task is due. */
+        final long deadlineTick;
+
+        /** the bucket index holding the task. Only accessed by the tick thread. */
+        int index;
+
+        /** the level holding the task or -1 when not in a bucket. Only accessed by the tick thread. */
+        int level = -1;
+
+        /** the next task in the bucket. Only accessed by the tick thread. */
+        WheelTimeout next;
+
+        /** the previous task in the bucket. Only accessed by the tick thread. */
+        WheelTimeout prev;
+
+        volatile int state = PENDING;
+
+        /** the task to run. */
+        final Runnable task;
+
+        WheelTimeout(Runnable task, long deadline, long deadlineTick) {
+            super();
+            this.task = task;
+            this.deadline = deadline;
+            this.deadlineTick = deadlineTick;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (STATE_UPDATER.compareAndSet(this, PENDING, CANCELLED)) {
+                cancelled.add(this);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(deadline - (System.nanoTime() - startTime), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        @Override
+        public boolean isDone() {
+            return state != PENDING;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link JobMetricsSink} registering each job's metrics as an MXBean named
+ * <code>wfa:type=JobMetrics,name=&lt;job name&gt;</code>, in the platform MBean server by default.
+ */
+public class JmxJobMetricsSink implements JobMetricsSink {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JmxJobMetricsSink.class);
+
+    private MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    private ObjectName objectName(JobMetrics metrics) throws JMException {
+        return new ObjectName("wfa:type=JobMetrics,name=" + ObjectName.quote(metrics.getJobName()));
+    }
+
+    @Override
+    public void register(JobMetrics metrics) {
+        try {
+            final ObjectName name = objectName(metrics);
+            if (mbeanServer.isRegistered(name)) {
+                // left behind by an earlier registry in this process
+                mbeanServer.unregisterMBean(name);
+            }
+            mbeanServer.registerMBean(metrics, name);
+        } catch (final JMException ex) {
+            LOG.warn("could not register metrics of job " + metrics.getJobName() + ".", ex);
+        }
+    }
+
+    public void setMBeanServer(MBeanServer mbeanServer) {
+        this.mbeanServer = mbeanServer;
+    }
+
+    @Override
+    public void unregister(JobMetrics metrics) {
+        try {
+            mbeanServer.unregisterMBean(objectName(metrics));
+        } catch (final JMException ex) {
+            LOG.debug("could not unregister metrics of job {}.", metrics.getJobName());
+        }
+    }
+}
@@ -0,0 +1,556 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admission control for due job runs. A run that becomes due is queued in its job's group and only starts once the
+ * job's and the group's limits allow it:
+ * <ul>
+ * <li>a maximum number of concurrent runs, and</li>
+ * <li>a token bucket rate limit of runs per second with a burst size.</li>
+ * </ul>
+ * Groups with queued runs share the node's {@link #setMaxConcurrency(int) concurrency limit} through weighted fair
+ * queuing: each admitted run advances its group's virtual time by the inverse of the group's weight and the group with
+ * the lowest virtual time is served next, so a group of weight two starts twice as many runs as a group of weight one
+ * while both are backlogged. Jobs not assigned a group belong to the {@value #DEFAULT_GROUP} group.
+ * <p>
+ * Queues and counters are lock free. Admission decisions are made by whichever thread wins a work-in-progress counter,
+ * so queued runs are dispatched by the threads that queue or release runs and never by a dedicated thread. Runs held
+ * back by a rate limit are retried using the {@link #setTimer(JobTimer) timer}.
+ * <p>
+ * Admitted runs are started on the dispatching thread, so a {@link JobExecutor} using admission control should also be
+ * given a worker executor.
+ */
+public class JobAdmissionController {
+
+    /** the group of jobs not assigned one. */
+    public static final String DEFAULT_GROUP = "default";
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobAdmissionController.class);
+
+    /** the ticket state of a run that has been admitted. */
+    private static final int ADMITTED = 1;
+
+    /** the ticket state of a run waiting for admission. */
+    private static final int QUEUED = 0;
+
+    /** the ticket state of an admitted run that finished. */
+    private static final int RELEASED = 3;
+
+    /** the virtual time one run costs a group of weight one. */
+    private static final long VIRTUAL_COST = 1L << 20;
+
+    /** the ticket state of a run withdrawn before it was admitted. */
+    private static final int WITHDRAWN = 2;
+
+    /** the groups keyed by name. */
+    private final ConcurrentMap<String, Group> groups = new ConcurrentHashMap<String, Group>();
+
+    /** the group names keyed by job name. */
+    private final ConcurrentMap<String, String> jobGroups = new ConcurrentHashMap<String, String>();
+
+    /** the job limits keyed by job name. */
+    private final ConcurrentMap<String, Limiter> jobLimiters = new ConcurrentHashMap<String, Limiter>();
+
+    /** the limits of all runs on this node. */
+    private final Limiter node = new Limiter();
+
+    /** the pending retry of runs held back by a rate limit (dispatcher only). */
+    private JobTimeout retry;
+
+    /** when the pending retry runs, from {@link System#nanoTime()} (dispatcher only). */
+    private long retryAtNanos;
+
+    /** the shortest delay until a run held back by a rate limit may start (dispatcher only). */
+    private long retryDelayNanos;
+
+    /** the task retrying runs held back by a rate limit. */
+    private final Runnable retryTask = new Runnable() {
+        @Override
+        public void run() {
+            dispatch();
+        }
+    };
+
+    /** the virtual start time of the last admitted run (dispatcher only). */
+    private long systemVirtualTime;
+
+    /** the timer used to retry runs held back by a rate limit. */
+    private JobTimer timer;
+
+    /** the number of dispatch requests not yet handled by the current dispatcher. */
+    private final AtomicInteger workInProgress = new AtomicInteger();
+
+    /**
+     * Admit as many queued runs as the limits allow. Only the thread that raises the work-in-progress counter from zero
+     * dispatches; any other thread just records that another pass is needed.
+     */
+    private void dispatch() {
+        if (workInProgress.getAndIncrement() != 0) {
+            return;
+        }
+
+        int missed = 1;
+        do {
+            dispatchQueued();
+            missed = workInProgress.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void dispatchQueued() {
+        final long now = System.nanoTime();
+        retryDelayNanos = Long.MAX_VALUE;
+        while (node.hasCapacity()) {
+            // pick the admissible run of the group with the lowest virtual start time
+            Group next = null;
+            Ticket admissible = null;
+            long nextStart = 0L;
+            for (final Group group : groups.values()) {
+                if (group.queue.isEmpty()) {
+                    continue;
+                }
+
+                // a group that was idle restarts at the current virtual time instead of spending saved credit
+                final long start = Math.max(group.virtualTime, systemVirtualTime);
+                if (next != null && start >= nextStart) {
+                    continue;
+                }
+
+                final Ticket ticket = firstAdmissible(group, now);
+                if (ticket != null) {
+                    next = group;
+                    admissible = ticket;
+                    nextStart = start;
+                }
+            }
+
+            if (next == null) {
+                break;
+            }
+
+            next.queue.remove(admissible);
+            if (!admissible.state.compareAndSet(QUEUED, ADMITTED)) {
+                // withdrawn while being picked
+                continue;
+            }
+
+            admissible.job.acquire(now);
+            next.acquire(now);
+            node.acquire(now);
+            systemVirtualTime = nextStart;
+            next.virtualTime = nextStart + VIRTUAL_COST / next.weight;
+            try {
+                admissible.task.run();
+            } catch (final RuntimeException ex) {
+                LOG.warn("failed to start admitted run of job " + admissible.jobName + ".", ex);
+                admissible.release();
+            }
+        }
+
+        if (retryDelayNanos != Long.MAX_VALUE) {
+            scheduleRetry(now, retryDelayNanos);
+        }
+    }
+
+    /**
+     * Find the first queued run of the given group that may start now. Runs withdrawn since they were queued are
+     * discarded and the shortest delay until a rate limited run may start is noted in {@link #retryDelayNanos}.
+     */
+    private Ticket firstAdmissible(Group group, long now) {
+        if (!group.hasCapacity()) {
+            // retried when a run of the group is released
+            return null;
+        }
+
+        final long groupDelay = group.delayNanos(now);
+        if (groupDelay > 0L) {
+            retryDelayNanos = Math.min(retryDelayNanos, groupDelay);
+            return null;
+        }
+
+        for (final Iterator<Ticket> iter = group.queue.iterator(); iter.hasNext();) {
+            final Ticket ticket = iter.next();
+            if (ticket.state.get() != QUEUED) {
+                iter.remove();
+                continue;
+            }
+            if (!ticket.job.hasCapacity()) {
+                continue;
+            }
+
+            final long jobDelay = ticket.job.delayNanos(now);
+            if (jobDelay > 0L) {
+                retryDelayNanos = Math.min(retryDelayNanos, jobDelay);
+                continue;
+            }
+            return ticket;
+        }
+        return null;
+    }
+
+    JobTimer getTimer() {
+        return timer;
+    }
+
+    private Group group(String groupName) {
+        Group group = groups.get(groupName);
+        if (group == null) {
+            final Group created = new Group();
+            group = groups.putIfAbsent(groupName, created);
+            if (group == null) {
+                group = created;
+            }
+        }
+        return group;
+    }
+
+    private Limiter jobLimiter(String jobName) {
+        Limiter limiter = jobLimiters.get(jobName);
+        if (limiter == null) {
+            final Limiter created = new Limiter();
+            limiter = jobLimiters.putIfAbsent(jobName, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Create a ticket for a due run of the given job. The run is not queued until {@link Ticket#enqueue()} is called,
+     * so the caller can publish the ticket before the task may start.
+     *
+     * @param jobName
+     *            the globally unique job name.
+     * @param task
+     *            the task starting the run once it is admitted.
+     * @return the new ticket.
+     */
+    Ticket newTicket(String jobName, Runnable task) {
+        String groupName = jobGroups.get(jobName);
+        if (groupName == null) {
+            groupName = DEFAULT_GROUP;
+        }
+        return new Ticket(jobName, jobLimiter(jobName), group(groupName), task);
+    }
+
+    /**
+     * Schedule a retry of rate limited runs after the given delay unless an earlier retry is already pending.
+     */
+    private void scheduleRetry(long now, long delayNanos) {
+        final long at = now + delayNanos;
+        // a retry already due may be the one dispatching now, so it cannot stand in for a later one
+        if (retry != null && !retry.isDone() && retryAtNanos - now > 0L) {
+            if (retryAtNanos - at <= 0L) {
+                return;
+            }
+            retry.cancel();
+        }
+
+        final JobTimer t = timer;
+        if (t == null) {
+            LOG.warn("no timer to retry rate limited runs, they wait for the next dispatch.");
+            retry = null;
+            return;
+        }
+        retryAtNanos = at;
+        retry = t.schedule(retryTask, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Modify the maximum number of concurrent runs of all jobs in the given group.
+     *
+     * @param groupName
+     *            the group name.
+     * @param maxConcurrency
+     *            the maximum number of concurrent runs or zero for no limit.
+     */
+    public void setGroupMaxConcurrency(String groupName, int maxConcurrency) {
+        group(groupName).setMaxConcurrency(maxConcurrency);
+    }
+
+    /**
+     * Modify the rate at which runs of all jobs in the given group may start.
+     *
+     * @param groupName
+     *            the group name.
+     * @param runsPerSecond
+     *            the sustained rate of runs or zero for no limit.
+     * @param burst
+     *            the number of runs that may start back to back after the group was idle.
+     */
+    public void setGroupRateLimit(String groupName, double runsPerSecond, int burst) {
+        group(groupName).setRateLimit(runsPerSecond, burst);
+    }
+
+    /**
+     * Modify the share of admissions the given group receives while other groups have queued runs. Groups have a
+     * weight of one by default.
+     *
+     * @param groupName
+     *            the group name.
+     * @param weight
+     *            the positive weight.
+     */
+    public void setGroupWeight(String groupName, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("group weight must be positive.");
+        }
+        group(groupName).weight = weight;
+    }
+
+    /**
+     * Assign the given job to a group. Runs already queued stay in their original group.
+     *
+     * @param jobName
+     *            the globally unique job name.
+     * @param groupName
+     *            the group name.
+     */
+    public void setJobGroup(String jobName, String groupName) {
+        jobGroups.put(jobName, groupName);
+    }
+
+    /**
+     * Modify the maximum number of concurrent runs of the given job.
+     *
+     * @param jobName
+     *            the globally unique job name.
+     * @param maxConcurrency
+     *            the maximum number of concurrent runs or zero for no limit.
+     */
+    public void setJobMaxConcurrency(String jobName, int maxConcurrency) {
+        jobLimiter(jobName).setMaxConcurrency(maxConcurrency);
+    }
+
+    /**
+     * Modify the rate at which runs of the given job may start.
+     *
+     * @param jobName
+     *            the globally unique job name.
+     * @param runsPerSecond
+     *            the sustained rate of runs or zero for no limit.
+     * @param burst
+     *            the number of runs that may start back to back after the job was idle.
+     */
+    public void setJobRateLimit(String jobName, double runsPerSecond, int burst) {
+        jobLimiter(jobName).setRateLimit(runsPerSecond, burst);
+    }
+
+    /**
+     * Modify the maximum number of concurrent runs of all jobs on this node, usually the size of the worker pool.
+     *
+     * @param maxConcurrency
+     *            the maximum number of concurrent runs or zero for no limit.
+     */
+    public void setMaxConcurrency(int maxConcurrency) {
+        node.setMaxConcurrency(maxConcurrency);
+    }
+
+    /**
+     * Modify the timer used to retry runs held back by a rate limit. This is usually the timer of the
+     * {@link JobExecutor} using this controller.
+     */
+    public void setTimer(JobTimer timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * A job group: its limits, its queue of runs waiting for admission and its fair queuing state.
+     */
+    private static class Group extends Limiter {
+
+        /** the runs waiting for admission in arrival order. */
+        final Queue<Ticket> queue = new ConcurrentLinkedQueue<Ticket>();
+
+        /** the virtual finish time of the group's last admitted run (dispatcher only). */
+        long virtualTime;
+
+        /** the share of admissions the group receives. */
+        volatile int weight = 1;
+    }
+
+    /**
+     * The concurrency and rate limits of a job or group. The running count is only raised by the dispatcher, so
+     * checking it before raising it needs no compare and set; releases lower it from any thread.
+     */
+    private static class Limiter {
+
+        /** the nanoseconds between runs at the sustained rate or zero for no rate limit. */
+        private volatile long intervalNanos;
+
+        /** the maximum number of concurrent runs or zero for no limit. */
+        private volatile int maxConcurrency;
+
+        /** the number of admitted runs not yet released. */
+        final AtomicInteger running = new AtomicInteger();
+
+        /** the theoretical arrival time of the next run under the rate limit (dispatcher only). */
+        private long theoreticalArrivalNanos = System.nanoTime();
+
+        /** how far ahead of the sustained rate runs may start, allowing bursts. */
+        private volatile long toleranceNanos;
+
+        /**
+         * Take a concurrency slot and a rate limit token for a run admitted at the given time.
+         */
+        void acquire(long now) {
+            running.incrementAndGet();
+            final long interval = intervalNanos;
+            if (interval > 0L) {
+                theoreticalArrivalNanos = Math.max(theoreticalArrivalNanos - now, 0L) + now + interval;
+            }
+        }
+
+        /**
+         * Compute the delay until the rate limit allows a run, using the generic cell rate algorithm: a run may start
+         * once the theoretical arrival time is no more than the tolerance ahead of now.
+         *
+         * @return the delay in nanoseconds or zero if a run may start now.
+         */
+        long delayNanos(long now) {
+            if (intervalNanos <= 0L) {
+                return 0L;
+            }
+            return Math.max(theoreticalArrivalNanos - now - toleranceNanos, 0L);
+        }
+
+        boolean hasCapacity() {
+            final int max = maxConcurrency;
+            return max <= 0 || running.get() < max;
+        }
+
+        void setMaxConcurrency(int maxConcurrency) {
+            if (maxConcurrency < 0) {
+                throw new IllegalArgumentException("maximum concurrency must not be negative.");
+            }
+            this.maxConcurrency = maxConcurrency;
+        }
+
+        void setRateLimit(double runsPerSecond, int burst) {
+            if (runsPerSecond < 0.0 || Double.isNaN(runsPerSecond)) {
+                throw new IllegalArgumentException("rate limit must not be negative.");
+            }
+            if (burst < 1) {
+                throw new IllegalArgumentException("burst must be positive.");
+            }
+
+            if (runsPerSecond == 0.0) {
+                intervalNanos = 0L;
+                toleranceNanos = 0L;
+            } else {
+                final long interval = Math.max((long) (TimeUnit.SECONDS.toNanos(1L) / runsPerSecond), 1L);
+                toleranceNanos = interval * (burst - 1);
+                intervalNanos = interval;
+            }
+        }
+    }
+
+    /**
+     * A due run of a job, from being queued until it is withdrawn or released.
+     */
+    final class Ticket {
+
+        /** the group the run is queued in. */
+        final Group group;
+
+        /** the limits of the run's job. */
+        final Limiter job;
+
+        /** the globally unique job name. */
+        final String jobName;
+
+        /** one of {@link #QUEUED}, {@link #ADMITTED}, {@link #WITHDRAWN} or {@link #RELEASED}. */
+        final AtomicInteger state = new AtomicInteger(QUEUED);
+
+        /** the task starting the run. */
+        final Runnable task;
+
+        Ticket(String jobName, Limiter job, Group group, Runnable task) {
+            super();
+            this.jobName = jobName;
+            this.job = job;
+            this.group = group;
+            this.task = task;
+        }
+
+        /**
+         * Queue the run for admission. The task may start before this method returns.
+         */
+        void enqueue() {
+            group.queue.add(this);
+            dispatch();
+        }
+
+        /**
+         * Access whether the run is waiting for admission.
+         */
+        boolean isQueued() {
+            return state.get() == QUEUED;
+        }
+
+        /**
+         * Release the concurrency slots held by an admitted run once it finished. Has no effect if the run was never
+         * admitted or was already released.
+         */
+        void release() {
+            if (state.compareAndSet(ADMITTED, RELEASED)) {
+                job.running.decrementAndGet();
+                group.running.decrementAndGet();
+                node.running.decrementAndGet();
+                dispatch();
+            }
+        }
+
+        /**
+         * Withdraw the run if it is still waiting for admission.
+         *
+         * @return <code>true</code> if the run was withdrawn and will never start.
+         */
+        boolean withdraw() {
+            if (state.compareAndSet(QUEUED, WITHDRAWN)) {
+                group.queue.remove(this);
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,339 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists the progress checkpoints of running jobs at <code>/job/&lt;name&gt;/checkpoint</code>, so a run that does
+ * not complete, for example because its leader failed, is resumed by the next run instead of restarted. Jobs record
+ * checkpoints through {@link JobContext#checkpoint(byte[])} and resume through {@link JobContext#getCheckpoint()}.
+ * <p>
+ * Checkpoints are written on a background thread at most once per {@link #setIntervalMillis(long) interval} per job.
+ * A job checkpointing more often only has its latest checkpoint written, so the ZooKeeper write rate is bounded by the
+ * number of running jobs however often they checkpoint, and a failover loses at most an interval of progress. When a
+ * run ends without completing its latest checkpoint is written at once; when it completes its checkpoint is deleted
+ * before its status is written, so the next run starts from scratch.
+ * <p>
+ * A checkpoint node holds the fencing token of the leadership term that wrote it followed by the checkpoint. Writes
+ * are versioned, and on a conflict a write of an earlier term than the stored one is dropped, so a leader that lost
+ * its session while still running cannot overwrite the progress of its successor.
+ */
+public class JobCheckpointer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobCheckpointer.class);
+
+    /** the longest checkpoint in bytes, well under ZooKeeper's node size limit. */
+    public static final int MAX_CHECKPOINT_LENGTH = 64 * 1024;
+
+    /** the version of a checkpoint node that was not read yet. */
+    private static final int UNKNOWN_VERSION = -2;
+
+    private CuratorFramework client;
+
+    /** the checkpoints waiting to be written. */
+    private final ConcurrentLinkedQueue<Checkpoint> dirty = new ConcurrentLinkedQueue<Checkpoint>();
+
+    /** the least time between two writes of a job's checkpoint. */
+    private long intervalMillis = 1000L;
+
+    /** whether the checkpointer accepts checkpoints. */
+    private volatile boolean running;
+
+    /** the background thread writing checkpoints. */
+    private Thread worker;
+
+    /**
+     * Stop writing checkpoints. Checkpoints not written yet are dropped.
+     */
+    public synchronized void destroyCheckpointer() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            worker = null;
+        }
+        dirty.clear();
+    }
+
+    public synchronized void initializeCheckpointer() {
+        running = true;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writePeriodically();
+            }
+        }, "wfa-checkpoint-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Open the checkpoint of a run of the given job.
+     *
+     * @param jobName
+     *            the unique name of the job.
+     * @param fencingToken
+     *            the fencing token of the leadership term running the job.
+     * @return the checkpoint of the run.
+     */
+    Checkpoint open(String jobName, long fencingToken) {
+        return new Checkpoint("/job/" + jobName + "/checkpoint", fencingToken);
+    }
+
+    public void setClient(CuratorFramework client) {
+        this.client = client;
+    }
+
+    /**
+     * Modify the least time between two writes of a job's checkpoint, which is also the most progress a failover
+     * loses.
+     */
+    public void setIntervalMillis(long intervalMillis) {
+        if (intervalMillis < 1L) {
+            throw new IllegalArgumentException("checkpoint interval must be positive.");
+        }
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Write the latest checkpoint of every job that checkpointed during the last interval, until destroyed.
+     */
+    private void writePeriodically() {
+        try {
+            while (running) {
+                Thread.sleep(intervalMillis);
+                Checkpoint checkpoint;
+                while (running && (checkpoint = dirty.poll()) != null) {
+                    checkpoint.flush();
+                }
+            }
+        } catch (final InterruptedException ex) {
+            // destroyed
+        }
+    }
+
+    /**
+     * The checkpoint of a single run. Writes of the same checkpoint are serialized on the checkpoint.
+     */
+    class Checkpoint {
+
+        /** whether the run ended, after which checkpoints are no longer accepted. */
+        private boolean closed;
+
+        /** whether a later leadership term wrote the checkpoint, after which this run's checkpoints are dropped. */
+        private boolean fenced;
+
+        /** the fencing token of the leadership term running the job. */
+        private final long fencingToken;
+
+        /** the path of the checkpoint node. */
+        private final String path;
+
+        /** the latest checkpoint not written yet, or <code>null</code> if none. */
+        private byte[] pending;
+
+        /** whether the checkpoint waits in the queue of the background thread. */
+        private final AtomicBoolean queued = new AtomicBoolean();
+
+        /** whether the run read or wrote the checkpoint, so it has a checkpoint node to clean up. */
+        private boolean used;
+
+        /** the version of the checkpoint node, -1 if it does not exist or {@link #UNKNOWN_VERSION} before a read. */
+        private int version = UNKNOWN_VERSION;
+
+        Checkpoint(String path, long fencingToken) {
+            super();
+            this.path = path;
+            this.fencingToken = fencingToken;
+        }
+
+        /**
+         * Delete the checkpoint node unless a later leadership term wrote it.
+         */
+        private void delete() throws Exception {
+            while (true) {
+                if (version == UNKNOWN_VERSION) {
+                    readNode();
+                }
+                if (fenced || version == -1) {
+                    return;
+                }
+                try {
+                    client.delete().withVersion(version).forPath(path);
+                    version = -1;
+                    return;
+                } catch (final KeeperException.BadVersionException ex) {
+                    version = UNKNOWN_VERSION;
+                } catch (final KeeperException.NoNodeException ex) {
+                    version = -1;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Finish the run with the given outcome: delete the checkpoint of a completed run, or write the latest
+         * checkpoint of a run that did not complete so the next run resumes from it.
+         */
+        synchronized void finish(JobOutcome outcome) throws Exception {
+            closed = true;
+            final byte[] latest = pending;
+            pending = null;
+            if (!used) {
+                return;
+            }
+            if (outcome == JobOutcome.COMPLETED) {
+                delete();
+            } else if (latest != null) {
+                store(latest);
+            }
+        }
+
+        /**
+         * Write the latest checkpoint if it was not written yet.
+         */
+        synchronized void flush() {
+            queued.set(false);
+            final byte[] latest = pending;
+            pending = null;
+            if (latest == null || closed) {
+                return;
+            }
+            try {
+                store(latest);
+            } catch (final Exception ex) {
+                LOG.warn("failed to write checkpoint " + path + ", retrying.", ex);
+                if (pending == null) {
+                    pending = latest;
+                }
+                queue();
+            }
+        }
+
+        /**
+         * Queue this checkpoint for the background thread unless it is already queued.
+         */
+        private void queue() {
+            if (running && queued.compareAndSet(false, true)) {
+                dirty.add(this);
+            }
+        }
+
+        /**
+         * Read the checkpoint persisted by an earlier run.
+         *
+         * @return the checkpoint or <code>null</code> if there is none.
+         */
+        synchronized byte[] read() throws Exception {
+            used = true;
+            return readNode();
+        }
+
+        /**
+         * Read the checkpoint node, recording its version and whether a later leadership term wrote it.
+         *
+         * @return the checkpoint or <code>null</code> if there is none.
+         */
+        private byte[] readNode() throws Exception {
+            final Stat stat = new Stat();
+            final byte[] data;
+            try {
+                data = client.getData().storingStatIn(stat).forPath(path);
+            } catch (final KeeperException.NoNodeException ex) {
+                version = -1;
+                return null;
+            }
+
+            version = stat.getVersion();
+            if (data == null || data.length < 8) {
+                return null;
+            }
+            final ByteBuffer buffer = ByteBuffer.wrap(data);
+            if (buffer.getLong() > fencingToken) {
+                fenced = true;
+            }
+            final byte[] checkpoint = new byte[buffer.remaining()];
+            buffer.get(checkpoint);
+            return checkpoint;
+        }
+
+        /**
+         * Write the given checkpoint to the checkpoint node, creating it if needed. On a version conflict the node is
+         * read back and the write dropped if a later leadership term wrote it.
+         */
+        private void store(byte[] checkpoint) throws Exception {
+            final byte[] data = ByteBuffer.allocate(8 + checkpoint.length).putLong(fencingToken).put(checkpoint)
+                .array();
+            while (!fenced) {
+                if (version == UNKNOWN_VERSION) {
+                    readNode();
+                    continue;
+                }
+                try {
+                    if (version == -1) {
+                        client.create().creatingParentsIfNeeded().forPath(path, data);
+                        version = 0;
+                    } else {
+                        version = client.setData().withVersion(version).forPath(path, data).getVersion();
+                    }
+                    return;
+                } catch (final KeeperException.NodeExistsException ex) {
+                    version = UNKNOWN_VERSION;
+                } catch (final KeeperException.BadVersionException ex) {
+                    version = UNKNOWN_VERSION;
+                } catch (final KeeperException.NoNodeException ex) {
+                    version = -1;
+                }
+            }
+            LOG.warn("checkpoint {} was written by a later leader, dropping the checkpoints of term {}.", path,
+                fencingToken);
+        }
+
+        /**
+         * Record the given checkpoint, to be written by the background thread once the interval allows.
+         */
+        synchronized void write(byte[] checkpoint) {
+            if (closed || fenced) {
+                return;
+            }
+            used = true;
+            pending = checkpoint;
+            queue();
+        }
+    }
+}
@@ -30,17 +30,44 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 package wfa;
 
 import java.util.Date;
+import java.util.concurrent.CancellationException;
 
 /**
- * The state of a job during its current execution.
+ * The state of a job during its current execution. Times are stored as milliseconds since the epoch, with
+ * {@link JobStatus#NO_TIME} marking a time that is not yet known. The {@link Date} accessors are adapters over the
+ * millisecond values and return <code>null</code> for unknown times.
+ * <p>
+ * A job leader may reuse the context for the job's next execution once this one finished, so a job must not keep the
+ * context after {@link Job#execute(JobContext)} returns.
  */
 public class JobContext {
 
     /** the actual time the job execution completed (set by the {@link JobExecutor}). */
-    private Date actualCompletionTime;
+    private long actualCompletionTime = JobStatus.NO_TIME;
 
     /** the actual time the job execution started (set by the {@link JobExecutor}). */
-    private Date actualExecutionTime;
+    private long actualExecutionTime = JobStatus.NO_TIME;
+
+    /** the progress to resume from, or <code>null</code> if not known yet (see {@link #getCheckpoint()}). */
+    private volatile byte[] checkpoint;
+
+    /** whether {@link #checkpoint} holds the progress to resume from. */
+    private volatile boolean checkpointKnown;
+
+    /** the persisted checkpoint of the execution (set by the leader), or <code>null</code> if not persisted. */
+    private JobCheckpointer.Checkpoint checkpoints;
+
+    /** the number of missed execution times coalesced into or skipped before this execution (set by the leader). */
+    private long coalescedCount;
+
+    /** whether the execution should stop early (set by the {@link JobExecutor}). */
+    private volatile boolean cancellationRequested;
+
+    /** whether the execution should start now instead of at its scheduled time (set by the leader). */
+    private volatile boolean fireRequested;
+
+    /** the fencing token of the leadership term running the execution (set by the leader), or zero if not known. */
+    private long fencingToken;
 
     /**
      * Construct a context using the given job and scheduled execution time.
@@ -48,6 +75,16 @@ public class JobContext {
      * @param nextScheduledExecutionTime the time the job is scheduled to start execution.
      */
     public JobContext(Job job, Date nextScheduledExecutionTime) {
+        this(job, nextScheduledExecutionTime.getTime());
+    }
+
+    /**
+     * Construct a context using the given job and scheduled execution time.
+     * @param job the job being executed
+     * @param nextScheduledExecutionTime the time the job is scheduled to start execution in milliseconds since the
+     *            epoch.
+     */
+    public JobContext(Job job, long nextScheduledExecutionTime) {
         super();
         this.job = job;
         this.nextScheduledExecutionTime = nextScheduledExecutionTime;
@@ -56,30 +93,229 @@ public class JobContext {
     /** the job being executed. */
     private final Job job;
 
-    /** the time the job is scheduled to start execution. */
-    private final Date nextScheduledExecutionTime;
+    /** the time the job is scheduled to start execution, moved earlier when the execution is fired ahead of it. */
+    private volatile long nextScheduledExecutionTime;
+
+    /** the way the job execution ended (set by the {@link JobExecutor}). */
+    private JobOutcome outcome;
+
+    /** the time the due execution waited to start on this node (set by the {@link JobExecutor}), or -1 if unknown. */
+    private long queueWaitTime = -1L;
+
+    /**
+     * Record the progress of the execution as a small opaque token, for example the key of the last item processed, of
+     * at most {@link JobCheckpointer#MAX_CHECKPOINT_LENGTH} bytes. Checkpoints are persisted in the background at most
+     * once per {@link JobCheckpointer#setIntervalMillis(long) checkpoint interval}, later checkpoints replacing earlier
+     * ones not written yet, so a job may checkpoint as often as convenient. If the execution does not complete, the
+     * next execution resumes from its latest persisted checkpoint through {@link #getCheckpoint()}. Checkpoints are
+     * only persisted when the job's leader has a {@link JobCheckpointer}.
+     *
+     * @param progress
+     *            the progress token. The array must not be modified afterwards.
+     */
+    public void checkpoint(byte[] progress) {
+        if (progress.length > JobCheckpointer.MAX_CHECKPOINT_LENGTH) {
+            throw new IllegalArgumentException("checkpoint of job " + job.getUniqueName() + " is longer than "
+                + JobCheckpointer.MAX_CHECKPOINT_LENGTH + " bytes.");
+        }
+        checkpoint = progress;
+        checkpointKnown = true;
+        if (checkpoints != null) {
+            checkpoints.write(progress);
+        }
+    }
 
     public Date getActualCompletionTime() {
+        return JobStatus.toDate(actualCompletionTime);
+    }
+
+    public long getActualCompletionTimeMillis() {
         return actualCompletionTime;
     }
 
     public Date getActualExecutionTime() {
+        return JobStatus.toDate(actualExecutionTime);
+    }
+
+    public long getActualExecutionTimeMillis() {
         return actualExecutionTime;
     }
 
+    /**
+     * Access the progress to resume from: the latest checkpoint of this execution or, before its first checkpoint, the
+     * latest checkpoint persisted by an earlier execution that did not complete. A job resuming from it only redoes
+     * the work done since that checkpoint. The first call reads the persisted checkpoint from ZooKeeper.
+     *
+     * @return the progress token or <code>null</code> to start from scratch.
+     * @throws IllegalStateException
+     *             if the persisted checkpoint could not be read.
+     */
+    public byte[] getCheckpoint() {
+        if (!checkpointKnown && checkpoints != null) {
+            try {
+                final byte[] persisted = checkpoints.read();
+                if (!checkpointKnown) {
+                    checkpoint = persisted;
+                }
+            } catch (final Exception ex) {
+                throw new IllegalStateException("could not read checkpoint of job " + job.getUniqueName() + ".", ex);
+            }
+        }
+        checkpointKnown = true;
+        return checkpoint;
+    }
+
+    /**
+     * Access the persisted checkpoint of the execution, or <code>null</code> if checkpoints are not persisted.
+     */
+    JobCheckpointer.Checkpoint getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * Access the number of missed execution times coalesced into or skipped before this execution. A job run under
+     * {@link MisfirePolicy#FIRE_ONCE} may use it to cover the work of the coalesced runs.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * Access the fencing token of the leadership term running this execution. Tokens grow with every term, so a job
+     * writing to an external resource can pass the token along and have the resource reject writes carrying a smaller
+     * token than one it has already seen, fencing off a leader that lost its session while still running.
+     */
+    public long getFencingToken() {
+        return fencingToken;
+    }
+
     public Job getJob() {
         return job;
     }
 
     public Date getNextScheduledExecutionTime() {
+        return JobStatus.toDate(nextScheduledExecutionTime);
+    }
+
+    public long getNextScheduledExecutionTimeMillis() {
         return nextScheduledExecutionTime;
     }
 
+    public JobOutcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Access the time in milliseconds between the execution becoming due and starting, spent waiting for admission
+     * and for a worker thread on this node. Scheduling lag beyond this wait was spent before the run reached this node,
+     * for example electing a leader. Returns -1 if the execution never became due.
+     */
+    public long getQueueWaitTimeMillis() {
+        return queueWaitTime;
+    }
+
+    /**
+     * Access whether the execution was asked to start now instead of at its scheduled time.
+     */
+    boolean isFireRequested() {
+        return fireRequested;
+    }
+
+    /**
+     * Access whether the execution should stop early, for example because leadership was lost or the node is shutting
+     * down. Long running jobs should check this regularly and return, or call
+     * {@link #throwIfCancellationRequested()}, once it is set.
+     */
+    public boolean isCancellationRequested() {
+        return cancellationRequested;
+    }
+
+    /**
+     * Ask the execution to start now instead of at its scheduled time.
+     */
+    void requestFire() {
+        fireRequested = true;
+    }
+
+    /**
+     * Ask the execution to stop early. Cancellation is cooperative: the job is never interrupted by this call.
+     */
+    void requestCancellation() {
+        cancellationRequested = true;
+    }
+
+    /**
+     * Prepare the context for another execution of the same job scheduled at the given time, forgetting everything
+     * recorded by the previous execution. Job leaders reuse a context this way so a run allocates none.
+     *
+     * @return this context.
+     */
+    JobContext reset(long nextScheduledExecutionTime) {
+        actualCompletionTime = JobStatus.NO_TIME;
+        actualExecutionTime = JobStatus.NO_TIME;
+        checkpoint = null;
+        checkpointKnown = false;
+        checkpoints = null;
+        coalescedCount = 0L;
+        cancellationRequested = false;
+        fireRequested = false;
+        fencingToken = 0L;
+        outcome = null;
+        queueWaitTime = -1L;
+        this.nextScheduledExecutionTime = nextScheduledExecutionTime;
+        return this;
+    }
+
     public void setActualCompletionTime(Date actualCompletionTime) {
+        this.actualCompletionTime = JobStatus.toMillis(actualCompletionTime);
+    }
+
+    public void setActualCompletionTimeMillis(long actualCompletionTime) {
         this.actualCompletionTime = actualCompletionTime;
     }
 
     public void setActualExecutionTime(Date actualExecutionTime) {
+        this.actualExecutionTime = JobStatus.toMillis(actualExecutionTime);
+    }
+
+    public void setActualExecutionTimeMillis(long actualExecutionTime) {
         this.actualExecutionTime = actualExecutionTime;
     }
+
+    void setCheckpoints(JobCheckpointer.Checkpoint checkpoints) {
+        this.checkpoints = checkpoints;
+    }
+
+    public void setCoalescedCount(long coalescedCount) {
+        this.coalescedCount = coalescedCount;
+    }
+
+    public void setFencingToken(long fencingToken) {
+        this.fencingToken = fencingToken;
+    }
+
+    void setNextScheduledExecutionTimeMillis(long nextScheduledExecutionTime) {
+        this.nextScheduledExecutionTime = nextScheduledExecutionTime;
+    }
+
+    public void setOutcome(JobOutcome outcome) {
+        this.outcome = outcome;
+    }
+
+    public void setQueueWaitTimeMillis(long queueWaitTime) {
+        this.queueWaitTime = queueWaitTime;
+    }
+
+    /**
+     * Stop the execution if cancellation was requested. The exception thrown is recorded as a
+     * {@link JobOutcome#CANCELLED cancelled} run rather than a failure.
+     *
+     * @throws CancellationException
+     *             if cancellation was requested.
+     */
+    public void throwIfCancellationRequested() {
+        if (cancellationRequested) {
+            throw new CancellationException("execution of job " + job.getUniqueName() + " cancelled.");
+        }
+    }
 }
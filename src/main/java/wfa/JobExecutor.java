@@ -29,15 +29,23 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 package wfa;
 
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,113 +54,700 @@ public class JobExecutor {
 
     private static final Logger LOG = LoggerFactory.getLogger(JobExecutor.class);
 
-    private final Map<String, ScheduledFuture<?>> jobFutures = new ConcurrentHashMap<String, ScheduledFuture<?>>();
+    /**
+     * Create an executor service that starts a new virtual thread for each task. Virtual threads are cheap to block, so
+     * I/O bound jobs and leaders waiting on runs no longer tie up platform threads. On runtimes without virtual threads
+     * an unbounded pool of daemon platform threads is returned instead.
+     *
+     * @return the new executor service.
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            // looked up reflectively so the framework still runs on runtimes without virtual threads
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException ex) {
+            LOG.warn("virtual threads are not available, using platform threads.");
+            final AtomicInteger threadNumber = new AtomicInteger();
+            return Executors.newCachedThreadPool(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "wfa-worker-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /** the admission control applied to due runs, or <code>null</code> to start runs as soon as they are due. */
+    private JobAdmissionController admissionController;
+
+    /**
+     * the latest run of each job. A run of {@link #execute(JobContext)} stays once done, so the job's next blocking run
+     * reuses it instead of allocating another.
+     */
+    private final Map<String, ScheduledRun> jobFutures = new ConcurrentHashMap<String, ScheduledRun>();
 
-    private ScheduledExecutorService scheduler;
+    /** whether {@link #shutdown(long, TimeUnit)} was called and new runs are rejected. */
+    private volatile boolean shuttingDown;
+
+    /** the executor service offered to job leaders for running their elections, or <code>null</code> for none. */
+    private ExecutorService leaderExecutorService;
+
+    /** the timer storing scheduled runs until they are due. */
+    private JobTimer timer;
+
+    /** the virtual thread executor created by {@link #setVirtualThreads(boolean)}, shut down with this executor. */
+    private ExecutorService virtualThreadExecutor;
+
+    /**
+     * the executor running job bodies once they are due, or <code>null</code> to run them on the timer's dispatch
+     * thread.
+     */
+    private Executor workerExecutor;
 
     public void cancel(Job job) {
         cancel(job.getUniqueName());
     }
 
     private void cancel(String jobName) {
-        final ScheduledFuture<?> future = jobFutures.remove(jobName);
-        if (future != null) {
-            cancel(jobName, future);
+        final ScheduledRun run = jobFutures.remove(jobName);
+        if (run != null) {
+            cancel(jobName, run);
         }
     }
 
-    private void cancel(String jobName, ScheduledFuture<?> future) {
-        // attempt to cancel scheduled future
-        if (future != null && !future.isDone() && !future.isCancelled()) {
-            if (future.cancel(false)) {
-                LOG.info("cancelled task for job {}.", jobName);
-                future = null;
-            } else {
-                LOG.info("failed to cancel for job {}.", jobName);
-            }
+    /**
+     * Cancel the given run. A run still waiting for its scheduled time or for admission is cancelled immediately,
+     * waking any thread waiting on it. A running job is asked to stop through its context and finishes on its own.
+     */
+    private void cancel(String jobName, ScheduledRun run) {
+        // attempt to cancel scheduled timeout
+        final JobTimeout timeout = run.timeout;
+        final JobAdmissionController.Ticket ticket = run.ticket;
+        if (timeout != null && !timeout.isDone() && timeout.cancel()) {
+            LOG.info("cancelled task for job {}.", jobName);
+            cancelled(run);
+        } else if (ticket != null && ticket.withdraw()) {
+            LOG.info("withdrew queued run of job {}.", jobName);
+            cancelled(run);
+        } else if (!run.isDone()) {
+            LOG.info("requested cancellation of running job {}.", jobName);
+            run.ctx.requestCancellation();
         }
     }
 
+    /**
+     * Complete the given run as cancelled.
+     */
+    private void cancelled(ScheduledRun run) {
+        release(run);
+        run.ctx.setOutcome(JobOutcome.CANCELLED);
+        populateMissingDates(run.ctx);
+        run.cancelled();
+    }
+
+    /**
+     * Cancel every run without waiting: pending runs are cancelled and running jobs are asked to stop. See
+     * {@link #shutdown(long, TimeUnit)} to also wait for running jobs.
+     */
     public void destroyExecutor() {
-        for (final Map.Entry<String, ScheduledFuture<?>> entry : jobFutures.entrySet()) {
+        for (final Map.Entry<String, ScheduledRun> entry : jobFutures.entrySet()) {
             cancel(entry.getKey(), entry.getValue());
         }
         jobFutures.clear();
+
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+            virtualThreadExecutor = null;
+        }
     }
 
+    /**
+     * Schedule the job execution described by the given context and wait for it to complete. The calling thread is
+     * blocked for the entire scheduling delay and the run itself, and is woken as soon as the run is cancelled. If the
+     * calling thread is interrupted, the run is cancelled and the interrupt is kept. See {@link #submit(JobContext)}
+     * for a non-blocking alternative.
+     *
+     * @param ctx
+     *            the job execution context.
+     */
     public void execute(final JobContext ctx) {
-        final Job job = ctx.getJob();
-        final String jobName = job.getUniqueName();
-        final Date nextTime = ctx.getNextScheduledExecutionTime();
+        final String jobName = ctx.getJob().getUniqueName();
+        final ScheduledRun run = schedule(ctx, true);
+
+        // the done run stays registered for the job's next blocking run to reuse
+        waitUntilComplete(jobName, run);
+    }
+
+    /**
+     * Start the pending run described by the given context now instead of at its scheduled execution time, which is
+     * moved to the current time if it was later. A run not scheduled yet starts as soon as it is. Used by job leaders
+     * to run jobs woken by events, such as a {@link DependentJobSchedule} whose upstream jobs completed.
+     *
+     * @param ctx
+     *            the context of the run.
+     * @return whether the run was waiting for its scheduled time and was started by this call.
+     */
+    public boolean fireNow(JobContext ctx) {
+        ctx.requestFire();
+        final ScheduledRun run = jobFutures.get(ctx.getJob().getUniqueName());
+        if (run == null || run.ctx != ctx) {
+            return false;
+        }
+        return fire(run);
+    }
 
-        final Runnable timer = new Runnable() {
+    /**
+     * Reschedule the given run to start now if it is still waiting for its scheduled time.
+     */
+    private boolean fire(ScheduledRun run) {
+        final JobTimeout timeout = run.timeout;
+        if (timeout == null || timeout.isDone() || !timeout.cancel()) {
+            return false;
+        }
+
+        final long now = System.currentTimeMillis();
+        if (run.ctx.getNextScheduledExecutionTimeMillis() > now) {
+            run.ctx.setNextScheduledExecutionTimeMillis(now);
+        }
+        run.timeout = timer.schedule(run.task, 0L, TimeUnit.MILLISECONDS);
+        LOG.info("fired job {} ahead of its scheduled execution time.", run.ctx.getJob().getUniqueName());
+        return true;
+    }
+
+    /**
+     * Access the executor service job leaders should use to run their elections when they are not configured with one
+     * of their own.
+     *
+     * @return the executor service or <code>null</code> if leaders should use a dedicated thread each.
+     */
+    public ExecutorService getLeaderExecutorService() {
+        return leaderExecutorService;
+    }
+
+    /**
+     * Access the number of runs waiting for admission.
+     */
+    public int getQueuedCount() {
+        int queued = 0;
+        for (final ScheduledRun run : jobFutures.values()) {
+            final JobAdmissionController.Ticket ticket = run.ticket;
+            if (ticket != null && ticket.isQueued()) {
+                ++queued;
+            }
+        }
+        return queued;
+    }
+
+    /**
+     * Access the number of runs executing.
+     */
+    public int getRunningCount() {
+        int running = 0;
+        for (final ScheduledRun run : jobFutures.values()) {
+            if (run.runner != null) {
+                ++running;
+            }
+        }
+        return running;
+    }
+
+    /**
+     * Create a run whose tasks start the job of whichever context the run was last {@link ScheduledRun#reset reset}
+     * to, so a reused run needs no new tasks.
+     *
+     * @param blocking
+     *            whether the run is scheduled by {@link #execute(JobContext)} and may be reused once done.
+     */
+    private ScheduledRun newRun(boolean blocking) {
+        final ScheduledRun run = new ScheduledRun(blocking);
+
+        final Runnable body = new Runnable() {
             @Override
             public void run() {
-                ctx.setActualExecutionTime(new Date());
+                final JobContext ctx = run.ctx;
+                ctx.setQueueWaitTimeMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - run.dueNanos));
+                if (ctx.isCancellationRequested()) {
+                    // cancelled while being handed to a worker
+                    cancelled(run);
+                    return;
+                }
+
+                ctx.setActualExecutionTimeMillis(System.currentTimeMillis());
+                run.runner = Thread.currentThread();
                 try {
-                    job.execute(ctx);
-                } finally {
-                    ctx.setActualCompletionTime(new Date());
+                    ctx.getJob().execute(ctx);
+                } catch (final CancellationException ex) {
+                    run.runner = null;
+                    if (ctx.isCancellationRequested()) {
+                        // the job honored a cancellation request
+                        cancelled(run);
+                        return;
+                    }
+                    failed(ctx, ex);
+                    throw ex;
+                } catch (final Throwable ex) {
+                    run.runner = null;
+                    failed(ctx, ex);
+                    throw ex;
                 }
+                // cleared before the run is done, since a done run may be reused by the job's next run at once
+                run.runner = null;
+                ctx.setActualCompletionTimeMillis(System.currentTimeMillis());
+                ctx.setOutcome(JobOutcome.COMPLETED);
+                release(run);
+                run.completed();
             }
-        };
 
-        final ScheduledFuture<?> future = scheduler.schedule(timer, nextTime.getTime() - System.currentTimeMillis(),
-            TimeUnit.MILLISECONDS);
-        jobFutures.put(jobName, future);
-        LOG.info("scheduled job {} for execution at {}", jobName, nextTime);
+            private void failed(JobContext ctx, Throwable ex) {
+                release(run);
+                ctx.setActualCompletionTimeMillis(System.currentTimeMillis());
+                ctx.setOutcome(JobOutcome.FAILED);
+                run.failed(ex);
+            }
+        };
 
-        waitUntilComplete(jobName, future, ctx);
+        final Runnable start = new Runnable() {
+            @Override
+            public void run() {
+                final Executor worker = workerExecutor;
+                if (worker == null) {
+                    body.run();
+                } else {
+                    // keep the timer's dispatch thread free by handing the job body off to a worker
+                    worker.execute(body);
+                }
+            }
+        };
 
-        jobFutures.remove(jobName);
+        run.task = new Runnable() {
+            @Override
+            public void run() {
+                run.dueNanos = System.nanoTime();
+                final JobAdmissionController admission = admissionController;
+                if (admission == null) {
+                    start.run();
+                } else {
+                    // publish the ticket before the run can start and release it
+                    run.ticket = admission.newTicket(run.ctx.getJob().getUniqueName(), start);
+                    run.ticket.enqueue();
+                }
+            }
+        };
+        return run;
     }
 
     private void populateMissingDates(JobContext ctx) {
-        if (ctx.getActualExecutionTime() == null) {
+        if (ctx.getActualExecutionTimeMillis() == JobStatus.NO_TIME) {
             // it never executed
-            ctx.setActualExecutionTime(new Date());
+            ctx.setActualExecutionTimeMillis(System.currentTimeMillis());
         }
 
-        if (ctx.getActualCompletionTime() == null) {
+        if (ctx.getActualCompletionTimeMillis() == JobStatus.NO_TIME) {
             // it never completed
-            ctx.setActualCompletionTime(new Date());
+            ctx.setActualCompletionTimeMillis(System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Release the admission held by the given run, if any, so queued runs may start.
+     */
+    private void release(ScheduledRun run) {
+        final JobAdmissionController.Ticket ticket = run.ticket;
+        if (ticket != null) {
+            ticket.release();
         }
     }
 
+    /**
+     * Schedule the run described by the given context. A blocking run reuses the job's previous blocking run once it
+     * is done, so scheduling the steady state runs of a job leader allocates nothing.
+     *
+     * @param blocking
+     *            whether the run is scheduled by {@link #execute(JobContext)}.
+     */
+    private ScheduledRun schedule(JobContext ctx, boolean blocking) {
+        if (shuttingDown) {
+            throw new RejectedExecutionException("job executor is shutting down.");
+        }
+
+        final String jobName = ctx.getJob().getUniqueName();
+        final long nextTime = ctx.getNextScheduledExecutionTimeMillis();
+        ScheduledRun run = blocking ? jobFutures.get(jobName) : null;
+        if (run == null || !run.blocking || !run.isDone()) {
+            run = newRun(blocking);
+        }
+        run.reset(ctx);
+
+        jobFutures.put(jobName, run);
+        // a run already due starts immediately
+        final long delay = Math.max(0L, nextTime - System.currentTimeMillis());
+        run.timeout = timer.schedule(run.task, delay, TimeUnit.MILLISECONDS);
+        if (nextTime == MillisJobSchedule.NEVER) {
+            LOG.info("scheduled job {} for execution once fired.", jobName);
+        } else if (LOG.isDebugEnabled()) {
+            LOG.debug("scheduled job {} for execution at {}", jobName, new Date(nextTime));
+        }
+        if (ctx.isFireRequested()) {
+            // fired before the run was scheduled
+            fire(run);
+        }
+        return run;
+    }
+
+    /**
+     * Schedule the given task to run once after the given delay. Used by job leaders to rejoin leader elections shortly
+     * before a job's next scheduled execution time.
+     *
+     * @param wakeUp
+     *            the task to run.
+     * @param delayInMillis
+     *            the delay before running the task measured in milliseconds.
+     * @return the timeout that can be used to cancel the wake up.
+     */
+    public JobTimeout scheduleWakeUp(Runnable wakeUp, long delayInMillis) {
+        return timer.schedule(wakeUp, delayInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Modify the admission control applied to due runs. Runs that are due wait in the controller's queues until their
+     * job's and group's limits allow them to start, and the wait is reported by
+     * {@link JobContext#getQueueWaitTimeMillis()}. A controller without a timer of its own is given this executor's
+     * timer to retry runs held back by a rate limit.
+     */
+    public void setAdmissionController(JobAdmissionController admissionController) {
+        this.admissionController = admissionController;
+        if (admissionController != null && admissionController.getTimer() == null) {
+            admissionController.setTimer(timer);
+        }
+    }
+
+    /**
+     * Modify the executor service offered to job leaders for running their elections.
+     */
+    public void setLeaderExecutorService(ExecutorService leaderExecutorService) {
+        this.leaderExecutorService = leaderExecutorService;
+    }
+
+    /**
+     * Modify the scheduler used to store scheduled runs and execute them once they are due. This is a shortcut for
+     * {@link #setTimer(JobTimer)} with a {@link ScheduledExecutorJobTimer}.
+     */
     public void setScheduler(ScheduledExecutorService scheduler) {
-        this.scheduler = scheduler;
+        setTimer(new ScheduledExecutorJobTimer(scheduler));
     }
 
-    private void waitUntilComplete(String jobName, ScheduledFuture<?> future, JobContext ctx) {
-        final long delayInMillis = future.getDelay(TimeUnit.MILLISECONDS);
-        if (delayInMillis > 0) {
-            try {
-                // delay until future is schedule to start
-                Thread.sleep(delayInMillis);
-            } catch (final InterruptedException ex) {
-                LOG.info("interrupted waiting for job {} to start.", jobName);
+    /**
+     * Modify the timer used to store scheduled runs and execute them once they are due. Nodes with very many jobs
+     * should use a {@link HashedWheelJobTimer}.
+     */
+    public void setTimer(JobTimer timer) {
+        final JobTimer previous = this.timer;
+        this.timer = timer;
+        if (admissionController != null
+            && (admissionController.getTimer() == null || admissionController.getTimer() == previous)) {
+            // the controller retries rate limited runs on this executor's timer
+            admissionController.setTimer(timer);
+        }
+    }
+
+    /**
+     * Modify whether job bodies and leader elections run on virtual threads. When enabled, a single executor from
+     * {@link #newVirtualThreadExecutor()} becomes both the worker executor and the leader executor service, so a
+     * leader blocked waiting on a run and a job blocked on I/O each hold only a virtual thread. The executor is shut
+     * down by {@link #destroyExecutor()}. Disabling virtual threads resets only the executors that enabling them
+     * installed; executors set explicitly are kept.
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        final ExecutorService previous = virtualThreadExecutor;
+        if (previous != null) {
+            previous.shutdown();
+            virtualThreadExecutor = null;
+            if (workerExecutor == previous) {
+                workerExecutor = null;
             }
+            if (leaderExecutorService == previous) {
+                leaderExecutorService = null;
+            }
+        }
+
+        if (virtualThreads) {
+            virtualThreadExecutor = newVirtualThreadExecutor();
+            workerExecutor = virtualThreadExecutor;
+            leaderExecutorService = virtualThreadExecutor;
         }
+    }
 
-        // wait until future has result
+    /**
+     * Modify the executor running job bodies once they are due. By default job bodies run on the timer's dispatch
+     * thread.
+     */
+    public void setWorkerExecutor(Executor workerExecutor) {
+        this.workerExecutor = workerExecutor;
+    }
+
+    /**
+     * Stop accepting runs, cancel pending runs, ask running jobs to stop and wait for them to finish for at most the
+     * given drain time. Pending runs are cancelled immediately however long their scheduling delays, so shutdown takes
+     * no longer than the running jobs need to honor {@link JobContext#isCancellationRequested()}, bounded by the drain
+     * time. Job leaders should be destroyed first so they stop submitting runs.
+     *
+     * @param drainTime
+     *            the longest time to wait for running jobs.
+     * @param unit
+     *            the unit of the drain time.
+     * @return the future completed once every running job finished, or completed exceptionally with a
+     *         {@link TimeoutException} once the drain time elapsed, after interrupting the jobs still running.
+     */
+    public CompletableFuture<Void> shutdown(long drainTime, TimeUnit unit) {
+        shuttingDown = true;
+
+        final List<ScheduledRun> runs = new ArrayList<ScheduledRun>();
+        for (final Map.Entry<String, ScheduledRun> entry : jobFutures.entrySet()) {
+            runs.add(entry.getValue());
+            cancel(entry.getKey(), entry.getValue());
+        }
+        jobFutures.clear();
+
+        final CompletableFuture<?>[] completions = new CompletableFuture<?>[runs.size()];
+        for (int i = 0; i < completions.length; ++i) {
+            completions[i] = runs.get(i).completion();
+        }
+
+        final CompletableFuture<Void> drained = new CompletableFuture<Void>();
+        final JobTimeout deadline = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                int running = 0;
+                for (final ScheduledRun run : runs) {
+                    if (!run.isDone()) {
+                        ++running;
+                        final Thread runner = run.runner;
+                        if (runner != null) {
+                            runner.interrupt();
+                        }
+                    }
+                }
+                drained.completeExceptionally(new TimeoutException(running + " jobs still running after drain time."));
+            }
+        }, drainTime, unit);
+
+        CompletableFuture.allOf(completions).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable failure) {
+                // failed and cancelled runs count as drained too
+                deadline.cancel();
+                drained.complete(null);
+            }
+        });
+
+        drained.whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void result, Throwable failure) {
+                if (virtualThreadExecutor != null) {
+                    virtualThreadExecutor.shutdown();
+                    virtualThreadExecutor = null;
+                }
+                LOG.info("job executor shut down.");
+            }
+        });
+        return drained;
+    }
+
+    /**
+     * Schedule the job execution described by the given context without blocking the calling thread. The returned
+     * future completes with the context once the run completes, completes exceptionally with the job's failure, or is
+     * cancelled when the run is cancelled. In every case the context's actual execution and completion times are
+     * populated before the future completes.
+     *
+     * @param ctx
+     *            the job execution context.
+     * @return the future signaling completion of the run.
+     */
+    public CompletableFuture<JobContext> submit(JobContext ctx) {
+        final String jobName = ctx.getJob().getUniqueName();
+        final ScheduledRun run = schedule(ctx, false);
+        final CompletableFuture<JobContext> completion = run.completion();
+        completion.whenComplete(new BiConsumer<JobContext, Throwable>() {
+            @Override
+            public void accept(JobContext result, Throwable failure) {
+                jobFutures.remove(jobName, run);
+            }
+        });
+        return completion;
+    }
+
+    private void waitUntilComplete(String jobName, ScheduledRun run) {
+        // wait until the run is done, which includes the scheduling delay so cancellation wakes this thread
+        int state;
         do {
             try {
-                future.get(1, TimeUnit.MINUTES);
-            } catch (final TimeoutException ex) {
-                LOG.info("job {} not done yet.", jobName);
-                // continue
-            } catch (final CancellationException ex) {
-                LOG.info("job {} cancelled.", jobName);
-                populateMissingDates(ctx);
-                return;
-            } catch (final ExecutionException ex) {
-                LOG.info("job {} failed.", jobName);
-                return;
+                state = run.await(TimeUnit.MINUTES.toMillis(1L));
             } catch (final InterruptedException ex) {
                 LOG.info("job {} interupted.", jobName);
+                // the caller no longer waits for the run, for example because it lost leadership, so stop it as well
+                cancel(jobName, run);
+                Thread.currentThread().interrupt();
                 return;
             }
-        } while (!future.isDone() && !future.isCancelled());
+            if (state == ScheduledRun.PENDING) {
+                LOG.info("job {} not done yet.", jobName);
+            }
+        } while (state == ScheduledRun.PENDING);
+
+        if (state == ScheduledRun.CANCELLED) {
+            LOG.info("job {} cancelled.", jobName);
+            populateMissingDates(run.ctx);
+        } else if (state == ScheduledRun.FAILED) {
+            LOG.info("job {} failed.", jobName);
+        }
     }
 
+    /**
+     * A scheduled job execution along with its context and completion signal. A blocking run is reused for the job's
+     * next blocking run once done, so its context and state are reset rather than final.
+     */
+    private static class ScheduledRun {
+
+        static final int PENDING = 0;
+
+        static final int COMPLETED = 1;
+
+        static final int FAILED = 2;
+
+        static final int CANCELLED = 3;
+
+        /**
+         * Complete the given future the way a run ended in the given state.
+         */
+        private static void signal(CompletableFuture<JobContext> future, int state, JobContext ctx, Throwable failure) {
+            if (state == COMPLETED) {
+                future.complete(ctx);
+            } else if (state == FAILED) {
+                future.completeExceptionally(failure);
+            } else {
+                future.cancel(false);
+            }
+        }
+
+        /** whether the run was scheduled by {@link JobExecutor#execute(JobContext)} and may be reused once done. */
+        final boolean blocking;
+
+        /** signals completion of the run, or <code>null</code> until requested. Guarded by this run. */
+        private CompletableFuture<JobContext> completion;
+
+        /** the context of the run. */
+        volatile JobContext ctx;
+
+        /** when the run became due, from {@link System#nanoTime()}. */
+        volatile long dueNanos;
+
+        /** the failure of a failed run. Guarded by this run. */
+        private Throwable failure;
+
+        /** the thread running the job, or <code>null</code> when the job is not running. */
+        volatile Thread runner;
+
+        /** whether the run is pending or how it ended. Guarded by this run. */
+        private int state;
+
+        /** the task starting the run once it is due. */
+        Runnable task;
+
+        /** the admission of the run, or <code>null</code> without admission control. */
+        volatile JobAdmissionController.Ticket ticket;
+
+        /** the timeout of the task performing the run. */
+        volatile JobTimeout timeout;
+
+        ScheduledRun(boolean blocking) {
+            super();
+            this.blocking = blocking;
+        }
+
+        /**
+         * Wait for the run to be done for at most the given time.
+         *
+         * @return the state of the run, {@link #PENDING} if it is not done yet.
+         */
+        synchronized int await(long timeoutMillis) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining = timeoutMillis;
+            while (state == PENDING && remaining > 0L) {
+                wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return state;
+        }
+
+        void cancelled() {
+            done(CANCELLED, null);
+        }
+
+        void completed() {
+            done(COMPLETED, null);
+        }
+
+        /**
+         * Access the future signaling completion of the run, creating it on first use so blocking runs allocate none.
+         */
+        CompletableFuture<JobContext> completion() {
+            final CompletableFuture<JobContext> future;
+            final int ended;
+            synchronized (this) {
+                if (completion != null) {
+                    return completion;
+                }
+                future = new CompletableFuture<JobContext>();
+                completion = future;
+                ended = state;
+            }
+            if (ended != PENDING) {
+                signal(future, ended, ctx, failure);
+            }
+            return future;
+        }
+
+        /**
+         * Record how the run ended, unless it already ended, and wake the threads waiting for it.
+         */
+        private void done(int ended, Throwable ex) {
+            final CompletableFuture<JobContext> future;
+            synchronized (this) {
+                if (state != PENDING) {
+                    return;
+                }
+                state = ended;
+                failure = ex;
+                future = completion;
+                notifyAll();
+            }
+            if (future != null) {
+                signal(future, ended, ctx, ex);
+            }
+        }
+
+        void failed(Throwable ex) {
+            done(FAILED, ex);
+        }
+
+        synchronized boolean isDone() {
+            return state != PENDING;
+        }
+
+        /**
+         * Prepare the run for the given context.
+         */
+        synchronized void reset(JobContext ctx) {
+            this.ctx = ctx;
+            completion = null;
+            dueNanos = 0L;
+            failure = null;
+            runner = null;
+            state = PENDING;
+            ticket = null;
+            timeout = null;
+        }
+    }
 }
@@ -0,0 +1,603 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A bounded execution history of every job led on this node, kept in a local log of memory-mapped segment files so
+ * recording a run costs no ZooKeeper writes. Each run is a fixed-size binary record of its scheduled, start and
+ * completion times and its outcome, appended to the active segment. An in-memory index keeps the positions of the last
+ * {@link #setCapacity(int) capacity} runs of each job, so {@link #getLastRuns(String, int)} reads only the requested
+ * records.
+ * <p>
+ * Segments are {@link #setSegmentSize(int) preallocated} files named <code>segment-&lt;n&gt;.log</code> in the log
+ * directory. When the active segment fills, a new one is started and, once there are more than
+ * {@link #setMaxSegments(int) the maximum number} of segments, the oldest is compacted: the records still indexed are
+ * copied forward and the file is deleted. The log should be sized so that the runs kept for all jobs fill well under
+ * the maximum number of segments, or compaction copies most of a segment on every roll over.
+ * <p>
+ * The layout of a run record (32 bytes) is:
+ * <ol>
+ * <li>a type byte of 1,</li>
+ * <li>the {@link JobOutcome} ordinal, or -1 if unknown,</li>
+ * <li>two unused bytes,</li>
+ * <li>the job id, an int,</li>
+ * <li>the scheduled, start and completion times, longs of epoch milliseconds.</li>
+ * </ol>
+ * Job ids are assigned by name records (type 2) holding the id, the name length as a short and the UTF-8 name, padded
+ * to a multiple of 32 bytes. A record's type byte is written last, so a record cut short by a crash is ignored on
+ * recovery. Records live in the operating system's page cache once written, so they survive a crash of the process;
+ * segments are forced to disk when they fill and when the log is destroyed.
+ */
+public class JobHistoryLog {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobHistoryLog.class);
+
+    /** the type of a record naming a job id. */
+    private static final byte NAME = 2;
+
+    private static final JobOutcome[] OUTCOMES = JobOutcome.values();
+
+    /** the size of a run record and the alignment of all records. */
+    private static final int RECORD_SIZE = 32;
+
+    /** the type of a run record. */
+    private static final byte RUN = 1;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Compute the length of a name record holding a name of the given number of bytes.
+     */
+    private static int nameRecordLength(int nameLength) {
+        return (8 + nameLength + RECORD_SIZE - 1) / RECORD_SIZE * RECORD_SIZE;
+    }
+
+    /**
+     * Create a position from a segment number and an offset within the segment.
+     */
+    private static long position(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    /** the segment being appended to. */
+    private Segment active;
+
+    /** the number of runs kept for each job. */
+    private int capacity = 100;
+
+    /** whether a segment is being compacted, so rolling over does not compact again. */
+    private boolean compacting;
+
+    /** the directory holding the segment files. */
+    private File directory;
+
+    /** the indexed jobs keyed by id. */
+    private final List<JobIndex> jobIds = new ArrayList<JobIndex>();
+
+    /** the indexed jobs keyed by name. */
+    private final Map<String, JobIndex> jobs = new HashMap<String, JobIndex>();
+
+    /** the number of segments kept before the oldest is compacted. */
+    private int maxSegments = 4;
+
+    /** the size of each segment file in bytes. */
+    private int segmentSize = 1 << 20;
+
+    /** the open segments keyed by segment number. */
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+
+    /**
+     * Append the run described by the given context to the history of its job.
+     *
+     * @param ctx
+     *            the context of the finished run.
+     * @throws IOException
+     *             if a new segment could not be created.
+     */
+    public void append(JobContext ctx) throws IOException {
+        append(ctx.getJob().getUniqueName(), new JobRun(ctx.getNextScheduledExecutionTimeMillis(),
+            ctx.getActualExecutionTimeMillis(), ctx.getActualCompletionTimeMillis(), ctx.getOutcome()));
+    }
+
+    /**
+     * Append the given run to the history of the given job.
+     *
+     * @param jobName
+     *            the globally unique job name.
+     * @param run
+     *            the finished run.
+     * @throws IOException
+     *             if a new segment could not be created.
+     */
+    public synchronized void append(String jobName, JobRun run) throws IOException {
+        if (active == null) {
+            throw new IllegalStateException("job history log is not initialized.");
+        }
+
+        JobIndex index = jobs.get(jobName);
+        if (index == null) {
+            index = new JobIndex(jobIds.size(), capacity);
+            index.name = jobName;
+            jobIds.add(index);
+            index.namePosition = appendName(index);
+            jobs.put(jobName, index);
+        }
+
+        final int offset = reserve(RECORD_SIZE);
+        final ByteBuffer buffer = active.buffer;
+        final JobOutcome outcome = run.getOutcome();
+        buffer.put(offset + 1, outcome == null ? (byte) -1 : (byte) outcome.ordinal());
+        buffer.putInt(offset + 4, index.id);
+        buffer.putLong(offset + 8, run.getScheduledExecutionTimeMillis());
+        buffer.putLong(offset + 16, run.getActualExecutionTimeMillis());
+        buffer.putLong(offset + 24, run.getActualCompletionTimeMillis());
+        buffer.put(offset, RUN);
+        index.add(position(active.number, offset));
+    }
+
+    /**
+     * Append a name record for the given job.
+     *
+     * @return the position of the record.
+     */
+    private long appendName(JobIndex index) throws IOException {
+        final byte[] name = index.name.getBytes(UTF8);
+        final int length = nameRecordLength(name.length);
+        if (name.length > Short.MAX_VALUE || length > segmentSize) {
+            throw new IllegalArgumentException("job name " + index.name + " is too long for the history log.");
+        }
+
+        final int offset = reserve(length);
+        final ByteBuffer buffer = active.buffer;
+        buffer.putShort(offset + 2, (short) name.length);
+        buffer.putInt(offset + 4, index.id);
+        for (int i = 0; i < name.length; ++i) {
+            buffer.put(offset + 8 + i, name[i]);
+        }
+        buffer.put(offset, NAME);
+        return position(active.number, offset);
+    }
+
+    /**
+     * Copy the records still indexed out of the given segment and delete it. Name records are copied before run
+     * records; recovery does not depend on the order but keeping names early keeps them near the runs that follow.
+     * <p>
+     * The space for the copies is reserved up front, in a new segment if the active one lacks room. The copies fit in
+     * one segment since they came from one, so nothing rolls over and compacts again while copying.
+     */
+    private void compact(Segment segment) throws IOException {
+        segments.remove(Integer.valueOf(segment.number));
+
+        int length = 0;
+        for (final JobIndex index : jobIds) {
+            if ((int) (index.namePosition >>> 32) == segment.number) {
+                length += nameRecordLength(index.name.getBytes(UTF8).length);
+            }
+            for (final long position : index.positions) {
+                if (position != -1L && (int) (position >>> 32) == segment.number) {
+                    length += RECORD_SIZE;
+                }
+            }
+        }
+        compacting = true;
+        try {
+            if (active.position + length > segmentSize) {
+                roll();
+            }
+            copy(segment);
+        } finally {
+            compacting = false;
+        }
+
+        // drop the mapping so its pages can be released once the file is deleted
+        final File file = segment.file;
+        segment.buffer = null;
+        if (!file.delete()) {
+            LOG.warn("could not delete history segment {}.", file);
+        }
+    }
+
+    /**
+     * Copy the records still indexed out of the given segment into the active segment.
+     */
+    private void copy(Segment segment) throws IOException {
+        int copied = 0;
+        for (final JobIndex index : jobIds) {
+            if ((int) (index.namePosition >>> 32) == segment.number) {
+                index.namePosition = appendName(index);
+            }
+        }
+        for (final JobIndex index : jobIds) {
+            for (int i = 0; i < index.positions.length; ++i) {
+                final long position = index.positions[i];
+                if (position != -1L && (int) (position >>> 32) == segment.number) {
+                    final int from = (int) position;
+                    final int offset = reserve(RECORD_SIZE);
+                    for (int b = 1; b < RECORD_SIZE; ++b) {
+                        active.buffer.put(offset + b, segment.buffer.get(from + b));
+                    }
+                    active.buffer.put(offset, RUN);
+                    index.positions[i] = position(active.number, offset);
+                    ++copied;
+                }
+            }
+        }
+
+        if (copied * RECORD_SIZE > segmentSize / 2) {
+            LOG.warn("compacting history segment {} copied {} runs, the history log is undersized.", segment.number,
+                copied);
+        }
+    }
+
+    /**
+     * Force the segments to disk and close the log.
+     */
+    public synchronized void destroyLog() {
+        for (final Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+        segments.clear();
+        jobs.clear();
+        jobIds.clear();
+        active = null;
+    }
+
+    /**
+     * Read the most recent runs of the given job.
+     *
+     * @param jobName
+     *            the globally unique job name.
+     * @param count
+     *            the maximum number of runs to read.
+     * @return the runs, most recent first; fewer than requested if fewer are kept.
+     */
+    public synchronized List<JobRun> getLastRuns(String jobName, int count) {
+        final JobIndex index = jobs.get(jobName);
+        if (index == null) {
+            return Collections.emptyList();
+        }
+
+        final int n = Math.min(count, index.count);
+        final List<JobRun> runs = new ArrayList<JobRun>(n);
+        for (int i = 1; i <= n; ++i) {
+            runs.add(readRun(index.positions[(index.next - i + index.positions.length) % index.positions.length]));
+        }
+        return runs;
+    }
+
+    /**
+     * Open the segments in the log directory, rebuilding the index from their records, and start appending after the
+     * last record.
+     */
+    public synchronized void initializeLog() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create history directory " + directory + ".");
+        }
+
+        final File[] files = directory.listFiles();
+        final List<Integer> numbers = new ArrayList<Integer>();
+        if (files != null) {
+            for (final File file : files) {
+                final String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        numbers.add(Integer.valueOf(name.substring(SEGMENT_PREFIX.length(), name.length()
+                            - SEGMENT_SUFFIX.length())));
+                    } catch (final NumberFormatException ex) {
+                        LOG.warn("ignoring unexpected file {} in history directory.", file);
+                    }
+                }
+            }
+        }
+        Collections.sort(numbers);
+
+        final Map<Integer, List<Long>> runPositions = new HashMap<Integer, List<Long>>();
+        for (final Integer number : numbers) {
+            final Segment segment = openSegment(number.intValue());
+            segments.put(number, segment);
+            active = segment;
+            recover(segment, runPositions);
+        }
+        rebuildIndex(runPositions);
+
+        if (active == null) {
+            roll();
+        }
+        LOG.info("opened history log with {} jobs in {} segments.", jobs.size(), segments.size());
+    }
+
+    private Segment openSegment(int number) throws IOException {
+        final File file = new File(directory, SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(segmentSize);
+            return new Segment(number, file, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, segmentSize));
+        } finally {
+            // the mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    private JobRun readRun(long position) {
+        final ByteBuffer buffer = segments.get(Integer.valueOf((int) (position >>> 32))).buffer;
+        final int offset = (int) position;
+        final int outcome = buffer.get(offset + 1);
+        return new JobRun(buffer.getLong(offset + 8), buffer.getLong(offset + 16), buffer.getLong(offset + 24),
+            outcome >= 0 && outcome < OUTCOMES.length ? OUTCOMES[outcome] : null);
+    }
+
+    /**
+     * Index the recovered runs of every named job, keeping the latest by scheduled time since compaction may have
+     * copied older runs after newer ones. A crash between copying a segment's runs and deleting it leaves both copies,
+     * so runs with the same scheduled and start times are indexed once.
+     */
+    private void rebuildIndex(Map<Integer, List<Long>> runPositions) {
+        for (final JobIndex index : jobIds) {
+            if (index == null || index.name == null) {
+                continue;
+            }
+            jobs.put(index.name, index);
+
+            final List<Long> positions = runPositions.get(Integer.valueOf(index.id));
+            if (positions == null) {
+                continue;
+            }
+            final Long[] sorted = positions.toArray(new Long[positions.size()]);
+            Arrays.sort(sorted, new Comparator<Long>() {
+                @Override
+                public int compare(Long left, Long right) {
+                    final int result = Long.compare(scheduledTime(left.longValue()), scheduledTime(right.longValue()));
+                    return result != 0 ? result : Long.compare(startTime(left.longValue()),
+                        startTime(right.longValue()));
+                }
+            });
+            int unique = 0;
+            for (int i = 0; i < sorted.length; ++i) {
+                if (unique == 0 || scheduledTime(sorted[i].longValue()) != scheduledTime(sorted[unique - 1].longValue())
+                    || startTime(sorted[i].longValue()) != startTime(sorted[unique - 1].longValue())) {
+                    sorted[unique++] = sorted[i];
+                }
+            }
+            for (int i = Math.max(0, unique - capacity); i < unique; ++i) {
+                index.add(sorted[i].longValue());
+            }
+        }
+
+        // ids named by no record were lost with a deleted segment; give them placeholder entries so ids stay dense
+        for (int i = 0; i < jobIds.size(); ++i) {
+            if (jobIds.get(i) == null) {
+                jobIds.set(i, new JobIndex(i, capacity));
+            }
+        }
+    }
+
+    /**
+     * Scan the records of the given segment, registering named jobs and collecting run positions by job id, and leave
+     * the segment's append position after its last record.
+     */
+    private void recover(Segment segment, Map<Integer, List<Long>> runPositions) {
+        final ByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + RECORD_SIZE <= segmentSize) {
+            final byte type = buffer.get(offset);
+            if (type == RUN) {
+                final Integer id = Integer.valueOf(buffer.getInt(offset + 4));
+                List<Long> positions = runPositions.get(id);
+                if (positions == null) {
+                    positions = new ArrayList<Long>();
+                    runPositions.put(id, positions);
+                }
+                positions.add(Long.valueOf(position(segment.number, offset)));
+                offset += RECORD_SIZE;
+            } else if (type == NAME) {
+                final int length = buffer.getShort(offset + 2);
+                final int id = buffer.getInt(offset + 4);
+                if (length < 0 || id < 0 || offset + 8 + length > segmentSize) {
+                    LOG.warn("ignoring malformed record at {} in history segment {}.", offset, segment.number);
+                    break;
+                }
+                final byte[] name = new byte[length];
+                for (int i = 0; i < length; ++i) {
+                    name[i] = buffer.get(offset + 8 + i);
+                }
+                while (jobIds.size() <= id) {
+                    jobIds.add(null);
+                }
+                final JobIndex index = new JobIndex(id, capacity);
+                index.name = new String(name, UTF8);
+                index.namePosition = position(segment.number, offset);
+                jobIds.set(id, index);
+                offset += (8 + length + RECORD_SIZE - 1) / RECORD_SIZE * RECORD_SIZE;
+            } else {
+                break;
+            }
+        }
+        segment.position = offset;
+    }
+
+    /**
+     * Reserve the given number of bytes in the active segment, rolling over to a new segment if they do not fit.
+     *
+     * @return the offset of the reserved bytes in the active segment.
+     */
+    private int reserve(int length) throws IOException {
+        if (active == null || active.position + length > segmentSize) {
+            roll();
+        }
+        final int offset = active.position;
+        active.position += length;
+        return offset;
+    }
+
+    /**
+     * Start a new active segment and compact the oldest segments beyond the maximum.
+     */
+    private void roll() throws IOException {
+        int number = 0;
+        if (active != null) {
+            active.buffer.force();
+            number = segments.lastKey().intValue() + 1;
+        }
+
+        active = openSegment(number);
+        segments.put(Integer.valueOf(number), active);
+        while (!compacting && segments.size() > maxSegments) {
+            compact(segments.firstEntry().getValue());
+        }
+    }
+
+    private long scheduledTime(long position) {
+        return segments.get(Integer.valueOf((int) (position >>> 32))).buffer.getLong((int) position + 8);
+    }
+
+    /**
+     * Modify the number of runs kept for each job. Must be set before the log is initialized.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive.");
+        }
+        this.capacity = capacity;
+    }
+
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Modify the number of segments kept before the oldest is compacted.
+     */
+    public void setMaxSegments(int maxSegments) {
+        if (maxSegments < 2) {
+            throw new IllegalArgumentException("maximum segments must be at least two.");
+        }
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Modify the size of each segment file in bytes. Must be set before the log is initialized and must not change
+     * between runs with the same directory.
+     */
+    public void setSegmentSize(int segmentSize) {
+        if (segmentSize < RECORD_SIZE * 64 || segmentSize % RECORD_SIZE != 0) {
+            throw new IllegalArgumentException("segment size must be a multiple of " + RECORD_SIZE
+                + " and hold at least 64 records.");
+        }
+        this.segmentSize = segmentSize;
+    }
+
+    private long startTime(long position) {
+        return segments.get(Integer.valueOf((int) (position >>> 32))).buffer.getLong((int) position + 16);
+    }
+
+    /**
+     * The positions of the last runs of a job, a ring ordered from oldest to newest.
+     */
+    private static class JobIndex {
+
+        /** the number of positions in use. */
+        int count;
+
+        /** the job id used in records. */
+        final int id;
+
+        /** the globally unique job name, or <code>null</code> if the job's name record was lost. */
+        String name;
+
+        /** the position of the job's name record. */
+        long namePosition = -1L;
+
+        /** the index of the ring slot written next. */
+        int next;
+
+        /** the ring of run positions, with -1 marking unused slots. */
+        final long[] positions;
+
+        JobIndex(int id, int capacity) {
+            super();
+            this.id = id;
+            this.positions = new long[capacity];
+            Arrays.fill(positions, -1L);
+        }
+
+        void add(long position) {
+            positions[next] = position;
+            next = (next + 1) % positions.length;
+            count = Math.min(count + 1, positions.length);
+        }
+    }
+
+    /**
+     * A mapped segment file.
+     */
+    private static class Segment {
+
+        /** the mapped contents of the file, or <code>null</code> once the segment is compacted. */
+        MappedByteBuffer buffer;
+
+        final File file;
+
+        /** the segment number, increasing with age. */
+        final int number;
+
+        /** the offset the next record is appended at. */
+        int position;
+
+        Segment(int number, File file, MappedByteBuffer buffer) {
+            super();
+            this.number = number;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
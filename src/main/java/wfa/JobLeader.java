@@ -29,16 +29,29 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 package wfa;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
 import org.apache.curator.framework.recipes.leader.LeaderSelector;
 import org.apache.curator.framework.recipes.leader.LeaderSelectorListenerAdapter;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,63 +60,715 @@ public class JobLeader extends LeaderSelectorListenerAdapter {
 
     private static final Logger LOG = LoggerFactory.getLogger(JobLeader.class);
 
+    /** the most missed execution times walked before continuing from the current time. */
+    private static final long MAX_MISFIRE_SCAN = 100000L;
+
+    /** the delay before retrying a wake up that raced with an election still in progress. */
+    private static final long REQUEUE_RETRY_MILLIS = 100L;
+
+    /**
+     * Wait for the given future, rethrowing the exception it failed with.
+     */
+    static <T> T await(Future<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (final ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Fail the given fencing token with the error of the given background event.
+     */
+    private static void failFencingToken(CompletableFuture<Long> token, CuratorEvent event) {
+        token.completeExceptionally(KeeperException.create(KeeperException.Code.get(event.getResultCode()),
+            event.getPath()));
+    }
+
+    /**
+     * Start reading the fencing token of a leadership term just won in the election at the given path. The token is
+     * the zxid that created this node's own election node, the participant with the lowest sequence number. Every
+     * later term is won by a participant that joined after this one, so tokens grow with every term. The token is only
+     * taken from a node owned by the session the term was won in; if that session was lost before the read, the
+     * future fails instead of providing the token of another participant. The reads run in the background so they
+     * overlap the status read instead of adding a round trip.
+     *
+     * @return the future providing the token.
+     */
+    static CompletableFuture<Long> readFencingToken(final CuratorFramework client, final String electionPath) {
+        final CompletableFuture<Long> token = new CompletableFuture<Long>();
+        try {
+            final long sessionId = client.getZookeeperClient().getZooKeeper().getSessionId();
+            client.getChildren().inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(CuratorFramework client, CuratorEvent event) throws Exception {
+                    final List<String> children = event.getChildren();
+                    if (children == null || children.isEmpty()) {
+                        failFencingToken(token, event);
+                        return;
+                    }
+                    // sequence numbers are the last ten digits of each participant's node name
+                    String first = children.get(0);
+                    for (final String child : children) {
+                        if (sequenceOf(child).compareTo(sequenceOf(first)) < 0) {
+                            first = child;
+                        }
+                    }
+                    client.checkExists().inBackground(new BackgroundCallback() {
+                        @Override
+                        public void processResult(CuratorFramework client, CuratorEvent event) {
+                            final Stat stat = event.getStat();
+                            if (stat == null) {
+                                failFencingToken(token, event);
+                            } else if (stat.getEphemeralOwner() != sessionId) {
+                                token.completeExceptionally(new IllegalStateException("the election at "
+                                    + electionPath + " is led by another session."));
+                            } else {
+                                token.complete(Long.valueOf(stat.getCzxid()));
+                            }
+                        }
+                    }).forPath(ZKPaths.makePath(electionPath, first));
+                }
+            }).forPath(electionPath);
+        } catch (final Exception ex) {
+            token.completeExceptionally(ex);
+        }
+        return token;
+    }
+
+    /**
+     * Access the sequence number suffix of the given election node name.
+     */
+    private static String sequenceOf(String node) {
+        return node.length() > 10 ? node.substring(node.length() - 10) : node;
+    }
+
+    /**
+     * whether leadership is only held while a run is due instead of for the entire scheduling delay (see
+     * {@link #setAsynchronous(boolean)}).
+     */
+    private boolean asynchronous;
+
+    /** the checkpointer persisting the progress of runs, or <code>null</code> to not persist it. */
+    private JobCheckpointer checkpointer;
+
     private CuratorFramework client;
 
+    /** when this node last started contending for leadership, from {@link System#nanoTime()}. */
+    private volatile long contendingSinceNanos;
+
+    /** when this node was elected, from {@link System#nanoTime()}, or zero once the hand off was recorded. */
+    private volatile long electedAtNanos;
+
     private JobExecutor executor;
 
+    /** the fencing token of the current leadership term, or <code>null</code> before the first election. */
+    private volatile CompletableFuture<Long> fencingToken;
+
+    /** keeps leadership through brief connection suspensions, or <code>null</code> before initialization. */
+    private LeadershipGrace grace;
+
+    /** the log recording each run of the job, or <code>null</code> to keep no history. */
+    private JobHistoryLog history;
+
     private Job job;
 
     private LeaderSelector leader;
 
+    /** the path of the job's leader election. */
+    private String leaderPath;
+
+    /**
+     * the executor service running leader elections, or <code>null</code> for the executor's
+     * {@link JobExecutor#getLeaderExecutorService() leader executor service}.
+     */
+    private ExecutorService leaderExecutorService;
+
+    /** how long before the next scheduled execution time an asynchronous leader rejoins the election. */
+    private long leadTimeInMillis = 1000L;
+
+    /** the most missed execution times run back to back under {@link MisfirePolicy#CATCH_UP}. */
+    private int maxBurst = 10;
+
+    /** the metrics of the job, or <code>null</code> when metrics are disabled. */
+    private JobMetrics metrics;
+
+    /** the registry providing the job's metrics, or <code>null</code> to disable metrics. */
+    private JobMetricsRegistry metricsRegistry;
+
+    /** what to do with scheduled execution times that were missed. */
+    private MisfirePolicy misfirePolicy = MisfirePolicy.FIRE_ONCE;
+
+    /** how far in the past a scheduled execution time must be to count as missed. */
+    private long misfireThresholdMillis = 1000L;
+
+    /** the longest random delay before contending again after reconnecting or abandoning leadership. */
+    private long reelectionStaggerMillis;
+
+    /** the context reused by every run of {@link #executeNext()}, or <code>null</code> before the first one. */
+    private JobContext runContext;
+
+    /** the status reused by every run of {@link #executeNext()}. */
+    private final JobStatus runStatus = new JobStatus();
+
     private JobSchedule schedule;
 
-    private String statusPath;
+    /** the placement deciding whether to decline leadership, or <code>null</code> to always accept it. */
+    private JobPlacement placement;
+
+    /** the cache serving status reads on leadership hand off, or <code>null</code> to always read ZooKeeper. */
+    private JobStatusCache statusCache;
+
+    /** the store persisting the status, or <code>null</code> to keep it in ZooKeeper. */
+    private JobStatusStore statusStore;
+
+    /** the writer batching status writes, or <code>null</code> to write synchronously. */
+    private JobStatusWriter statusWriter;
+
+    /** how long leadership survives a suspended connection, or zero to give it up at once. */
+    private long suspensionGraceMillis;
+
+    /** wakes the leader when an upstream job of a dependent schedule completes or a run is triggered. */
+    private final Runnable trigger = new Runnable() {
+        @Override
+        public void run() {
+            triggered();
+        }
+    };
+
+    /**
+     * the watch of the job's on demand triggers while this node leads the job or, as its last asynchronous leader,
+     * waits to rejoin the election, otherwise <code>null</code>.
+     */
+    private volatile JobTriggers triggers;
+
+    /** the pending run waiting to be woken, or <code>null</code> if none. */
+    private volatile JobContext waitingContext;
+
+    /** the status the pending run was computed from, or <code>null</code> if not waiting. */
+    private volatile JobStatus waitingStatus;
+
+    /** the pending wake up of an asynchronous leader waiting for its next scheduled execution time. */
+    private volatile JobTimeout wakeUp;
 
     public void destroyLeader() {
+        if (schedule instanceof DependentJobSchedule) {
+            ((DependentJobSchedule) schedule).removeListener(trigger);
+        }
+        unwatchTriggers();
+        final JobTimeout pending = wakeUp;
+        if (pending != null) {
+            pending.cancel();
+        }
         executor.cancel(job);
-        leader.close();
+        if (leader != null) {
+            grace.closed();
+            leader.close();
+        }
+    }
+
+    /**
+     * Record that this node was elected leader of the job after contending for leadership since the given time. The
+     * hand off time is recorded once the first run is scheduled.
+     *
+     * @param contendingSinceNanos
+     *            when this node started contending, from {@link System#nanoTime()}.
+     * @param fencingToken
+     *            the future providing the fencing token of the new term (see {@link #readFencingToken}).
+     */
+    void elected(long contendingSinceNanos, CompletableFuture<Long> fencingToken) {
+        this.fencingToken = fencingToken;
+        watchTriggers();
+        if (metrics != null) {
+            final long now = System.nanoTime();
+            metrics.recordElectionTime(TimeUnit.NANOSECONDS.toMillis(now - contendingSinceNanos));
+            electedAtNanos = now;
+        }
+    }
+
+    /**
+     * Execute the job once: read the latest status, wait for and execute the next scheduled run, and persist the
+     * updated status. The caller must hold leadership of the job for the entire scheduling delay.
+     */
+    void executeNext() throws Exception {
+        // read lastest status, reusing the status and context of the previous run so a steady state run allocates none
+        final JobStatus status = readStatus(runStatus);
+
+        // create job execution context
+        final JobContext ctx = nextContext(status, runContext);
+        runContext = null;
+        ctx.setFencingToken(awaitFencingToken());
+        openCheckpoint(ctx);
+        handedOff();
+
+        awaitTrigger(status, ctx);
+        executor.execute(ctx);
+        if (!Thread.currentThread().isInterrupted()) {
+            // the run is done, unlike a run whose wait was interrupted, so the next run may reuse its context
+            runContext = ctx;
+        }
+        if (isAbandoned()) {
+            // the session was lost, so the next leader reruns or resumes the run
+            return;
+        }
+
+        updateStatus(status, ctx);
+    }
+
+    /**
+     * Execute the job as long as runs are due within the lead time, then give up leadership and arrange to rejoin the
+     * election shortly before the next scheduled execution time.
+     *
+     * @return whether this node keeps watching for triggers while it waits to rejoin, because no other node is queued
+     *         in the election to take over the wait.
+     */
+    private boolean executeWhenDue() throws Exception {
+        final JobStatus status = readStatus();
+        final long token = awaitFencingToken();
+        while (true) {
+            final JobContext ctx = nextContext(status, null);
+            ctx.setFencingToken(token);
+            final long nextScheduledExecutionTime = ctx.getNextScheduledExecutionTimeMillis();
+            if (!isTriggered() && nextScheduledExecutionTime - System.currentTimeMillis() > leadTimeInMillis) {
+                requeueAt(nextScheduledExecutionTime);
+                if (isContended()) {
+                    // the queued node is elected next and waits in this node's place
+                    return false;
+                }
+                awaitTrigger(status, null);
+                return true;
+            }
+
+            handedOff();
+            openCheckpoint(ctx);
+            awaitTrigger(status, ctx);
+            try {
+                executor.submit(ctx).get();
+            } catch (final ExecutionException ex) {
+                LOG.info("job {} failed.", job.getUniqueName());
+            } catch (final CancellationException ex) {
+                LOG.info("job {} cancelled.", job.getUniqueName());
+                if (!isAbandoned()) {
+                    updateStatus(status, ctx);
+                }
+                return false;
+            } catch (final InterruptedException ex) {
+                executor.cancel(job);
+                throw ex;
+            }
+            if (isAbandoned()) {
+                return false;
+            }
+
+            if (!updateStatus(status, ctx)) {
+                // a later term leads the job, so contend again behind it
+                requeueAfter(0L);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Remember the status and the pending run, if any, so {@link #triggered()} can wake them, and catch an upstream
+     * completion or a trigger that arrived while they were prepared.
+     */
+    private void awaitTrigger(JobStatus status, JobContext ctx) {
+        waitingStatus = status;
+        waitingContext = ctx;
+        triggered();
+    }
+
+    /**
+     * Wait for the fencing token of the current leadership term, or zero if this node was never elected.
+     */
+    private long awaitFencingToken() throws Exception {
+        final CompletableFuture<Long> token = fencingToken;
+        if (token == null) {
+            return 0L;
+        }
+        return await(token);
+    }
+
+    /**
+     * Wait until a read of the job's status is current before it is served by the status cache. The cache learns of
+     * the previous leader's write from a watch event, which ZooKeeper delivers in order with background results but not
+     * with the synchronous result electing this node, so a cached read waits for the term's fencing token, read in the
+     * background after the election. A read from ZooKeeper needs no wait.
+     */
+    private void awaitCachedStatus() throws Exception {
+        final CompletableFuture<Long> token = fencingToken;
+        if (token == null || token.isDone() || !isCached()) {
+            return;
+        }
+        try {
+            token.get();
+        } catch (final ExecutionException ex) {
+            // the term is lost, which awaitFencingToken reports
+        }
+    }
+
+    Job getJob() {
+        return job;
+    }
+
+    JobSchedule getSchedule() {
+        return schedule;
+    }
+
+    /**
+     * Record the hand off time if this is the first run scheduled since being elected.
+     */
+    private void handedOff() {
+        final long elected = electedAtNanos;
+        if (metrics != null && elected != 0L) {
+            electedAtNanos = 0L;
+            metrics.recordHandoffTime(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - elected));
+        }
     }
 
     public void initializeLeader() {
-        statusPath = "/job/" + job.getUniqueName() + "/status";
+        initializeStatus();
 
         // select leader
-        leader = new LeaderSelector(client, "/job/" + job.getUniqueName() + "/leader", this);
-        leader.autoRequeue();
+        leaderPath = "/job/" + job.getUniqueName() + "/leader";
+        ExecutorService electionExecutorService = leaderExecutorService;
+        if (electionExecutorService == null) {
+            electionExecutorService = executor.getLeaderExecutorService();
+        }
+        if (electionExecutorService == null) {
+            leader = new LeaderSelector(client, leaderPath, this);
+        } else {
+            leader = new LeaderSelector(client, leaderPath, electionExecutorService, this);
+        }
+        if (!asynchronous) {
+            // asynchronous leaders requeue themselves when their next run is due
+            leader.autoRequeue();
+        }
+        grace = new LeadershipGrace("job " + job.getUniqueName(), client, executor, suspensionGraceMillis,
+            reelectionStaggerMillis, new Runnable() {
+                @Override
+                public void run() {
+                    executor.cancel(job);
+                    leader.interruptLeadership();
+                }
+            });
+        contendingSinceNanos = System.nanoTime();
         leader.start();
     }
 
-    private Date readLongAsDate(DataInputStream dos) {
+    /**
+     * Prepare this leader's status storage without joining a leader election. Used when leadership of the job is
+     * managed elsewhere.
+     */
+    void initializeStatus() {
+        if (schedule instanceof DependentJobSchedule) {
+            ((DependentJobSchedule) schedule).addListener(trigger);
+        }
+        if (statusStore == null) {
+            final ZooKeeperJobStatusStore store = new ZooKeeperJobStatusStore();
+            store.setClient(client);
+            store.setStatusCache(statusCache);
+            store.setStatusWriter(statusWriter);
+            statusStore = store;
+        }
+        if (metricsRegistry != null) {
+            metrics = metricsRegistry.getMetrics(job.getUniqueName());
+        }
+    }
+
+    /**
+     * Determine whether the current or last term was abandoned after its session was lost.
+     */
+    private boolean isAbandoned() {
+        final LeadershipGrace current = grace;
+        return current != null && current.isAbandoned();
+    }
+
+    /**
+     * Determine whether a read of the job's status would be served by the status cache.
+     */
+    private boolean isCached() {
+        return statusStore instanceof ZooKeeperJobStatusStore
+            && ((ZooKeeperJobStatusStore) statusStore).isCached(job.getUniqueName());
+    }
+
+    /**
+     * Determine whether another node is queued in the job's election behind this one.
+     */
+    private boolean isContended() {
         try {
-            final long value = dos.readLong();
-            return new Date(value);
-        } catch (final IOException ex) {
-            LOG.warn("could not read status fully", ex);
+            return client.getChildren().forPath(leaderPath).size() > 1;
+        } catch (final Exception ex) {
+            LOG.debug("could not read election of job {}.", job.getUniqueName());
+            return false;
+        }
+    }
+
+    /**
+     * Determine whether the given status was written by a later leadership term than the current one, which leads the
+     * job now.
+     */
+    boolean isSuperseded(JobStatus status) throws Exception {
+        return status.getFencingToken() > awaitFencingToken();
+    }
+
+    /**
+     * Determine whether on demand triggers are waiting for a run.
+     */
+    private boolean isTriggered() {
+        final JobTriggers watch = triggers;
+        return watch != null && watch.isPending();
+    }
+
+    /**
+     * Create the context of a run scheduled at the given time, or reset the given context to it.
+     */
+    private JobContext newContext(JobContext reuse, long nextScheduledExecutionTime, long coalescedCount) {
+        final JobContext ctx = reuse == null ? new JobContext(job, nextScheduledExecutionTime)
+            : reuse.reset(nextScheduledExecutionTime);
+        ctx.setCoalescedCount(coalescedCount);
+        return ctx;
+    }
+
+    /**
+     * Create the context of the next run, or reset the given one to it. When scheduled execution times were missed,
+     * the misfire policy picks the time to run and the number of missed times coalesced into or skipped before it.
+     *
+     * @param reuse
+     *            the context of a finished run to reuse, or <code>null</code> to create a new context.
+     */
+    private JobContext nextContext(JobStatus status, JobContext reuse) {
+        final long next = nextScheduledExecutionTime(status);
+        final long cutoff = System.currentTimeMillis() - misfireThresholdMillis;
+        if (next >= cutoff || schedule instanceof DependentJobSchedule) {
+            // a run waiting for upstream jobs missed no times, it is simply late
+            return newContext(reuse, next, 0L);
+        }
+
+        // walk the missed times, remembering the latest ones for a catch up burst
+        final long[] latest = new long[misfirePolicy == MisfirePolicy.CATCH_UP ? maxBurst : 1];
+        long missed = 0L;
+        long time = next;
+        while (time < cutoff && missed < MAX_MISFIRE_SCAN) {
+            latest[(int) (missed % latest.length)] = time;
+            ++missed;
+            time = nextScheduledExecutionTime(time);
+        }
+
+        final JobContext ctx;
+        if (time < cutoff) {
+            LOG.warn("job {} missed more than {} execution times, continuing from now.", job.getUniqueName(),
+                MAX_MISFIRE_SCAN);
+            ctx = newContext(reuse, misfirePolicy == MisfirePolicy.SKIP_TO_NEXT ? nextScheduledExecutionTime(cutoff)
+                : cutoff, missed);
+        } else if (misfirePolicy == MisfirePolicy.SKIP_TO_NEXT) {
+            ctx = newContext(reuse, time, missed);
+        } else if (misfirePolicy == MisfirePolicy.CATCH_UP) {
+            if (missed <= maxBurst) {
+                ctx = newContext(reuse, next, 0L);
+            } else {
+                // the oldest time kept in the ring starts the burst
+                ctx = newContext(reuse, latest[(int) (missed % maxBurst)], missed - maxBurst);
+            }
+        } else {
+            ctx = newContext(reuse, latest[0], missed - 1L);
+        }
+
+        LOG.info("job {} missed {} execution times, running at {}.", new Object[] { job.getUniqueName(), missed,
+            new Date(ctx.getNextScheduledExecutionTimeMillis()) });
+        return ctx;
+    }
+
+    /**
+     * Compute the scheduled execution time following a run that was scheduled, executed and completed at the given
+     * time.
+     */
+    private long nextScheduledExecutionTime(long time) {
+        if (schedule instanceof MillisJobSchedule) {
+            return ((MillisJobSchedule) schedule).nextScheduledExecutionTimeMillis(time, time, time);
+        }
+        final Date date = new Date(time);
+        return schedule.nextScheduledExecutionTime(date, date, date).getTime();
+    }
+
+    /**
+     * Compute the scheduled execution time following the run recorded in the given status.
+     */
+    long nextScheduledExecutionTime(JobStatus status) {
+        if (schedule instanceof MillisJobSchedule) {
+            return ((MillisJobSchedule) schedule).nextScheduledExecutionTimeMillis(
+                status.getLastScheduledExecutionTimeMillis(), status.getLastActualExecutionTimeMillis(),
+                status.getLastActualCompletionTimeMillis());
+        }
+        return schedule.nextScheduledExecutionTime(status.getLastScheduledExecutionTime(),
+            status.getLastActualExecutionTime(), status.getLastActualCompletionTime()).getTime();
+    }
+
+    /**
+     * Attach the persisted checkpoint of the given run, if the progress of runs is persisted.
+     */
+    private void openCheckpoint(JobContext ctx) {
+        if (checkpointer != null) {
+            ctx.setCheckpoints(checkpointer.open(job.getUniqueName(), ctx.getFencingToken()));
         }
-        return new Date(0L);
     }
 
-    private JobStatus readStatus() throws Exception {
+    /**
+     * Read the latest status of the job, creating an empty status on the first execution.
+     */
+    JobStatus readStatus() throws Exception {
+        return readStatus(new JobStatus());
+    }
+
+    /**
+     * Read the latest status of the job into the given status, creating an empty status on the first execution.
+     */
+    private JobStatus readStatus(JobStatus status) throws Exception {
+        awaitCachedStatus();
+        if (metrics == null) {
+            statusStore.readStatus(job.getUniqueName(), status);
+            return status;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            statusStore.readStatus(job.getUniqueName(), status);
+            return status;
+        } finally {
+            metrics.recordStatusRead(System.nanoTime() - start);
+        }
+    }
 
+    /**
+     * Start reading the latest status of the job without blocking. The default ZooKeeper status store reads in the
+     * background, so the statuses of many jobs are read in a single pipelined pass; other stores are read on the
+     * calling thread. The future fails if the status does not exist yet, see {@link #readStatus()}.
+     */
+    CompletableFuture<JobStatus> readStatusInBackground() {
         final JobStatus status = new JobStatus();
+        if (!(statusStore instanceof ZooKeeperJobStatusStore)) {
+            final CompletableFuture<JobStatus> read = new CompletableFuture<JobStatus>();
+            try {
+                read.complete(readStatus());
+            } catch (final Exception ex) {
+                read.completeExceptionally(ex);
+            }
+            return read;
+        }
 
-        final Stat stat = client.checkExists().forPath(statusPath);
-        if (stat == null) {
-            client.create().forPath(statusPath);
-            status.setLastActualCompletionTime(null);
-            status.setLastActualExecutionTime(null);
-            status.setLastScheduledExecutionTime(null);
+        final ZooKeeperJobStatusStore store = (ZooKeeperJobStatusStore) statusStore;
+        final CompletableFuture<Long> token = fencingToken;
+        final CompletableFuture<JobStatus> read;
+        if (token == null || token.isDone() || !isCached()) {
+            read = store.readStatusInBackground(job.getUniqueName(), status);
         } else {
-            final byte[] data = client.getData().forPath(statusPath);
+            // a cached read waits for the term's fencing token, see awaitCachedStatus
+            read = token.handle(new BiFunction<Long, Throwable, Void>() {
+                @Override
+                public Void apply(Long result, Throwable failure) {
+                    return null;
+                }
+            }).thenCompose(new Function<Void, CompletionStage<JobStatus>>() {
+                @Override
+                public CompletionStage<JobStatus> apply(Void ignored) {
+                    return store.readStatusInBackground(job.getUniqueName(), status);
+                }
+            });
+        }
+        if (metrics != null) {
+            final long start = System.nanoTime();
+            read.whenComplete(new BiConsumer<JobStatus, Throwable>() {
+                @Override
+                public void accept(JobStatus result, Throwable failure) {
+                    metrics.recordStatusRead(System.nanoTime() - start);
+                }
+            });
+        }
+        return read;
+    }
+
+    /**
+     * Rejoin the leader election unless this node is already contending.
+     */
+    private void rejoin() {
+        try {
+            if (leader.requeue()) {
+                contendingSinceNanos = System.nanoTime();
+            }
+        } catch (final IllegalStateException ex) {
+            LOG.debug("leader of job {} already closed.", job.getUniqueName());
+        }
+    }
 
-            final ByteArrayInputStream baos = new ByteArrayInputStream(data);
-            try (DataInputStream dos = new DataInputStream(baos)) {
-                status.setLastActualCompletionTime(readLongAsDate(dos));
-                status.setLastActualExecutionTime(readLongAsDate(dos));
-                status.setLastScheduledExecutionTime(readLongAsDate(dos));
+    /**
+     * Record that this node gave up leadership of the job: stop watching for triggers and forget the pending run.
+     */
+    void relinquished() {
+        waitingStatus = null;
+        waitingContext = null;
+        unwatchTriggers();
+    }
+
+    /**
+     * Rejoin the leader election after the given delay, retrying while the previous election is still in progress. A
+     * delay of zero or less makes the first attempt at once.
+     */
+    private void requeueAfter(long delayInMillis) {
+        final Runnable requeue = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (leader.requeue()) {
+                        contendingSinceNanos = System.nanoTime();
+                    } else {
+                        // the previous election has not finished yet
+                        wakeUp = executor.scheduleWakeUp(this, REQUEUE_RETRY_MILLIS);
+                    }
+                } catch (final IllegalStateException ex) {
+                    LOG.debug("leader of job {} closed before wake up.", job.getUniqueName());
+                }
             }
+        };
+        if (delayInMillis <= 0L) {
+            requeue.run();
+        } else {
+            wakeUp = executor.scheduleWakeUp(requeue, Math.max(delayInMillis, REQUEUE_RETRY_MILLIS));
         }
-        return status;
+    }
+
+    /**
+     * Rejoin the leader election {@link #leadTimeInMillis} before the given time.
+     */
+    private void requeueAt(long nextScheduledExecutionTime) {
+        requeueAfter(nextScheduledExecutionTime - leadTimeInMillis - System.currentTimeMillis());
+        if (nextScheduledExecutionTime == MillisJobSchedule.NEVER) {
+            LOG.info("job {} waiting for leadership until fired.", job.getUniqueName());
+            return;
+        }
+        LOG.info("job {} waiting for leadership until {} before execution at {}.", new Object[] {
+            job.getUniqueName(), new Date(nextScheduledExecutionTime - leadTimeInMillis),
+            new Date(nextScheduledExecutionTime) });
+    }
+
+    /**
+     * Modify whether leadership is only held while a run is due. A synchronous leader (the default) holds leadership
+     * and a thread for the entire scheduling delay. An asynchronous leader gives up leadership and its thread between
+     * runs and rejoins the election {@link #setLeadTimeInMillis(long) shortly before} the next scheduled execution
+     * time, so the number of threads per node grows with the number of due jobs rather than all jobs.
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    /**
+     * Modify the checkpointer persisting the progress runs record through {@link JobContext#checkpoint(byte[])}, so a
+     * run that does not complete is resumed by the next one. Without a checkpointer progress is not persisted.
+     */
+    public void setCheckpointer(JobCheckpointer checkpointer) {
+        this.checkpointer = checkpointer;
     }
 
     public void setClient(CuratorFramework client) {
@@ -114,57 +779,348 @@ public class JobLeader extends LeaderSelectorListenerAdapter {
         this.executor = executor;
     }
 
+    /**
+     * Modify the log recording each run of the job. The history is kept locally, so it only covers runs led by this
+     * node.
+     */
+    public void setHistory(JobHistoryLog history) {
+        this.history = history;
+    }
+
     public void setJob(Job job) {
         this.job = job;
     }
 
+    /**
+     * Modify the executor service running this leader's election. Sharing a single executor service among many
+     * leaders avoids a dedicated thread per job.
+     */
+    public void setLeaderExecutorService(ExecutorService leaderExecutorService) {
+        this.leaderExecutorService = leaderExecutorService;
+    }
+
+    /**
+     * Modify how long before the next scheduled execution time an asynchronous leader rejoins the election.
+     */
+    public void setLeadTimeInMillis(long leadTimeInMillis) {
+        this.leadTimeInMillis = leadTimeInMillis;
+    }
+
+    /**
+     * Modify the most missed execution times run back to back under {@link MisfirePolicy#CATCH_UP}.
+     */
+    public void setMaxBurst(int maxBurst) {
+        if (maxBurst < 1) {
+            throw new IllegalArgumentException("maximum burst must be positive.");
+        }
+        this.maxBurst = maxBurst;
+    }
+
+    /**
+     * Modify the registry providing the job's metrics. Without a registry no metrics are recorded.
+     */
+    public void setMetricsRegistry(JobMetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * Modify what to do with scheduled execution times that were missed. The default,
+     * {@link MisfirePolicy#FIRE_ONCE}, runs once for all of them.
+     */
+    public void setMisfirePolicy(MisfirePolicy misfirePolicy) {
+        this.misfirePolicy = misfirePolicy;
+    }
+
+    /**
+     * Modify how far in the past a scheduled execution time must be to count as missed. Times less late than this run
+     * normally.
+     */
+    public void setMisfireThresholdMillis(long misfireThresholdMillis) {
+        this.misfireThresholdMillis = misfireThresholdMillis;
+    }
+
+    /**
+     * Modify the placement consulted when this node is elected. With a placement, a node leading more than its share of
+     * jobs declines leadership while another node is waiting to take it.
+     */
+    public void setPlacement(JobPlacement placement) {
+        this.placement = placement;
+    }
+
+    /**
+     * Modify the longest random delay before contending for leadership again after the connection was restored or
+     * leadership was abandoned, so the elections of a node's jobs are spread out instead of contending at once.
+     * Defaults to zero, contending at once.
+     */
+    public void setReelectionStaggerMillis(long reelectionStaggerMillis) {
+        this.reelectionStaggerMillis = reelectionStaggerMillis;
+    }
+
     public void setSchedule(JobSchedule schedule) {
         this.schedule = schedule;
     }
 
+    /**
+     * Modify the cache used to serve status reads locally when this node wrote the latest status. Only used by the
+     * default ZooKeeper status store.
+     */
+    public void setStatusCache(JobStatusCache statusCache) {
+        this.statusCache = statusCache;
+    }
+
+    /**
+     * Modify the store persisting the job's status between executions. Without a store the status is kept in
+     * ZooKeeper by a {@link ZooKeeperJobStatusStore} using this leader's client, status cache and status writer.
+     */
+    public void setStatusStore(JobStatusStore statusStore) {
+        this.statusStore = statusStore;
+    }
+
+    /**
+     * Modify the writer used to batch status writes with other jobs. Without a writer each status write is its own
+     * ZooKeeper transaction. Only used by the default ZooKeeper status store.
+     */
+    public void setStatusWriter(JobStatusWriter statusWriter) {
+        this.statusWriter = statusWriter;
+    }
+
+    /**
+     * Modify how long leadership survives a suspended connection. Within the grace period running jobs continue and
+     * leadership is kept if the connection is restored within the same session; it is abandoned once the session is
+     * confirmed lost (see {@link LeadershipGrace}). Defaults to zero, giving up leadership as soon as the connection is
+     * suspended.
+     */
+    public void setSuspensionGraceMillis(long suspensionGraceMillis) {
+        this.suspensionGraceMillis = suspensionGraceMillis;
+    }
+
     @Override
-    public void takeLeadership(CuratorFramework client) throws Exception {
-        LOG.info("elected leader of job {}.", job.getUniqueName());
+    public void stateChanged(CuratorFramework client, ConnectionState newState) {
+        if (asynchronous && newState == ConnectionState.RECONNECTED) {
+            // an election attempt may have failed while disconnected and asynchronous leaders do not auto requeue
+            final long stagger = grace.nextStaggerMillis();
+            if (stagger > 0L) {
+                executor.scheduleWakeUp(new Runnable() {
+                    @Override
+                    public void run() {
+                        rejoin();
+                    }
+                }, stagger);
+            } else {
+                rejoin();
+            }
+        }
+        if (grace.stateChanged(newState)) {
+            return;
+        }
+        super.stateChanged(client, newState);
+    }
 
-        // read lastest status
-        final JobStatus status = readStatus();
+    /**
+     * Schedule the next run of the job without blocking: submit the run following the given status to the executor
+     * and, once the run finishes, persist the updated status on the given executor rather than on the thread that
+     * finished the run. The caller must hold leadership of the job until the returned future completes, for example
+     * through the election of a {@link PartitionedJobLeader} partition.
+     *
+     * @param status
+     *            the latest status of the job, updated in place once the run's status is persisted so it can schedule
+     *            the run after.
+     * @param termGrace
+     *            the grace period of the leadership term the run belongs to, or <code>null</code> if none. The status
+     *            is not persisted once the term was abandoned, so the next leader reruns or resumes the run.
+     * @param statusExecutor
+     *            the executor persisting the status.
+     * @return the future providing whether the run's status was persisted, <code>false</code> if the term was
+     *         abandoned, the write failed or a later term already wrote the status, so it must be read again.
+     */
+    CompletableFuture<Boolean> submitNext(final JobStatus status, final LeadershipGrace termGrace,
+        Executor statusExecutor) throws Exception {
+        final JobContext ctx = nextContext(status, null);
+        ctx.setFencingToken(awaitFencingToken());
+        openCheckpoint(ctx);
+        handedOff();
 
-        // determine next execution time
-        final Date nextScheduledExecutionTime = schedule.nextScheduledExecutionTime(
-            status.getLastScheduledExecutionTime(), status.getLastActualExecutionTime(),
-            status.getLastActualCompletionTime());
+        awaitTrigger(status, ctx);
+        return executor.submit(ctx).handleAsync(new BiFunction<JobContext, Throwable, Boolean>() {
+            @Override
+            public Boolean apply(JobContext result, Throwable failure) {
+                if (failure != null) {
+                    LOG.info("job {} failed or was cancelled.", job.getUniqueName());
+                }
+                if (termGrace != null && termGrace.isAbandoned()) {
+                    // the session was lost, so the next leader reruns or resumes the run
+                    return Boolean.FALSE;
+                }
+                try {
+                    return Boolean.valueOf(updateStatus(status, ctx));
+                } catch (final Exception ex) {
+                    LOG.warn("failed to persist status of job " + job.getUniqueName() + ".", ex);
+                    return Boolean.FALSE;
+                }
+            }
+        }, statusExecutor);
+    }
 
-        // create job execution context
-        final JobContext ctx = new JobContext(job, nextScheduledExecutionTime);
+    @Override
+    public void takeLeadership(CuratorFramework client) throws Exception {
+        if (placement != null && placement.shouldDecline(job.getUniqueName(), 1)
+            && leader.getParticipants().size() > 1) {
+            LOG.info("declined leadership of job {}.", job.getUniqueName());
+            contendingSinceNanos = System.nanoTime();
+            if (asynchronous) {
+                // the nodes already waiting in the election are ahead of this one once it rejoins
+                requeueAfter(0L);
+            }
+            return;
+        }
 
-        executor.execute(ctx);
+        LOG.info("elected leader of job {}.", job.getUniqueName());
+        elected(contendingSinceNanos, readFencingToken(client, leaderPath));
+        grace.elected();
 
-        // persist status
-        status.setLastActualCompletionTime(ctx.getActualCompletionTime());
-        status.setLastActualExecutionTime(ctx.getActualExecutionTime());
-        status.setLastScheduledExecutionTime(nextScheduledExecutionTime);
-        writeStatus(status);
+        if (placement != null) {
+            placement.acquired(1);
+        }
+        boolean waiting = false;
+        try {
+            if (asynchronous) {
+                waiting = executeWhenDue();
+            } else {
+                executeNext();
+            }
+        } finally {
+            grace.relinquished();
+            if (!waiting) {
+                relinquished();
+            }
+            if (placement != null) {
+                placement.released(1);
+            }
+            if (!asynchronous) {
+                // a leader that lost its session waits its turn instead of contending with every other job at once
+                grace.awaitStagger();
+            }
+            // a synchronous leader contends again as soon as it relinquishes
+            contendingSinceNanos = System.nanoTime();
+        }
 
         LOG.info("relinquished leadership of job {}.", job.getUniqueName());
     }
 
-    private void writeDateAsLong(Date date, DataOutputStream dos) throws IOException {
-        if (date == null) {
-            dos.writeLong(0L);
+    /**
+     * Wake the pending run once it was triggered on demand or, for a dependent schedule, once the upstream jobs have
+     * all completed: fire the pending run now or, for an asynchronous leader waiting to rejoin the election, rejoin it
+     * now.
+     */
+    private void triggered() {
+        final JobStatus status = waitingStatus;
+        if (status == null) {
+            return;
+        }
+        if (!isTriggered() && (!(schedule instanceof DependentJobSchedule)
+            || nextScheduledExecutionTime(status) == MillisJobSchedule.NEVER)) {
+            return;
+        }
+
+        final JobContext ctx = waitingContext;
+        if (ctx != null) {
+            executor.fireNow(ctx);
+        } else {
+            final JobTimeout pending = wakeUp;
+            if (pending != null && pending.cancel()) {
+                requeueAfter(0L);
+            }
+        }
+    }
+
+    /**
+     * Stop watching for triggers, if watching.
+     */
+    private synchronized void unwatchTriggers() {
+        if (triggers != null) {
+            triggers.close();
+            triggers = null;
+        }
+    }
+
+    /**
+     * Record the times and outcome of the given run in the status and persist it.
+     *
+     * @return whether the status was written, <code>false</code> if a later leadership term already wrote it.
+     */
+    private boolean updateStatus(JobStatus status, JobContext ctx) throws Exception {
+        waitingContext = null;
+        if (status.getFencingToken() > ctx.getFencingToken()) {
+            // the status this run was scheduled from was written by a later term, which leads the job now
+            LOG.warn("status of job {} was written by a later leader, dropping the status of term {}.",
+                job.getUniqueName(), ctx.getFencingToken());
+            return false;
+        }
+        final long actualCompletionTime = ctx.getActualCompletionTimeMillis();
+        final long actualExecutionTime = ctx.getActualExecutionTimeMillis();
+        status.setLastActualCompletionTimeMillis(actualCompletionTime);
+        status.setLastActualExecutionTimeMillis(actualExecutionTime);
+        status.setLastScheduledExecutionTimeMillis(ctx.getNextScheduledExecutionTimeMillis());
+        status.setLastOutcome(ctx.getOutcome());
+        status.setLastCoalescedCount(ctx.getCoalescedCount());
+        status.setRunCount(status.getRunCount() + 1);
+        status.setFencingToken(ctx.getFencingToken());
+        if (actualExecutionTime != JobStatus.NO_TIME && actualCompletionTime != JobStatus.NO_TIME) {
+            status.setLastDurationMillis(actualCompletionTime - actualExecutionTime);
         } else {
-            dos.writeLong(date.getTime());
+            status.setLastDurationMillis(JobStatus.NO_DURATION);
+        }
+        if (metrics != null) {
+            metrics.recordRun(ctx);
+        }
+        if (history != null) {
+            try {
+                history.append(ctx);
+            } catch (final IOException ex) {
+                LOG.warn("failed to record history of job " + job.getUniqueName() + ".", ex);
+            }
+        }
+        final JobCheckpointer.Checkpoint checkpoint = ctx.getCheckpoints();
+        if (checkpoint != null) {
+            // a completed run's checkpoint goes before its status so the next run cannot resume from it
+            try {
+                checkpoint.finish(ctx.getOutcome());
+            } catch (final Exception ex) {
+                LOG.warn("failed to finish checkpoint of job " + job.getUniqueName() + ".", ex);
+            }
         }
+        if (!writeStatus(status)) {
+            return false;
+        }
+        final JobOutcome outcome = ctx.getOutcome();
+        final JobTriggers watch = triggers;
+        if (watch != null && (outcome == JobOutcome.COMPLETED || outcome == JobOutcome.FAILED)) {
+            // the triggers observed before the run started were served by it
+            watch.consume(actualExecutionTime);
+        }
+        return true;
     }
 
-    private void writeStatus(JobStatus status) throws Exception {
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try (DataOutputStream dos = new DataOutputStream(baos)) {
-            writeDateAsLong(status.getLastActualCompletionTime(), dos);
-            writeDateAsLong(status.getLastActualExecutionTime(), dos);
-            writeDateAsLong(status.getLastScheduledExecutionTime(), dos);
+    /**
+     * Start watching for triggers, unless already watching since this node waited to rejoin the election.
+     */
+    private synchronized void watchTriggers() {
+        if (client != null && triggers == null) {
+            triggers = new JobTriggers(client, job.getUniqueName(), trigger);
+            triggers.start();
         }
+    }
 
-        final byte[] data = baos.toByteArray();
-        client.setData().forPath(statusPath, data);
+    private boolean writeStatus(JobStatus status) throws Exception {
+        if (metrics == null) {
+            return statusStore.writeStatus(job.getUniqueName(), status);
+        }
+
+        final long start = System.nanoTime();
+        try {
+            return statusStore.writeStatus(job.getUniqueName(), status);
+        } finally {
+            metrics.recordStatusWrite(System.nanoTime() - start);
+        }
     }
 }
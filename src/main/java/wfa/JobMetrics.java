@@ -0,0 +1,184 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics recorded for a single job on this node: scheduling lag, run duration, election and hand off times,
+ * status read and write latency, and run outcome counts. Recording is lock-free. Instances are obtained from a
+ * {@link JobMetricsRegistry}, which publishes them through its {@link JobMetricsSink}.
+ */
+public class JobMetrics implements JobMetricsMXBean {
+
+    private final LongAdder cancelledCount = new LongAdder();
+
+    private final LongAdder completedCount = new LongAdder();
+
+    private final LatencyHistogram electionTime = new LatencyHistogram();
+
+    private final LongAdder failedCount = new LongAdder();
+
+    private final LatencyHistogram handoffTime = new LatencyHistogram();
+
+    private final String jobName;
+
+    private final LatencyHistogram queueWaitTime = new LatencyHistogram();
+
+    private final LatencyHistogram runDuration = new LatencyHistogram();
+
+    private final LatencyHistogram schedulingLag = new LatencyHistogram();
+
+    private final LatencyHistogram statusReadTime = new LatencyHistogram();
+
+    private final LatencyHistogram statusWriteTime = new LatencyHistogram();
+
+    /**
+     * Construct the metrics of the given job.
+     *
+     * @param jobName
+     *            the globally unique job name.
+     */
+    public JobMetrics(String jobName) {
+        super();
+        this.jobName = jobName;
+    }
+
+    @Override
+    public long getCancelledCount() {
+        return cancelledCount.sum();
+    }
+
+    @Override
+    public long getCompletedCount() {
+        return completedCount.sum();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getElectionTimeMillis() {
+        return electionTime.snapshot();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return failedCount.sum();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getHandoffTimeMillis() {
+        return handoffTime.snapshot();
+    }
+
+    @Override
+    public String getJobName() {
+        return jobName;
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getQueueWaitTimeMillis() {
+        return queueWaitTime.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getRunDurationMillis() {
+        return runDuration.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getSchedulingLagMillis() {
+        return schedulingLag.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getStatusReadTimeMicros() {
+        return statusReadTime.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getStatusWriteTimeMicros() {
+        return statusWriteTime.snapshot();
+    }
+
+    /**
+     * Record the time between starting to contend for leadership and being elected.
+     */
+    public void recordElectionTime(long millis) {
+        electionTime.record(millis);
+    }
+
+    /**
+     * Record the time between being elected and scheduling the first run.
+     */
+    public void recordHandoffTime(long millis) {
+        handoffTime.record(millis);
+    }
+
+    /**
+     * Record the times and outcome of a finished run.
+     */
+    public void recordRun(JobContext ctx) {
+        final long actualExecutionTime = ctx.getActualExecutionTimeMillis();
+        final long actualCompletionTime = ctx.getActualCompletionTimeMillis();
+        if (actualExecutionTime != JobStatus.NO_TIME) {
+            schedulingLag.record(actualExecutionTime - ctx.getNextScheduledExecutionTimeMillis());
+            if (actualCompletionTime != JobStatus.NO_TIME) {
+                runDuration.record(actualCompletionTime - actualExecutionTime);
+            }
+        }
+
+        if (ctx.getQueueWaitTimeMillis() >= 0L) {
+            queueWaitTime.record(ctx.getQueueWaitTimeMillis());
+        }
+
+        final JobOutcome outcome = ctx.getOutcome();
+        if (outcome == JobOutcome.COMPLETED) {
+            completedCount.increment();
+        } else if (outcome == JobOutcome.FAILED) {
+            failedCount.increment();
+        } else if (outcome == JobOutcome.CANCELLED) {
+            cancelledCount.increment();
+        }
+    }
+
+    /**
+     * Record the time taken to read the job status.
+     */
+    public void recordStatusRead(long nanos) {
+        statusReadTime.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Record the time taken to write the job status.
+     */
+    public void recordStatusWrite(long nanos) {
+        statusWriteTime.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+}
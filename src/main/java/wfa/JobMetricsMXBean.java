@@ -0,0 +1,93 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+/**
+ * The management interface of {@link JobMetrics}. Each histogram attribute is a {@link LatencyHistogram.Snapshot} of
+ * the values recorded since the job was first led by this node.
+ */
+public interface JobMetricsMXBean {
+
+    /**
+     * Access the number of runs cancelled before completing.
+     */
+    long getCancelledCount();
+
+    /**
+     * Access the number of runs completed successfully.
+     */
+    long getCompletedCount();
+
+    /**
+     * Access the time between starting to contend for leadership and being elected, in milliseconds.
+     */
+    LatencyHistogram.Snapshot getElectionTimeMillis();
+
+    /**
+     * Access the number of runs that failed.
+     */
+    long getFailedCount();
+
+    /**
+     * Access the time between being elected and scheduling the first run, in milliseconds.
+     */
+    LatencyHistogram.Snapshot getHandoffTimeMillis();
+
+    /**
+     * Access the globally unique name of the job.
+     */
+    String getJobName();
+
+    /**
+     * Access the time runs waited on this node between becoming due and starting, in milliseconds.
+     */
+    LatencyHistogram.Snapshot getQueueWaitTimeMillis();
+
+    /**
+     * Access the time between the actual execution and completion of runs, in milliseconds.
+     */
+    LatencyHistogram.Snapshot getRunDurationMillis();
+
+    /**
+     * Access the time between the scheduled and actual execution of runs, in milliseconds.
+     */
+    LatencyHistogram.Snapshot getSchedulingLagMillis();
+
+    /**
+     * Access the time taken to read the job status, in microseconds.
+     */
+    LatencyHistogram.Snapshot getStatusReadTimeMicros();
+
+    /**
+     * Access the time taken to write the job status, in microseconds.
+     */
+    LatencyHistogram.Snapshot getStatusWriteTimeMicros();
+
+}
@@ -0,0 +1,89 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the {@link JobMetrics} of every job led by this node. Metrics are only recorded by leaders given a registry;
+ * without one, instrumentation is skipped entirely.
+ */
+public class JobMetricsRegistry {
+
+    private final ConcurrentMap<String, JobMetrics> metrics = new ConcurrentHashMap<String, JobMetrics>();
+
+    /** the sink publishing metrics, or <code>null</code> to only keep them in memory. */
+    private JobMetricsSink sink;
+
+    public void destroyRegistry() {
+        if (sink != null) {
+            for (final JobMetrics jobMetrics : metrics.values()) {
+                sink.unregister(jobMetrics);
+            }
+        }
+        metrics.clear();
+    }
+
+    /**
+     * Access the metrics of every job.
+     */
+    public Collection<JobMetrics> getAllMetrics() {
+        return Collections.unmodifiableCollection(metrics.values());
+    }
+
+    /**
+     * Access the metrics of the given job, creating and publishing them on first access.
+     *
+     * @param jobName
+     *            the globally unique job name.
+     * @return the job's metrics.
+     */
+    public JobMetrics getMetrics(String jobName) {
+        JobMetrics jobMetrics = metrics.get(jobName);
+        if (jobMetrics == null) {
+            final JobMetrics created = new JobMetrics(jobName);
+            jobMetrics = metrics.putIfAbsent(jobName, created);
+            if (jobMetrics == null) {
+                jobMetrics = created;
+                if (sink != null) {
+                    sink.register(created);
+                }
+            }
+        }
+        return jobMetrics;
+    }
+
+    public void setSink(JobMetricsSink sink) {
+        this.sink = sink;
+    }
+}
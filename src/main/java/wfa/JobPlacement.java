@@ -0,0 +1,401 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.PathChildrenCache;
+import org.apache.curator.framework.recipes.nodes.PersistentEphemeralNode;
+import org.apache.curator.utils.ZKPaths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Load-aware placement of job leadership. Each node publishes its load to an ephemeral node under
+ * <code>/group/&lt;groupName&gt;/nodes/&lt;nodeId&gt;</code> and watches the loads of the other nodes in its group.
+ * Leaders consult the placement when elected:
+ * <ul>
+ * <li>a node declines leadership when taking the job would put it more than the tolerance above the average number
+ * of jobs led per node and another node is below that bound, and</li>
+ * <li>a node holding leadership indefinitely, like a {@link PartitionedJobLeader} partition, yields it while the node
+ * is more than the tolerance above the average.</li>
+ * </ul>
+ * Placement uses hysteresis: once a node is above the average by more than the tolerance it keeps shedding jobs until
+ * it is back at the average, and it yields at most one leadership per refresh interval so the other nodes' published
+ * loads catch up before the next decision. A job is never declined twice within a refresh interval, so a job stays led
+ * even when the published loads are stale.
+ * <p>
+ * Each node publishes the number of jobs it leads, the number of runs executing and waiting for admission, and the
+ * system load average per processor. Placement decisions use the number of jobs led so per-node job counts converge to
+ * within the tolerance; the other values help operators spot local saturation.
+ */
+public class JobPlacement {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobPlacement.class);
+
+    /** the version of the load encoding. */
+    private static final byte VERSION = 1;
+
+    /**
+     * Decode the number of jobs led from published load data.
+     *
+     * @return the number of jobs led, or -1 if the data is not a supported encoding.
+     */
+    private static int decodeLeading(byte[] data) {
+        if (data == null || data.length == 0 || data[0] != VERSION) {
+            return -1;
+        }
+        try {
+            return ByteBuffer.wrap(data, 1, data.length - 1).getInt();
+        } catch (final BufferUnderflowException ex) {
+            return -1;
+        }
+    }
+
+    private CuratorFramework client;
+
+    /** when this node last declined leadership, from {@link System#nanoTime()}, keyed by job or partition name. */
+    private final ConcurrentMap<String, Long> declinedAtNanos = new ConcurrentHashMap<String, Long>();
+
+    private JobExecutor executor;
+
+    /** the name of the node group whose members share jobs. */
+    private String groupName = "default";
+
+    /** the number of jobs this node currently leads. */
+    private final AtomicInteger leadingCount = new AtomicInteger();
+
+    /** the published loads of the nodes in the group. */
+    private PathChildrenCache members;
+
+    /** the ephemeral node publishing this node's load. */
+    private PersistentEphemeralNode node;
+
+    /** the name of this node within its group. */
+    private String nodeId = UUID.randomUUID().toString();
+
+    /** the pending publication of this node's load. */
+    private volatile JobTimeout publication;
+
+    /** the load data last published. */
+    private byte[] published;
+
+    /** how often this node's load is published. */
+    private long refreshIntervalMillis = 5000L;
+
+    /** whether this node is above its share of jobs and sheds them until it is back at the average. */
+    private volatile boolean shedding;
+
+    /** how far above the average number of jobs per node a node may lead. */
+    private int tolerance = 1;
+
+    /** when this node last yielded leadership, from {@link System#nanoTime()}. */
+    private final AtomicLong yieldedAtNanos = new AtomicLong(System.nanoTime() - TimeUnit.DAYS.toNanos(1L));
+
+    /**
+     * Record that this node took leadership of the given number of jobs.
+     */
+    public void acquired(int jobs) {
+        leadingCount.addAndGet(jobs);
+    }
+
+    /**
+     * Summarize the loads of the nodes in the group, using this node's current count rather than its published one.
+     */
+    private ClusterLoad clusterLoad() {
+        final ClusterLoad cluster = new ClusterLoad();
+        cluster.nodeCount = 1;
+        cluster.total = leadingCount.get();
+        cluster.minOther = Integer.MAX_VALUE;
+        for (final ChildData child : members.getCurrentData()) {
+            if (nodeId.equals(ZKPaths.getNodeFromPath(child.getPath()))) {
+                continue;
+            }
+
+            final int leading = decodeLeading(child.getData());
+            if (leading >= 0) {
+                ++cluster.nodeCount;
+                cluster.total += leading;
+                cluster.minOther = Math.min(cluster.minOther, leading);
+            }
+        }
+        return cluster;
+    }
+
+    public void destroyPlacement() {
+        final JobTimeout pending = publication;
+        if (pending != null) {
+            pending.cancel();
+        }
+        try {
+            if (members != null) {
+                members.close();
+            }
+            if (node != null) {
+                node.close();
+            }
+        } catch (final IOException ex) {
+            LOG.warn("failed to close placement of node " + nodeId + ".", ex);
+        }
+    }
+
+    /**
+     * Encode this node's current load.
+     */
+    private byte[] encodeLoad() {
+        final double systemLoad = ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage();
+        final ByteBuffer buffer = ByteBuffer.allocate(1 + 4 * 3 + 8);
+        buffer.put(VERSION);
+        buffer.putInt(leadingCount.get());
+        buffer.putInt(executor.getRunningCount());
+        buffer.putInt(executor.getQueuedCount());
+        buffer.putDouble(systemLoad < 0.0 ? systemLoad : systemLoad / Runtime.getRuntime().availableProcessors());
+        return buffer.array();
+    }
+
+    /**
+     * Access the number of jobs this node currently leads.
+     */
+    public int getLeadingCount() {
+        return leadingCount.get();
+    }
+
+    /**
+     * Access how often this node's load is published. Holders of indefinite leadership should check
+     * {@link #shouldYield(int)} at this interval.
+     */
+    public long getRefreshIntervalMillis() {
+        return refreshIntervalMillis;
+    }
+
+    public void initializePlacement() throws Exception {
+        final String nodesPath = "/group/" + groupName + "/nodes";
+        client.newNamespaceAwareEnsurePath(nodesPath).ensure(client.getZookeeperClient());
+
+        members = new PathChildrenCache(client, nodesPath, true);
+        members.start();
+
+        published = encodeLoad();
+        node = new PersistentEphemeralNode(client, PersistentEphemeralNode.Mode.EPHEMERAL, ZKPaths.makePath(
+            nodesPath, nodeId), published);
+        node.start();
+
+        publication = executor.scheduleWakeUp(new Runnable() {
+            @Override
+            public void run() {
+                publish();
+                publication = executor.scheduleWakeUp(this, refreshIntervalMillis);
+            }
+        }, refreshIntervalMillis);
+    }
+
+    /**
+     * Publish this node's load if it changed since it was last published.
+     */
+    private void publish() {
+        final byte[] load = encodeLoad();
+        if (Arrays.equals(load, published)) {
+            return;
+        }
+        try {
+            node.setData(load);
+            published = load;
+        } catch (final Exception ex) {
+            LOG.warn("failed to publish load of node " + nodeId + ".", ex);
+        }
+    }
+
+    /**
+     * Record that this node gave up leadership of the given number of jobs.
+     */
+    public void released(int jobs) {
+        leadingCount.addAndGet(-jobs);
+    }
+
+    public void setClient(CuratorFramework client) {
+        this.client = client;
+    }
+
+    /**
+     * Modify the executor whose running and queued runs are published, also used to publish the load periodically.
+     */
+    public void setExecutor(JobExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Modify the name of the node group whose members share jobs. Every node running the same jobs must use the same
+     * group name.
+     */
+    public void setGroupName(String groupName) {
+        this.groupName = groupName;
+    }
+
+    /**
+     * Modify the name of this node within its group. Defaults to a random name.
+     */
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    /**
+     * Modify how often this node's load is published.
+     */
+    public void setRefreshIntervalMillis(long refreshIntervalMillis) {
+        this.refreshIntervalMillis = refreshIntervalMillis;
+    }
+
+    /**
+     * Modify how far above the average number of jobs per node a node may lead. Per-node job counts converge to within
+     * this tolerance of each other; smaller tolerances move leadership more often.
+     */
+    public void setTolerance(int tolerance) {
+        if (tolerance < 0) {
+            throw new IllegalArgumentException("tolerance must not be negative.");
+        }
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Decide whether this node should decline leadership of the given number of jobs it was just elected to lead. The
+     * caller should only decline while another node is waiting in the election.
+     *
+     * @param name
+     *            the name of the job or partition.
+     * @param jobs
+     *            the number of jobs led through the election.
+     * @return <code>true</code> to decline leadership.
+     */
+    public boolean shouldDecline(String name, int jobs) {
+        final ClusterLoad cluster = clusterLoad();
+        if (cluster.nodeCount < 2) {
+            return false;
+        }
+
+        final int local = leadingCount.get();
+        updateShedding(local, cluster);
+        final double bound = (double) (cluster.total + jobs) / cluster.nodeCount + tolerance;
+        if (!shedding && local + jobs <= bound) {
+            return false;
+        }
+        if (cluster.minOther + jobs > bound) {
+            // no other node would take it
+            return false;
+        }
+
+        final long now = System.nanoTime();
+        final Long declined = declinedAtNanos.get(name);
+        if (declined != null && now - declined.longValue() < TimeUnit.MILLISECONDS.toNanos(refreshIntervalMillis)) {
+            // declined recently, so the published loads are stale or no other node is taking it
+            return false;
+        }
+        declinedAtNanos.put(name, Long.valueOf(now));
+
+        LOG.info("node {} declines {} with {} jobs led, bound is {}.", new Object[] { nodeId, name, local, bound });
+        return true;
+    }
+
+    /**
+     * Decide whether this node should give up leadership of the given number of jobs it holds. At most one leadership
+     * is yielded per refresh interval across the node. The caller should only yield while another node is waiting in
+     * the election.
+     *
+     * @param jobs
+     *            the number of jobs led through the election.
+     * @return <code>true</code> to yield leadership.
+     */
+    public boolean shouldYield(int jobs) {
+        final ClusterLoad cluster = clusterLoad();
+        if (cluster.nodeCount < 2) {
+            return false;
+        }
+
+        final int local = leadingCount.get();
+        updateShedding(local, cluster);
+        final double average = (double) cluster.total / cluster.nodeCount;
+        if (!shedding || local - jobs < average - tolerance || cluster.minOther + jobs > average + tolerance) {
+            // not overloaded, yielding would overshoot, or no other node would take it
+            return false;
+        }
+
+        final long now = System.nanoTime();
+        final long yielded = yieldedAtNanos.get();
+        if (now - yielded < TimeUnit.MILLISECONDS.toNanos(refreshIntervalMillis)) {
+            return false;
+        }
+        return yieldedAtNanos.compareAndSet(yielded, now);
+    }
+
+    /**
+     * Start shedding jobs once this node is above the average by more than the tolerance and stop once it is back at
+     * the average.
+     */
+    private void updateShedding(int local, ClusterLoad cluster) {
+        final double average = (double) cluster.total / cluster.nodeCount;
+        if (local > average + tolerance) {
+            if (!shedding) {
+                LOG.info("node {} leads {} jobs against an average of {}, shedding jobs.", new Object[] { nodeId,
+                    local, average });
+                shedding = true;
+            }
+        } else if (local <= average && shedding) {
+            LOG.info("node {} leads {} jobs against an average of {}, no longer shedding jobs.", new Object[] {
+                nodeId, local, average });
+            shedding = false;
+        }
+    }
+
+    /**
+     * The number of jobs led across the group.
+     */
+    private static class ClusterLoad {
+
+        /** the fewest jobs led by another node. */
+        int minOther;
+
+        /** the number of nodes with a published load, including this node. */
+        int nodeCount;
+
+        /** the number of jobs led by all nodes. */
+        long total;
+    }
+}
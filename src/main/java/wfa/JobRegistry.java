@@ -0,0 +1,537 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
+import org.apache.zookeeper.KeeperException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers many jobs at once and activates their leaders lazily. Registration creates the
+ * <code>/job/&lt;name&gt;</code> trees of new jobs (the job, leader and status nodes) in batched ZooKeeper
+ * <code>multi()</code> transactions and reads the statuses of existing jobs with pipelined background reads, so start
+ * up costs a handful of round trips per thousand jobs instead of several per job.
+ * <p>
+ * A job's leader only joins its election {@link #setActivationLeadMillis(long) shortly before} the job's next
+ * scheduled execution time. Leaders are activated in order of their next scheduled execution times, so jobs due soon
+ * are elected first and jobs not due for a long time do not contend for leadership until they are needed. Once
+ * activated, a leader stays in its election until the registry is destroyed. Jobs with a {@link DependentJobSchedule}
+ * are activated at once, since their runs are woken by upstream jobs rather than a time, and so are jobs
+ * {@link #trigger(String) triggered} through the registry.
+ * <p>
+ * The registry configures every leader it creates with its own settings, so these must be set before jobs are
+ * registered.
+ */
+public class JobRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobRegistry.class);
+
+    /** the data of a newly created status node. */
+    private static final byte[] EMPTY_STATUS = JobStatusCodec.encode(new JobStatus());
+
+    /** how long before a job's next scheduled execution time its leader joins the election. */
+    private long activationLeadMillis = 60000L;
+
+    /** the activated leaders. */
+    private final List<JobLeader> activeLeaders = new ArrayList<JobLeader>();
+
+    /** whether leaders only hold leadership while a run is due. */
+    private boolean asynchronous;
+
+    /** the checkpointer persisting the progress of runs of all jobs, or <code>null</code> to not persist it. */
+    private JobCheckpointer checkpointer;
+
+    private CuratorFramework client;
+
+    private JobExecutor executor;
+
+    /** the log recording each run of all jobs, or <code>null</code> to keep no history. */
+    private JobHistoryLog history;
+
+    /** whether the registry was initialized, after which registered jobs are prepared immediately. */
+    private boolean initialized;
+
+    /** the maximum number of job trees created in a single transaction. */
+    private int maxBatchSize = 100;
+
+    /** the most missed execution times each job runs back to back under {@link MisfirePolicy#CATCH_UP}. */
+    private int maxBurst = 10;
+
+    /** the registry providing job metrics, or <code>null</code> to disable metrics. */
+    private JobMetricsRegistry metricsRegistry;
+
+    /** what each job does with scheduled execution times that were missed. */
+    private MisfirePolicy misfirePolicy = MisfirePolicy.FIRE_ONCE;
+
+    /** the leaders waiting for activation, earliest activation time first. */
+    private final PriorityQueue<Registration> pendingLeaders = new PriorityQueue<Registration>();
+
+    /** the placement consulted by elected leaders, or <code>null</code> to always accept leadership. */
+    private JobPlacement placement;
+
+    /** the longest random delay before each job contends for leadership again after reconnecting. */
+    private long reelectionStaggerMillis;
+
+    /** the leaders registered before initialization. */
+    private final List<JobLeader> registeredLeaders = new ArrayList<JobLeader>();
+
+    /** the cache serving status reads of all jobs, or <code>null</code> to always read ZooKeeper. */
+    private JobStatusCache statusCache;
+
+    /** the store persisting the statuses of all jobs, or <code>null</code> to keep them in ZooKeeper. */
+    private JobStatusStore statusStore;
+
+    /** the writer batching status writes of all jobs, or <code>null</code> to write synchronously. */
+    private JobStatusWriter statusWriter;
+
+    /** how long the leadership of each job survives a suspended connection, or zero to give it up at once. */
+    private long suspensionGraceMillis;
+
+    /** the pending activation of the earliest waiting leader. */
+    private JobTimeout wakeUp;
+
+    /**
+     * Join the elections of all leaders whose activation time has come, earliest first, and wait for the next one.
+     */
+    private synchronized void activateDue() {
+        final long now = System.currentTimeMillis();
+        while (!pendingLeaders.isEmpty() && pendingLeaders.peek().activationTime <= now) {
+            final JobLeader jobLeader = pendingLeaders.poll().jobLeader;
+            jobLeader.initializeLeader();
+            activeLeaders.add(jobLeader);
+        }
+
+        wakeUp = null;
+        if (!pendingLeaders.isEmpty()) {
+            final Runnable activation = new Runnable() {
+                @Override
+                public void run() {
+                    activateDue();
+                }
+            };
+            wakeUp = executor.scheduleWakeUp(activation, pendingLeaders.peek().activationTime - now);
+        }
+    }
+
+    /**
+     * Create the trees of the given jobs in batched transactions. A batch that fails because some of its nodes exist,
+     * for example because another node registered the same jobs at the same time, is retried one node at a time.
+     */
+    private void createTrees(List<String> jobNames) throws Exception {
+        for (int from = 0; from < jobNames.size(); from += maxBatchSize) {
+            final List<String> batch = jobNames.subList(from, Math.min(from + maxBatchSize, jobNames.size()));
+            try {
+                CuratorTransaction transaction = client.inTransaction();
+                CuratorTransactionFinal last = null;
+                for (final String jobName : batch) {
+                    final String jobPath = "/job/" + jobName;
+                    last = transaction.create().forPath(jobPath).and();
+                    last = last.create().forPath(jobPath + "/leader").and();
+                    last = last.create().forPath(jobPath + "/status", EMPTY_STATUS).and();
+                    transaction = last;
+                }
+                last.commit();
+            } catch (final KeeperException.NodeExistsException ex) {
+                LOG.debug("batched job creation failed, creating jobs individually.", ex);
+                for (final String jobName : batch) {
+                    final String jobPath = "/job/" + jobName;
+                    createIfMissing(jobPath, null);
+                    createIfMissing(jobPath + "/leader", null);
+                    createIfMissing(jobPath + "/status", EMPTY_STATUS);
+                }
+            }
+        }
+    }
+
+    private void createIfMissing(String path, byte[] data) throws Exception {
+        try {
+            if (data == null) {
+                client.create().forPath(path);
+            } else {
+                client.create().forPath(path, data);
+            }
+        } catch (final KeeperException.NodeExistsException ex) {
+            // created concurrently
+        }
+    }
+
+    public synchronized void destroyRegistry() {
+        if (wakeUp != null) {
+            wakeUp.cancel();
+            wakeUp = null;
+        }
+        pendingLeaders.clear();
+        for (final JobLeader jobLeader : activeLeaders) {
+            jobLeader.destroyLeader();
+        }
+        activeLeaders.clear();
+        initialized = false;
+    }
+
+    /**
+     * Access the number of leaders that joined their elections.
+     */
+    public synchronized int getActiveCount() {
+        return activeLeaders.size();
+    }
+
+    /**
+     * Access the number of leaders waiting for their jobs' next scheduled execution times to come close.
+     */
+    public synchronized int getPendingCount() {
+        return pendingLeaders.size() + registeredLeaders.size();
+    }
+
+    /**
+     * Create the trees of the jobs registered so far and start activating their leaders. Jobs registered afterwards
+     * are prepared as they are registered.
+     */
+    public void initializeRegistry() throws Exception {
+        final List<JobLeader> jobLeaders;
+        synchronized (this) {
+            initialized = true;
+            jobLeaders = new ArrayList<JobLeader>(registeredLeaders);
+            registeredLeaders.clear();
+        }
+        prepare(jobLeaders);
+    }
+
+    /**
+     * Create the trees of new jobs, compute each job's next scheduled execution time from its status and queue the
+     * leaders for activation.
+     */
+    private void prepare(List<JobLeader> jobLeaders) throws Exception {
+        if (jobLeaders.isEmpty()) {
+            return;
+        }
+
+        final long start = System.nanoTime();
+        client.newNamespaceAwareEnsurePath("/job").ensure(client.getZookeeperClient());
+        final Set<String> existing = new HashSet<String>(client.getChildren().forPath("/job"));
+
+        final List<String> created = new ArrayList<String>();
+        final List<JobLeader> existingLeaders = new ArrayList<JobLeader>();
+        for (final JobLeader jobLeader : jobLeaders) {
+            final String jobName = jobLeader.getJob().getUniqueName();
+            if (existing.contains(jobName)) {
+                existingLeaders.add(jobLeader);
+            } else {
+                created.add(jobName);
+            }
+        }
+        createTrees(created);
+
+        // new jobs have empty statuses in ZooKeeper, existing ones are read in a single pipelined pass
+        final List<JobLeader> readLeaders = statusStore == null ? existingLeaders : jobLeaders;
+        final JobStatus[] statuses = readStatuses(readLeaders);
+        final List<Registration> registrations = new ArrayList<Registration>(jobLeaders.size());
+        final JobStatus empty = new JobStatus();
+        int readIndex = 0;
+        for (final JobLeader jobLeader : jobLeaders) {
+            JobStatus status = empty;
+            if (readIndex < readLeaders.size() && readLeaders.get(readIndex) == jobLeader) {
+                status = statuses[readIndex++];
+            }
+            if (jobLeader.getSchedule() instanceof DependentJobSchedule) {
+                // runs woken by upstream jobs need a leader watching for them at all times
+                registrations.add(new Registration(jobLeader, 0L));
+            } else {
+                final long next = jobLeader.nextScheduledExecutionTime(status);
+                registrations.add(new Registration(jobLeader, next - activationLeadMillis));
+            }
+        }
+
+        synchronized (this) {
+            if (!initialized) {
+                // destroyed while preparing
+                return;
+            }
+            pendingLeaders.addAll(registrations);
+            if (wakeUp != null) {
+                wakeUp.cancel();
+            }
+        }
+        activateDue();
+
+        LOG.info("registered {} jobs ({} new) in {} ms.", new Object[] { jobLeaders.size(), created.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) });
+    }
+
+    /**
+     * Read the statuses of the given jobs from the status store or, by default, with ZooKeeper background reads issued
+     * back to back. A status that is missing or cannot be read is treated as empty.
+     */
+    private JobStatus[] readStatuses(List<JobLeader> jobLeaders) throws InterruptedException {
+        final JobStatus[] statuses = new JobStatus[jobLeaders.size()];
+        if (statusStore != null) {
+            for (int i = 0; i < statuses.length; ++i) {
+                final String jobName = jobLeaders.get(i).getJob().getUniqueName();
+                statuses[i] = new JobStatus();
+                try {
+                    statusStore.readStatus(jobName, statuses[i]);
+                } catch (final Exception ex) {
+                    LOG.warn("could not read status of job " + jobName + ".", ex);
+                    statuses[i].clear();
+                }
+            }
+            return statuses;
+        }
+
+        final CountDownLatch remaining = new CountDownLatch(statuses.length);
+        for (int i = 0; i < statuses.length; ++i) {
+            final JobStatus status = new JobStatus();
+            statuses[i] = status;
+            final String statusPath = "/job/" + jobLeaders.get(i).getJob().getUniqueName() + "/status";
+            try {
+                client.getData().inBackground(new BackgroundCallback() {
+                    @Override
+                    public void processResult(CuratorFramework client, CuratorEvent event) {
+                        try {
+                            if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                                JobStatusCodec.decode(event.getData(), status);
+                            }
+                        } catch (final IllegalArgumentException ex) {
+                            LOG.warn("could not decode status " + event.getPath() + ".", ex);
+                            status.clear();
+                        } finally {
+                            remaining.countDown();
+                        }
+                    }
+                }).forPath(statusPath);
+            } catch (final Exception ex) {
+                LOG.warn("could not read status " + statusPath + ".", ex);
+                remaining.countDown();
+            }
+        }
+        remaining.await();
+        return statuses;
+    }
+
+    /**
+     * Register the given job. See {@link #registerJobs(Map)}.
+     */
+    public void registerJob(Job job, JobSchedule schedule) throws Exception {
+        registerJobs(Collections.singletonMap(job, schedule));
+    }
+
+    /**
+     * Register the given jobs with their schedules. Before initialization the jobs are only recorded; afterwards their
+     * trees are created and their leaders queued for activation before this method returns.
+     *
+     * @param jobs
+     *            the jobs to register, mapped to their schedules.
+     */
+    public void registerJobs(Map<? extends Job, ? extends JobSchedule> jobs) throws Exception {
+        final List<JobLeader> jobLeaders = new ArrayList<JobLeader>(jobs.size());
+        for (final Map.Entry<? extends Job, ? extends JobSchedule> entry : jobs.entrySet()) {
+            final JobLeader jobLeader = new JobLeader();
+            jobLeader.setAsynchronous(asynchronous);
+            jobLeader.setCheckpointer(checkpointer);
+            jobLeader.setClient(client);
+            jobLeader.setExecutor(executor);
+            jobLeader.setHistory(history);
+            jobLeader.setJob(entry.getKey());
+            jobLeader.setMaxBurst(maxBurst);
+            jobLeader.setMetricsRegistry(metricsRegistry);
+            jobLeader.setMisfirePolicy(misfirePolicy);
+            jobLeader.setPlacement(placement);
+            jobLeader.setReelectionStaggerMillis(reelectionStaggerMillis);
+            jobLeader.setSchedule(entry.getValue());
+            jobLeader.setStatusCache(statusCache);
+            jobLeader.setStatusStore(statusStore);
+            jobLeader.setStatusWriter(statusWriter);
+            jobLeader.setSuspensionGraceMillis(suspensionGraceMillis);
+            jobLeaders.add(jobLeader);
+        }
+
+        synchronized (this) {
+            if (!initialized) {
+                registeredLeaders.addAll(jobLeaders);
+                return;
+            }
+        }
+        prepare(jobLeaders);
+    }
+
+    /**
+     * Modify how long before a job's next scheduled execution time its leader joins the election. The lead should
+     * cover the time to elect a leader; jobs already due are activated at once.
+     */
+    public void setActivationLeadMillis(long activationLeadMillis) {
+        this.activationLeadMillis = activationLeadMillis;
+    }
+
+    /**
+     * Modify whether leaders only hold leadership while a run is due. See {@link JobLeader#setAsynchronous(boolean)}.
+     */
+    public void setAsynchronous(boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    /**
+     * Modify the checkpointer persisting the progress of runs of all jobs. See
+     * {@link JobLeader#setCheckpointer(JobCheckpointer)}.
+     */
+    public void setCheckpointer(JobCheckpointer checkpointer) {
+        this.checkpointer = checkpointer;
+    }
+
+    public void setClient(CuratorFramework client) {
+        this.client = client;
+    }
+
+    public void setExecutor(JobExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Modify the maximum number of job trees created in a single transaction. Each job tree is three nodes.
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maximum batch size must be positive.");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void setHistory(JobHistoryLog history) {
+        this.history = history;
+    }
+
+    public void setMaxBurst(int maxBurst) {
+        this.maxBurst = maxBurst;
+    }
+
+    public void setMetricsRegistry(JobMetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public void setMisfirePolicy(MisfirePolicy misfirePolicy) {
+        this.misfirePolicy = misfirePolicy;
+    }
+
+    public void setPlacement(JobPlacement placement) {
+        this.placement = placement;
+    }
+
+    /**
+     * Modify the longest random delay before each job contends for leadership again. See
+     * {@link JobLeader#setReelectionStaggerMillis(long)}.
+     */
+    public void setReelectionStaggerMillis(long reelectionStaggerMillis) {
+        this.reelectionStaggerMillis = reelectionStaggerMillis;
+    }
+
+    public void setStatusCache(JobStatusCache statusCache) {
+        this.statusCache = statusCache;
+    }
+
+    /**
+     * Modify the store persisting the statuses of all jobs. See {@link JobLeader#setStatusStore(JobStatusStore)}.
+     */
+    public void setStatusStore(JobStatusStore statusStore) {
+        this.statusStore = statusStore;
+    }
+
+    public void setStatusWriter(JobStatusWriter statusWriter) {
+        this.statusWriter = statusWriter;
+    }
+
+    /**
+     * Modify how long the leadership of each job survives a suspended connection. See
+     * {@link JobLeader#setSuspensionGraceMillis(long)}.
+     */
+    public void setSuspensionGraceMillis(long suspensionGraceMillis) {
+        this.suspensionGraceMillis = suspensionGraceMillis;
+    }
+
+    /**
+     * Request a run of the given job as soon as possible. See {@link JobTriggers#trigger(CuratorFramework, String)}.
+     * Leaders only watch for triggers once activated, so a leader of the job on this node still waiting for activation
+     * is activated at once.
+     *
+     * @param jobName
+     *            the unique name of the job.
+     * @return the path of the trigger node.
+     */
+    public String trigger(String jobName) throws Exception {
+        synchronized (this) {
+            final Iterator<Registration> registrations = pendingLeaders.iterator();
+            while (registrations.hasNext()) {
+                final JobLeader jobLeader = registrations.next().jobLeader;
+                if (jobLeader.getJob().getUniqueName().equals(jobName)) {
+                    registrations.remove();
+                    jobLeader.initializeLeader();
+                    activeLeaders.add(jobLeader);
+                    break;
+                }
+            }
+        }
+        return JobTriggers.trigger(client, jobName);
+    }
+
+    /**
+     * A registered leader waiting for activation.
+     */
+    private static class Registration implements Comparable<Registration> {
+
+        /** when the leader joins its election, in milliseconds since the epoch. */
+        final long activationTime;
+
+        final JobLeader jobLeader;
+
+        Registration(JobLeader jobLeader, long activationTime) {
+            super();
+            this.jobLeader = jobLeader;
+            this.activationTime = activationTime;
+        }
+
+        @Override
+        public int compareTo(Registration other) {
+            return Long.compare(activationTime, other.activationTime);
+        }
+    }
+}
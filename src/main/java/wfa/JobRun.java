@@ -0,0 +1,108 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+/**
+ * A past execution of a job as recorded in a {@link JobHistoryLog}. Times are milliseconds since the epoch, with
+ * {@link JobStatus#NO_TIME} marking a time that is not known.
+ */
+public class JobRun {
+
+    /** the time the execution actually completed. */
+    private final long actualCompletionTime;
+
+    /** the time the execution actually started. */
+    private final long actualExecutionTime;
+
+    /** the way the execution ended, or <code>null</code> if unknown. */
+    private final JobOutcome outcome;
+
+    /** the time the execution was scheduled to start. */
+    private final long scheduledExecutionTime;
+
+    /**
+     * Construct a run with the given times and outcome.
+     *
+     * @param scheduledExecutionTime
+     *            the time the execution was scheduled to start.
+     * @param actualExecutionTime
+     *            the time the execution actually started.
+     * @param actualCompletionTime
+     *            the time the execution actually completed.
+     * @param outcome
+     *            the way the execution ended, or <code>null</code> if unknown.
+     */
+    public JobRun(long scheduledExecutionTime, long actualExecutionTime, long actualCompletionTime,
+        JobOutcome outcome) {
+        super();
+        this.scheduledExecutionTime = scheduledExecutionTime;
+        this.actualExecutionTime = actualExecutionTime;
+        this.actualCompletionTime = actualCompletionTime;
+        this.outcome = outcome;
+    }
+
+    public long getActualCompletionTimeMillis() {
+        return actualCompletionTime;
+    }
+
+    public long getActualExecutionTimeMillis() {
+        return actualExecutionTime;
+    }
+
+    /**
+     * Access the time between the actual start and completion of the execution, or {@link JobStatus#NO_DURATION} if
+     * either is unknown.
+     */
+    public long getDurationMillis() {
+        if (actualExecutionTime == JobStatus.NO_TIME || actualCompletionTime == JobStatus.NO_TIME) {
+            return JobStatus.NO_DURATION;
+        }
+        return actualCompletionTime - actualExecutionTime;
+    }
+
+    /**
+     * Access the time between the scheduled and actual start of the execution, or {@link JobStatus#NO_DURATION} if the
+     * execution never started.
+     */
+    public long getLagMillis() {
+        if (actualExecutionTime == JobStatus.NO_TIME) {
+            return JobStatus.NO_DURATION;
+        }
+        return actualExecutionTime - scheduledExecutionTime;
+    }
+
+    public JobOutcome getOutcome() {
+        return outcome;
+    }
+
+    public long getScheduledExecutionTimeMillis() {
+        return scheduledExecutionTime;
+    }
+}
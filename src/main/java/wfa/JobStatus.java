@@ -34,40 +34,171 @@ import java.util.Date;
 /**
  * Job state that is maintained between job executions. Every time a job executes, the latest state is retrieved before
  * execution. Then, it is updated after execution. Finally it is stored for use on the next execution.
+ * <p>
+ * Times are stored as milliseconds since the epoch, with {@link #NO_TIME} marking a time that is not known. The
+ * {@link Date} accessors are adapters over the millisecond values and return <code>null</code> for unknown times.
  */
 public class JobStatus {
 
+    /** the value of a duration that is not known. */
+    public static final long NO_DURATION = -1L;
+
+    /** the value of a time that is not known. */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    static Date toDate(long millis) {
+        return millis == NO_TIME ? null : new Date(millis);
+    }
+
+    static long toMillis(Date date) {
+        return date == null ? NO_TIME : date.getTime();
+    }
+
+    /** the fencing token of the leadership term that wrote the status, or zero if not known. */
+    private long fencingToken;
+
     /** the actual time the job completed its last execution. */
-    private Date lastActualCompletionTime;
+    private long lastActualCompletionTime = NO_TIME;
 
     /** the actual time the job started its last execution. */
-    private Date lastActualExecutionTime;
+    private long lastActualExecutionTime = NO_TIME;
+
+    /** the number of missed execution times coalesced into or skipped before the last execution. */
+    private long lastCoalescedCount;
+
+    /** how long the last execution ran measured in milliseconds. */
+    private long lastDuration = NO_DURATION;
+
+    /** the way the last execution ended, or <code>null</code> if not known. */
+    private JobOutcome lastOutcome;
 
     /** the time the job was scheduled to start its last execution. */
-    private Date lastScheduledExecutionTime;
+    private long lastScheduledExecutionTime = NO_TIME;
+
+    /** the number of times the job has executed. */
+    private long runCount;
+
+    /** the version of the stored status this status was read from, used to make conditional writes. */
+    private int version;
+
+    /**
+     * Reset every field to its unknown value.
+     */
+    public void clear() {
+        fencingToken = 0L;
+        lastActualCompletionTime = NO_TIME;
+        lastActualExecutionTime = NO_TIME;
+        lastCoalescedCount = 0L;
+        lastDuration = NO_DURATION;
+        lastOutcome = null;
+        lastScheduledExecutionTime = NO_TIME;
+        runCount = 0L;
+    }
+
+    /**
+     * Access the fencing token of the leadership term that wrote the status. Tokens grow with every term, so a leader
+     * holding a smaller token than the stored one lost leadership and must not overwrite the status.
+     */
+    public long getFencingToken() {
+        return fencingToken;
+    }
 
     public Date getLastActualCompletionTime() {
+        return toDate(lastActualCompletionTime);
+    }
+
+    public long getLastActualCompletionTimeMillis() {
         return lastActualCompletionTime;
     }
 
     public Date getLastActualExecutionTime() {
+        return toDate(lastActualExecutionTime);
+    }
+
+    public long getLastActualExecutionTimeMillis() {
         return lastActualExecutionTime;
     }
 
+    /**
+     * Access the number of missed execution times coalesced into or skipped before the last execution.
+     */
+    public long getLastCoalescedCount() {
+        return lastCoalescedCount;
+    }
+
+    /**
+     * Access how long the last execution ran measured in milliseconds, or {@link #NO_DURATION} if not known.
+     */
+    public long getLastDurationMillis() {
+        return lastDuration;
+    }
+
+    public JobOutcome getLastOutcome() {
+        return lastOutcome;
+    }
+
     public Date getLastScheduledExecutionTime() {
+        return toDate(lastScheduledExecutionTime);
+    }
+
+    public long getLastScheduledExecutionTimeMillis() {
         return lastScheduledExecutionTime;
     }
 
+    public long getRunCount() {
+        return runCount;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setFencingToken(long fencingToken) {
+        this.fencingToken = fencingToken;
+    }
+
     public void setLastActualCompletionTime(Date lastCompletionTime) {
+        this.lastActualCompletionTime = toMillis(lastCompletionTime);
+    }
+
+    public void setLastActualCompletionTimeMillis(long lastCompletionTime) {
         this.lastActualCompletionTime = lastCompletionTime;
     }
 
     public void setLastActualExecutionTime(Date lastExecutionTime) {
+        this.lastActualExecutionTime = toMillis(lastExecutionTime);
+    }
+
+    public void setLastActualExecutionTimeMillis(long lastExecutionTime) {
         this.lastActualExecutionTime = lastExecutionTime;
     }
 
+    public void setLastCoalescedCount(long lastCoalescedCount) {
+        this.lastCoalescedCount = lastCoalescedCount;
+    }
+
+    public void setLastDurationMillis(long lastDuration) {
+        this.lastDuration = lastDuration;
+    }
+
+    public void setLastOutcome(JobOutcome lastOutcome) {
+        this.lastOutcome = lastOutcome;
+    }
+
     public void setLastScheduledExecutionTime(Date lastScheduledExecutionTime) {
+        this.lastScheduledExecutionTime = toMillis(lastScheduledExecutionTime);
+    }
+
+    public void setLastScheduledExecutionTimeMillis(long lastScheduledExecutionTime) {
         this.lastScheduledExecutionTime = lastScheduledExecutionTime;
     }
 
+    public void setRunCount(long runCount) {
+        this.runCount = runCount;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
 }
@@ -0,0 +1,254 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A local, write-through cache of job status data. Every cached entry is guarded by a ZooKeeper data watch, so an entry
+ * is discarded as soon as any other client changes the status node. ZooKeeper delivers a client's watch events in
+ * order with its background results, but a synchronous result, such as the one electing a leader, can overtake the
+ * invalidation for the previous leader's status write. A new leader therefore serves a cached read only once a
+ * background call it made after its election has completed, which {@link JobLeader} does by first awaiting the fencing
+ * token of its term.
+ * <p>
+ * Writes made by this node are recorded with {@link #update(String, byte[], int)}. The entry is only trusted once a
+ * background <code>exists</code> call has re-armed the watch and confirmed the written version is still current.
+ */
+public class JobStatusCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobStatusCache.class);
+
+    private CuratorFramework client;
+
+    /** the cached entries keyed by status path. */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /** the number of reads served locally. */
+    private final AtomicLong hitCount = new AtomicLong();
+
+    /** the number of reads served by ZooKeeper. */
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * Discard every cached entry.
+     */
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Access the number of reads served locally.
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Read the data of the given status node, locally if a current entry is cached and from ZooKeeper otherwise.
+     *
+     * @param path
+     *            the path of the status node.
+     * @param stat
+     *            receives the version of the returned data.
+     * @return the status data.
+     * @throws org.apache.zookeeper.KeeperException.NoNodeException
+     *             if the status node does not exist.
+     */
+    public byte[] getData(String path, Stat stat) throws Exception {
+        final Entry cached = entries.get(path);
+        if (cached != null && cached.valid) {
+            hitCount.incrementAndGet();
+            stat.setVersion(cached.version);
+            return cached.data;
+        }
+
+        missCount.incrementAndGet();
+        final Entry entry = new Entry(path);
+        entries.put(path, entry);
+        try {
+            entry.data = client.getData().storingStatIn(stat).usingWatcher(entry).forPath(path);
+        } catch (final Exception ex) {
+            entries.remove(path, entry);
+            throw ex;
+        }
+        entry.version = stat.getVersion();
+        entry.valid = true;
+        return entry.data;
+    }
+
+    /**
+     * Read the data of the given status node without blocking, locally if a current entry is cached and with a
+     * ZooKeeper background read otherwise.
+     *
+     * @param path
+     *            the path of the status node.
+     * @param stat
+     *            receives the version of the returned data before the future completes.
+     * @return the future providing the status data, failed with a {@link KeeperException} if it cannot be read.
+     */
+    public CompletableFuture<byte[]> getDataInBackground(String path, final Stat stat) {
+        final Entry cached = entries.get(path);
+        if (cached != null && cached.valid) {
+            hitCount.incrementAndGet();
+            stat.setVersion(cached.version);
+            return CompletableFuture.completedFuture(cached.data);
+        }
+
+        missCount.incrementAndGet();
+        final CompletableFuture<byte[]> read = new CompletableFuture<byte[]>();
+        final Entry entry = new Entry(path);
+        entries.put(path, entry);
+        try {
+            client.getData().usingWatcher(entry).inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(CuratorFramework client, CuratorEvent event) {
+                    if (event.getResultCode() != KeeperException.Code.OK.intValue()) {
+                        entries.remove(entry.path, entry);
+                        read.completeExceptionally(KeeperException.create(
+                            KeeperException.Code.get(event.getResultCode()), event.getPath()));
+                        return;
+                    }
+                    entry.data = event.getData();
+                    entry.version = event.getStat().getVersion();
+                    entry.valid = true;
+                    stat.setVersion(entry.version);
+                    read.complete(entry.data);
+                }
+            }).forPath(path);
+        } catch (final Exception ex) {
+            entries.remove(path, entry);
+            read.completeExceptionally(ex);
+        }
+        return read;
+    }
+
+    /**
+     * Access the number of reads served by ZooKeeper.
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Determine whether a current entry is cached for the given status node, so a read would be served locally.
+     */
+    boolean isCached(String path) {
+        final Entry cached = entries.get(path);
+        return cached != null && cached.valid;
+    }
+
+    public void setClient(CuratorFramework client) {
+        this.client = client;
+    }
+
+    /**
+     * Record data this node successfully wrote to the given status node.
+     *
+     * @param path
+     *            the path of the status node.
+     * @param data
+     *            the data written.
+     * @param version
+     *            the version of the node after the write.
+     */
+    public void update(String path, byte[] data, final int version) {
+        final Entry entry = new Entry(path);
+        entry.data = data;
+        entry.version = version;
+        entries.put(path, entry);
+
+        try {
+            client.checkExists().usingWatcher(entry).inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(CuratorFramework client, CuratorEvent event) {
+                    final Stat stat = event.getStat();
+                    if (stat != null && stat.getVersion() == version) {
+                        entry.valid = true;
+                    } else {
+                        entries.remove(entry.path, entry);
+                    }
+                }
+            }).forPath(path);
+        } catch (final Exception ex) {
+            LOG.debug("could not watch status " + path + ".", ex);
+            entries.remove(path, entry);
+        }
+    }
+
+    /**
+     * A cached status node and the watch guarding it. Each entry is its own watcher so a late event only discards the
+     * entry that registered it.
+     */
+    private class Entry implements Watcher {
+
+        /** the status data. */
+        volatile byte[] data;
+
+        /** the path of the status node. */
+        final String path;
+
+        /** whether the entry's watch is armed and the data is current. */
+        volatile boolean valid;
+
+        /** the version of the status data. */
+        volatile int version;
+
+        Entry(String path) {
+            super();
+            this.path = path;
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            if (event.getType() == Event.EventType.None) {
+                // watches may be lost while disconnected
+                if (event.getState() != Event.KeeperState.SyncConnected) {
+                    entries.remove(path, this);
+                }
+            } else {
+                entries.remove(path, this);
+            }
+        }
+    }
+}
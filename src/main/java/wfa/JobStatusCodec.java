@@ -0,0 +1,325 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary encoding of {@link JobStatus}. Encoding and decoding work directly on {@link ByteBuffer}s and the status's
+ * long fields, without intermediate streams or {@link java.util.Date} objects, so a caller reusing a buffer and a
+ * status allocates nothing.
+ * <p>
+ * The current format (version 1) is:
+ * <ol>
+ * <li>a version byte,</li>
+ * <li>a presence byte with one bit per optional field,</li>
+ * <li>the present fields, in bit order:
+ * <ul>
+ * <li>bit 0: last scheduled execution time, a zig-zag varint of epoch milliseconds,</li>
+ * <li>bit 1: last actual execution time, a zig-zag varint delta from the previous time field (or from zero),</li>
+ * <li>bit 2: last actual completion time, a zig-zag varint delta from the previous time field (or from zero),</li>
+ * <li>bit 3: run count, a varint,</li>
+ * <li>bit 4: last outcome, a byte holding the {@link JobOutcome} ordinal,</li>
+ * <li>bit 5: last duration, a varint of milliseconds,</li>
+ * <li>bit 6: last coalesced count, a varint,</li>
+ * <li>bit 7: fencing token, a varint.</li>
+ * </ul>
+ * </li>
+ * </ol>
+ * New fields must be written after all existing fields so older decoders, which stop after the fields they know, keep
+ * working. Every bit of the presence byte is now in use, so the next field needs a new format version.
+ * <p>
+ * The original format of three big endian longs (completion, execution and scheduled times, with zero for unknown
+ * times) is still decoded. It is recognized by its length of {@value #LEGACY_LENGTH} bytes and a leading zero byte,
+ * which no versioned encoding starts with.
+ */
+public final class JobStatusCodec {
+
+    /** the length of the original, unversioned format. */
+    public static final int LEGACY_LENGTH = 24;
+
+    /** the largest number of bytes an encoded status occupies. */
+    public static final int MAX_ENCODED_LENGTH = 2 + 10 * 7 + 1;
+
+    /** the version of the format written by this codec. */
+    public static final byte VERSION = 1;
+
+    private static final int COALESCED_COUNT = 1 << 6;
+
+    private static final int COMPLETION_TIME = 1 << 2;
+
+    private static final int DURATION = 1 << 5;
+
+    private static final int EXECUTION_TIME = 1 << 1;
+
+    private static final int FENCING_TOKEN = 1 << 7;
+
+    private static final int OUTCOME = 1 << 4;
+
+    private static final int RUN_COUNT = 1 << 3;
+
+    private static final int SCHEDULED_TIME = 1;
+
+    /** the buffer each thread encodes into before copying the encoded bytes into an array sized to fit. */
+    private static final ThreadLocal<ByteBuffer> ENCODE_BUFFER = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(MAX_ENCODED_LENGTH);
+        }
+    };
+
+    private static final JobOutcome[] OUTCOMES = JobOutcome.values();
+
+    /**
+     * Decode the given data into the given status. Every field of the status is overwritten; fields missing from the
+     * data are set to their unknown values. Empty data decodes to an entirely unknown status.
+     *
+     * @param data
+     *            the encoded status.
+     * @param status
+     *            the status receiving the decoded fields.
+     * @throws IllegalArgumentException
+     *             if the data is not a supported encoding.
+     */
+    public static void decode(byte[] data, JobStatus status) {
+        decode(ByteBuffer.wrap(data), status);
+    }
+
+    /**
+     * Decode the remaining bytes of the given buffer into the given status. Every field of the status is overwritten;
+     * fields missing from the data are set to their unknown values. An empty buffer decodes to an entirely unknown
+     * status.
+     *
+     * @param buffer
+     *            the encoded status.
+     * @param status
+     *            the status receiving the decoded fields.
+     * @throws IllegalArgumentException
+     *             if the data is not a supported encoding.
+     */
+    public static void decode(ByteBuffer buffer, JobStatus status) {
+        status.clear();
+        if (!buffer.hasRemaining()) {
+            return;
+        }
+
+        final int version = buffer.get(buffer.position());
+        if (version == 0 && buffer.remaining() == LEGACY_LENGTH) {
+            decodeLegacy(buffer, status);
+            return;
+        }
+        if (version < 1 || version > VERSION) {
+            throw new IllegalArgumentException("unsupported job status format version " + version + ".");
+        }
+
+        buffer.get();
+        try {
+            decodeFields(buffer, status);
+        } catch (final BufferUnderflowException ex) {
+            throw new IllegalArgumentException("truncated job status.", ex);
+        }
+    }
+
+    /**
+     * Decode the presence byte and the present fields of the current format.
+     */
+    private static void decodeFields(ByteBuffer buffer, JobStatus status) {
+        final int present = buffer.get() & 0xFF;
+        long previousTime = 0L;
+        if ((present & SCHEDULED_TIME) != 0) {
+            previousTime = readZigZag(buffer);
+            status.setLastScheduledExecutionTimeMillis(previousTime);
+        }
+        if ((present & EXECUTION_TIME) != 0) {
+            previousTime += readZigZag(buffer);
+            status.setLastActualExecutionTimeMillis(previousTime);
+        }
+        if ((present & COMPLETION_TIME) != 0) {
+            previousTime += readZigZag(buffer);
+            status.setLastActualCompletionTimeMillis(previousTime);
+        }
+        if ((present & RUN_COUNT) != 0) {
+            status.setRunCount(readVarLong(buffer));
+        }
+        if ((present & OUTCOME) != 0) {
+            final int outcome = buffer.get() & 0xFF;
+            status.setLastOutcome(outcome < OUTCOMES.length ? OUTCOMES[outcome] : null);
+        }
+        if ((present & DURATION) != 0) {
+            status.setLastDurationMillis(readVarLong(buffer));
+        }
+        if ((present & COALESCED_COUNT) != 0) {
+            status.setLastCoalescedCount(readVarLong(buffer));
+        }
+        if ((present & FENCING_TOKEN) != 0) {
+            status.setFencingToken(readVarLong(buffer));
+        }
+    }
+
+    private static void decodeLegacy(ByteBuffer buffer, JobStatus status) {
+        status.setLastActualCompletionTimeMillis(fromLegacyTime(buffer.getLong()));
+        status.setLastActualExecutionTimeMillis(fromLegacyTime(buffer.getLong()));
+        status.setLastScheduledExecutionTimeMillis(fromLegacyTime(buffer.getLong()));
+    }
+
+    /**
+     * Encode the given status into a new array sized to fit. The status is encoded into a buffer kept by the calling
+     * thread, so the array is the only allocation.
+     *
+     * @param status
+     *            the status to encode.
+     * @return the encoded status.
+     */
+    public static byte[] encode(JobStatus status) {
+        final ByteBuffer buffer = ENCODE_BUFFER.get();
+        buffer.clear();
+        encode(status, buffer);
+        final byte[] data = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, data, 0, data.length);
+        return data;
+    }
+
+    /**
+     * Encode the given status into the given buffer starting at its current position. The buffer must have at least
+     * {@link #MAX_ENCODED_LENGTH} bytes remaining.
+     *
+     * @param status
+     *            the status to encode.
+     * @param buffer
+     *            the buffer receiving the encoded status.
+     */
+    public static void encode(JobStatus status, ByteBuffer buffer) {
+        final long scheduledTime = status.getLastScheduledExecutionTimeMillis();
+        final long executionTime = status.getLastActualExecutionTimeMillis();
+        final long completionTime = status.getLastActualCompletionTimeMillis();
+        final long runCount = status.getRunCount();
+        final JobOutcome outcome = status.getLastOutcome();
+        final long duration = status.getLastDurationMillis();
+        final long coalescedCount = status.getLastCoalescedCount();
+        final long fencingToken = status.getFencingToken();
+
+        int present = 0;
+        if (scheduledTime != JobStatus.NO_TIME) {
+            present |= SCHEDULED_TIME;
+        }
+        if (executionTime != JobStatus.NO_TIME) {
+            present |= EXECUTION_TIME;
+        }
+        if (completionTime != JobStatus.NO_TIME) {
+            present |= COMPLETION_TIME;
+        }
+        if (runCount > 0L) {
+            present |= RUN_COUNT;
+        }
+        if (outcome != null) {
+            present |= OUTCOME;
+        }
+        if (duration >= 0L) {
+            present |= DURATION;
+        }
+        if (coalescedCount > 0L) {
+            present |= COALESCED_COUNT;
+        }
+        if (fencingToken > 0L) {
+            present |= FENCING_TOKEN;
+        }
+
+        buffer.put(VERSION);
+        buffer.put((byte) present);
+        long previousTime = 0L;
+        if ((present & SCHEDULED_TIME) != 0) {
+            writeZigZag(buffer, scheduledTime - previousTime);
+            previousTime = scheduledTime;
+        }
+        if ((present & EXECUTION_TIME) != 0) {
+            writeZigZag(buffer, executionTime - previousTime);
+            previousTime = executionTime;
+        }
+        if ((present & COMPLETION_TIME) != 0) {
+            writeZigZag(buffer, completionTime - previousTime);
+        }
+        if ((present & RUN_COUNT) != 0) {
+            writeVarLong(buffer, runCount);
+        }
+        if ((present & OUTCOME) != 0) {
+            buffer.put((byte) outcome.ordinal());
+        }
+        if ((present & DURATION) != 0) {
+            writeVarLong(buffer, duration);
+        }
+        if ((present & COALESCED_COUNT) != 0) {
+            writeVarLong(buffer, coalescedCount);
+        }
+        if ((present & FENCING_TOKEN) != 0) {
+            writeVarLong(buffer, fencingToken);
+        }
+    }
+
+    private static long fromLegacyTime(long millis) {
+        return millis == 0L ? JobStatus.NO_TIME : millis;
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0L;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 63) {
+                throw new IllegalArgumentException("malformed job status varint.");
+            }
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static long readZigZag(ByteBuffer buffer) {
+        final long value = readVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1L);
+    }
+
+    private static void writeVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0L) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static void writeZigZag(ByteBuffer buffer, long value) {
+        writeVarLong(buffer, (value << 1) ^ (value >> 63));
+    }
+
+    private JobStatusCodec() {
+        super();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+/**
+ * Persists the {@link JobStatus} of each job between executions. The default, {@link ZooKeeperJobStatusStore}, keeps
+ * statuses in ZooKeeper so any node can lead a job; {@link LocalJobStatusStore} keeps them in a local file for jobs
+ * that are only ever led by one node.
+ * <p>
+ * Writes are conditioned on the {@link JobStatus#getVersion() version} the status was read from. A store resolves a
+ * conflicting write with the {@link JobStatus#getFencingToken() fencing tokens} of the two statuses: a status written
+ * by the same or an earlier leadership term is overwritten, while one written by a later term is kept and the write
+ * dropped. A status that records a later scheduled execution than the write, because the writing term scheduled its
+ * run from an outdated status, keeps its schedule and only takes the writer's fencing token.
+ */
+public interface JobStatusStore {
+
+    /**
+     * Read the status of the given job, creating an empty status on the first execution.
+     *
+     * @param jobName
+     *            the globally unique job name.
+     * @param status
+     *            the status receiving the stored fields and version.
+     */
+    void readStatus(String jobName, JobStatus status) throws Exception;
+
+    /**
+     * Write the status of the given job conditioned on its version, updating the version on success.
+     *
+     * @param jobName
+     *            the globally unique job name.
+     * @param status
+     *            the status to write.
+     * @return whether the status was written, <code>false</code> if a later leadership term already wrote it.
+     */
+    boolean writeStatus(String jobName, JobStatus status) throws Exception;
+
+}
@@ -0,0 +1,286 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
+import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes job status data to ZooKeeper on a background thread. Every write is a versioned <code>setData</code>, and
+ * writes requested while a previous transaction is in flight are coalesced into a single ZooKeeper <code>multi()</code>
+ * transaction, so the ZooKeeper request rate grows slower than job throughput when many jobs complete together.
+ * <p>
+ * Writes can also be group committed: with a {@link #setMaxDelayMillis(long) maximum delay}, a batch is sent once it
+ * is {@link #setMaxBatchSize(int) full} or its oldest write has waited that long. The delay caps the latency added to
+ * each write and trades it for fewer, larger transactions when completions trickle in faster than they can be
+ * written one at a time but slower than a transaction round trip. Writes are queued on a lock-free queue and the
+ * background thread is only woken when a write starts or fills a batch.
+ * <p>
+ * Since a <code>multi()</code> transaction fails as a whole, a failed batch is retried one write at a time so that a
+ * single conflicting write does not fail the writes batched with it.
+ */
+public class JobStatusWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobStatusWriter.class);
+
+    private CuratorFramework client;
+
+    /** the maximum number of writes in a single transaction. */
+    private int maxBatchSize = 128;
+
+    /** the longest the first write of a batch waits for the batch to fill, in nanoseconds. */
+    private long maxDelayNanos;
+
+    /** the writes waiting for the background thread. */
+    private final ConcurrentLinkedQueue<PendingWrite> queue = new ConcurrentLinkedQueue<PendingWrite>();
+
+    /** the number of writes waiting for the background thread. */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /** whether the writer accepts writes. */
+    private volatile boolean running;
+
+    /** the number of queued writes at which the waiting background thread is woken. */
+    private volatile int wakeThreshold = Integer.MAX_VALUE;
+
+    /** the background thread committing writes. */
+    private volatile Thread worker;
+
+    /**
+     * Wait until at least the given number of writes are queued, the given time passes or the writer is destroyed.
+     *
+     * @param count
+     *            the number of writes to wait for.
+     * @param timeoutNanos
+     *            how long to wait, or a negative value to wait without a time limit.
+     */
+    private void awaitQueued(int count, long timeoutNanos) {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        wakeThreshold = count;
+        while (running && queued.get() < count) {
+            if (timeoutNanos < 0L) {
+                LockSupport.park(this);
+            } else {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0L) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+        }
+        wakeThreshold = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Commit the given writes in one transaction.
+     */
+    private void commit(List<PendingWrite> batch) {
+        try {
+            CuratorTransaction transaction = client.inTransaction();
+            CuratorTransactionFinal last = null;
+            for (final PendingWrite write : batch) {
+                last = transaction.setData().withVersion(write.version).forPath(write.path, write.data).and();
+                transaction = last;
+            }
+
+            final Collection<CuratorTransactionResult> results = last.commit();
+            final Iterator<CuratorTransactionResult> result = results.iterator();
+            for (final PendingWrite write : batch) {
+                write.completion.complete(result.next().getResultStat());
+            }
+        } catch (final Exception ex) {
+            if (batch.size() == 1) {
+                batch.get(0).completion.completeExceptionally(ex);
+            } else {
+                LOG.debug("batched status write failed, retrying writes individually.", ex);
+                for (final PendingWrite write : batch) {
+                    commit(write.asList());
+                }
+            }
+        }
+    }
+
+    public void destroyWriter() {
+        running = false;
+        final Thread thread = worker;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            worker = null;
+        }
+
+        // fail anything that will never be written
+        PendingWrite write;
+        while ((write = queue.poll()) != null) {
+            queued.decrementAndGet();
+            write.completion.completeExceptionally(new RejectedExecutionException("status writer destroyed."));
+        }
+    }
+
+    public void initializeWriter() {
+        running = true;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBatches();
+            }
+        }, "wfa-status-writer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public void setClient(CuratorFramework client) {
+        this.client = client;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maximum batch size must be positive.");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Modify the longest a write waits for its batch to fill before the batch is committed, the most latency group
+     * commit adds to a write. The default of zero commits whatever is queued as soon as the previous transaction
+     * finishes, which already batches the writes of jobs completing together; a delay further reduces the number of
+     * transactions at the cost of latency.
+     */
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        if (maxDelayMillis < 0L) {
+            throw new IllegalArgumentException("maximum delay must not be negative.");
+        }
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+    }
+
+    /**
+     * Queue a versioned write of the given data.
+     *
+     * @param path
+     *            the path of the status node.
+     * @param data
+     *            the status data.
+     * @param version
+     *            the expected version of the status node.
+     * @return the future completed with the node's new stat once the write is committed, or completed exceptionally
+     *         with the ZooKeeper failure, for example a
+     *         {@link org.apache.zookeeper.KeeperException.BadVersionException}.
+     */
+    public CompletableFuture<Stat> write(String path, byte[] data, int version) {
+        final PendingWrite write = new PendingWrite(path, data, version);
+        if (!running) {
+            write.completion.completeExceptionally(new RejectedExecutionException("status writer not running."));
+        } else {
+            queue.add(write);
+            final int count = queued.incrementAndGet();
+            if (!running) {
+                // destroyed since the check above, possibly after draining the queue, so nothing may take this write
+                if (queue.remove(write)) {
+                    queued.decrementAndGet();
+                    write.completion.completeExceptionally(new RejectedExecutionException("status writer destroyed."));
+                }
+            } else if (count >= wakeThreshold) {
+                LockSupport.unpark(worker);
+            }
+        }
+        return write.completion;
+    }
+
+    private void writeBatches() {
+        final List<PendingWrite> batch = new ArrayList<PendingWrite>();
+        while (running) {
+            awaitQueued(1, -1L);
+            final PendingWrite oldest = queue.peek();
+            if (maxDelayNanos > 0L && oldest != null) {
+                // group commit: give the batch until the oldest write's delay runs out to fill
+                final long remaining = oldest.queuedNanos + maxDelayNanos - System.nanoTime();
+                if (remaining > 0L) {
+                    awaitQueued(maxBatchSize, remaining);
+                }
+            }
+
+            // everything queued while the previous batch was in flight joins this one
+            PendingWrite write;
+            while (batch.size() < maxBatchSize && (write = queue.poll()) != null) {
+                queued.decrementAndGet();
+                batch.add(write);
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * A write waiting to be committed.
+     */
+    private static class PendingWrite {
+
+        final CompletableFuture<Stat> completion = new CompletableFuture<Stat>();
+
+        final byte[] data;
+
+        final String path;
+
+        /** when the write was queued, from {@link System#nanoTime()}. */
+        final long queuedNanos = System.nanoTime();
+
+        final int version;
+
+        PendingWrite(String path, byte[] data, int version) {
+            super();
+            this.path = path;
+            this.data = data;
+            this.version = version;
+        }
+
+        List<PendingWrite> asList() {
+            final List<PendingWrite> list = new ArrayList<PendingWrite>(1);
+            list.add(this);
+            return list;
+        }
+    }
+}
@@ -0,0 +1,573 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
+import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fans the runs of {@link SplittableJob}s out across the cluster. The elected leader publishes a run's tasks as
+ * sequential nodes under <code>/job/&lt;name&gt;/tasks</code>, one <code>multi()</code> transaction per batch. Every
+ * member running a distributor with the job registered watches that node, claims unclaimed tasks by creating an
+ * ephemeral <code>claim</code> child and executes them in a local {@link ForkJoinPool}. A finished task is acknowledged
+ * by atomically creating a node under <code>/job/&lt;name&gt;/acks</code> and deleting the task, and the leader returns
+ * once all of its run's tasks are gone.
+ * <p>
+ * Members claim no more tasks than their pool's parallelism, so idle members pick up the remaining tasks and a run's
+ * wall clock time shrinks as members are added. If a member dies, its ephemeral claims vanish and the watches other
+ * members hold on them let the tasks be claimed again. A member whose distributor is destroyed releases its claims the
+ * same way, even though its session lives on.
+ * <p>
+ * Before publishing a run's tasks the leader sweeps the tasks and acknowledgements left by earlier runs, whose leader
+ * died or was interrupted before collecting them. Tasks still claimed are left to finish and their acknowledgements
+ * are swept by a later run.
+ */
+public class JobTaskDistributor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobTaskDistributor.class);
+
+    /** the interval at which a waiting leader checks whether its run was cancelled. */
+    private static final long CANCELLATION_CHECK_MILLIS = 100L;
+
+    /** the name of the ephemeral node claiming a task. */
+    private static final String CLAIM = "claim";
+
+    /** the suffix of the acknowledgement of a completed task. */
+    private static final String COMPLETED_SUFFIX = ".completed";
+
+    /** the suffix of the acknowledgement of a failed task. */
+    private static final String FAILED_SUFFIX = ".failed";
+
+    /** the interval at which a waiting leader rechecks its tasks in case a watch was lost. */
+    private static final long RECHECK_INTERVAL_MILLIS = 60000L;
+
+    private static String acksPath(String jobName) {
+        return "/job/" + jobName + "/acks";
+    }
+
+    private static String tasksPath(String jobName) {
+        return "/job/" + jobName + "/tasks";
+    }
+
+    /** the number of tasks claimed by this member and not yet acknowledged. */
+    private final AtomicInteger claimedCount = new AtomicInteger();
+
+    private CuratorFramework client;
+
+    /** rescans every job's tasks after a reconnection, since watches do not survive a session expiration. */
+    private final ConnectionStateListener connectionListener = new ConnectionStateListener() {
+        @Override
+        public void stateChanged(CuratorFramework client, ConnectionState newState) {
+            if (newState == ConnectionState.RECONNECTED) {
+                scanAll();
+            }
+        }
+    };
+
+    /** the maximum number of tasks published in a single transaction. */
+    private int maxBatchSize = 128;
+
+    /** whether the pool was created by, and so is shut down with, this distributor. */
+    private boolean ownsPool;
+
+    /** the maximum number of tasks this member executes at once. */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /** the pool executing claimed tasks. */
+    private ForkJoinPool pool;
+
+    /** whether the distributor claims tasks. */
+    private volatile boolean running;
+
+    /** the workers claiming tasks, keyed by job name. */
+    private final ConcurrentMap<String, Worker> workers = new ConcurrentHashMap<String, Worker>();
+
+    /**
+     * Register a job whose tasks this member should claim and execute. If the job is an
+     * {@link AbstractSplittableJob} its runs are also distributed through this distributor.
+     *
+     * @param job
+     *            the job to work for.
+     */
+    public void addJob(SplittableJob job) {
+        if (job instanceof AbstractSplittableJob) {
+            ((AbstractSplittableJob) job).setDistributor(this);
+        }
+
+        final Worker worker = new Worker(job);
+        if (workers.putIfAbsent(job.getUniqueName(), worker) == null && running) {
+            worker.requestScan();
+        }
+    }
+
+    /**
+     * Wait until every given task has been acknowledged and removed.
+     *
+     * @throws CancellationException
+     *             if cancellation of the run was requested first.
+     */
+    private void awaitTasks(String tasksPath, Set<String> pending, JobContext ctx) throws Exception {
+        while (true) {
+            ctx.throwIfCancellationRequested();
+            final CountDownLatch changed = new CountDownLatch(1);
+            final List<String> children = client.getChildren().usingWatcher(new Watcher() {
+                @Override
+                public void process(WatchedEvent event) {
+                    changed.countDown();
+                }
+            }).forPath(tasksPath);
+
+            pending.retainAll(children);
+            if (pending.isEmpty()) {
+                return;
+            }
+            final long recheck = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RECHECK_INTERVAL_MILLIS);
+            while (!changed.await(CANCELLATION_CHECK_MILLIS, TimeUnit.MILLISECONDS)
+                && System.nanoTime() - recheck < 0L) {
+                ctx.throwIfCancellationRequested();
+            }
+        }
+    }
+
+    /**
+     * Count the failed acknowledgements of the given tasks and delete all of their acknowledgements.
+     */
+    private int collectAcks(String acksPath, Set<String> tasks) throws Exception {
+        int failed = 0;
+        final List<String> acks = new ArrayList<String>();
+        for (final String ack : client.getChildren().forPath(acksPath)) {
+            final int suffix = ack.lastIndexOf('.');
+            if (suffix > 0 && tasks.contains(ack.substring(0, suffix))) {
+                acks.add(ack);
+                if (ack.endsWith(FAILED_SUFFIX)) {
+                    ++failed;
+                }
+            }
+        }
+
+        deleteAll(acksPath, acks);
+        return failed;
+    }
+
+    /**
+     * Delete the given children of the given node, in transactions of at most {@link #maxBatchSize} deletes. When a
+     * transaction fails because a child is gone or has children of its own, its children are deleted one by one and
+     * the ones that cannot be deleted are skipped.
+     */
+    private void deleteAll(String parentPath, List<String> children) throws Exception {
+        for (int i = 0; i < children.size(); i += maxBatchSize) {
+            final List<String> batch = children.subList(i, Math.min(i + maxBatchSize, children.size()));
+            CuratorTransaction transaction = client.inTransaction();
+            CuratorTransactionFinal last = null;
+            for (final String child : batch) {
+                last = transaction.delete().forPath(parentPath + "/" + child).and();
+                transaction = last;
+            }
+            try {
+                last.commit();
+            } catch (final KeeperException.NoNodeException ex) {
+                deleteEach(parentPath, batch);
+            } catch (final KeeperException.NotEmptyException ex) {
+                deleteEach(parentPath, batch);
+            }
+        }
+    }
+
+    /**
+     * Delete the given children of the given node one by one, skipping the ones that are gone or have children.
+     */
+    private void deleteEach(String parentPath, List<String> children) throws Exception {
+        for (final String child : children) {
+            try {
+                client.delete().forPath(parentPath + "/" + child);
+            } catch (final KeeperException.NoNodeException ex) {
+                // already deleted
+            } catch (final KeeperException.NotEmptyException ex) {
+                // a claimed task, left to finish
+            }
+        }
+    }
+
+    /**
+     * Stop claiming tasks and release the claims of the tasks this member has not acknowledged, so other members
+     * execute them instead of the leader waiting for them as long as this member's session lasts.
+     */
+    public void destroyDistributor() {
+        running = false;
+        if (client != null) {
+            client.getConnectionStateListenable().removeListener(connectionListener);
+            for (final Worker worker : workers.values()) {
+                worker.release();
+            }
+        }
+        if (ownsPool) {
+            pool.shutdownNow();
+            pool = null;
+            ownsPool = false;
+        }
+    }
+
+    /**
+     * Split the run described by the given context, publish its tasks and wait until every task is acknowledged.
+     * This method is called on the elected leader by {@link AbstractSplittableJob#execute(JobContext)}.
+     *
+     * @param job
+     *            the job being run.
+     * @param ctx
+     *            the context of the run.
+     * @throws IllegalStateException
+     *             if any task failed, or the tasks could not be published or awaited.
+     * @throws CancellationException
+     *             if cancellation of the run was requested while waiting for its tasks. The unclaimed tasks are
+     *             withdrawn.
+     */
+    public void distribute(SplittableJob job, JobContext ctx) {
+        try {
+            distributeTasks(job, ctx);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while distributing job " + job.getUniqueName() + ".", ex);
+        } catch (final RuntimeException ex) {
+            throw ex;
+        } catch (final Exception ex) {
+            throw new IllegalStateException("failed to distribute job " + job.getUniqueName() + ".", ex);
+        }
+    }
+
+    private void distributeTasks(SplittableJob job, JobContext ctx) throws Exception {
+        final String jobName = job.getUniqueName();
+        final List<byte[]> tasks = job.split(ctx);
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        final String tasksPath = tasksPath(jobName);
+        final String acksPath = acksPath(jobName);
+        client.newNamespaceAwareEnsurePath(tasksPath).ensure(client.getZookeeperClient());
+        client.newNamespaceAwareEnsurePath(acksPath).ensure(client.getZookeeperClient());
+        sweep(tasksPath, acksPath);
+
+        // name tasks after the run so tasks left by an earlier leader are told apart
+        final String taskPrefix = tasksPath + "/" + ctx.getNextScheduledExecutionTimeMillis() + "-";
+        final Set<String> published = new HashSet<String>();
+        for (int i = 0; i < tasks.size(); i += maxBatchSize) {
+            CuratorTransaction transaction = client.inTransaction();
+            CuratorTransactionFinal last = null;
+            for (final byte[] task : tasks.subList(i, Math.min(i + maxBatchSize, tasks.size()))) {
+                last = transaction.create().withMode(CreateMode.PERSISTENT_SEQUENTIAL).forPath(taskPrefix, task)
+                    .and();
+                transaction = last;
+            }
+            for (final CuratorTransactionResult result : last.commit()) {
+                published.add(ZKPaths.getNodeFromPath(result.getResultPath()));
+            }
+        }
+        LOG.info("distributed {} tasks of job {}.", published.size(), jobName);
+
+        try {
+            awaitTasks(tasksPath, new HashSet<String>(published), ctx);
+        } catch (final InterruptedException ex) {
+            withdrawTasks(tasksPath, published);
+            throw ex;
+        } catch (final CancellationException ex) {
+            withdrawTasks(tasksPath, published);
+            throw ex;
+        }
+
+        final int failed = collectAcks(acksPath, published);
+        if (failed > 0) {
+            throw new IllegalStateException(failed + " of " + published.size() + " tasks of job " + jobName
+                + " failed.");
+        }
+    }
+
+    public void initializeDistributor() {
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism);
+            ownsPool = true;
+        }
+        running = true;
+        client.getConnectionStateListenable().addListener(connectionListener);
+        scanAll();
+    }
+
+    private void scanAll() {
+        for (final Worker worker : workers.values()) {
+            worker.requestScan();
+        }
+    }
+
+    public void setClient(CuratorFramework client) {
+        this.client = client;
+    }
+
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maximum batch size must be positive.");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive.");
+        }
+        this.parallelism = parallelism;
+    }
+
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Delete the tasks and acknowledgements left by earlier runs. Only one leader distributes a job's runs at a time,
+     * so everything present before a run publishes its tasks belongs to a run whose leader died or was interrupted
+     * before collecting it.
+     */
+    private void sweep(String tasksPath, String acksPath) throws Exception {
+        final List<String> tasks = client.getChildren().forPath(tasksPath);
+        final List<String> acks = client.getChildren().forPath(acksPath);
+        if (tasks.isEmpty() && acks.isEmpty()) {
+            return;
+        }
+        deleteAll(tasksPath, tasks);
+        deleteAll(acksPath, acks);
+        LOG.info("swept {} tasks and {} acknowledgements left by earlier runs.", tasks.size(), acks.size());
+    }
+
+    /**
+     * Delete the given tasks that have not been claimed. Claimed tasks cannot be deleted and are left to finish.
+     */
+    private void withdrawTasks(String tasksPath, Set<String> tasks) {
+        for (final String task : tasks) {
+            try {
+                client.delete().forPath(tasksPath + "/" + task);
+            } catch (final Exception ex) {
+                LOG.debug("could not withdraw task {}.", task);
+            }
+        }
+    }
+
+    /**
+     * Claims and executes the tasks of a single job. The worker is the watcher of the job's task list and of claims
+     * held by other members, so any change that may free a task triggers a rescan.
+     */
+    private class Worker implements Watcher {
+
+        /** the tasks claimed by this member. */
+        private final Set<String> claimed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        private final SplittableJob job;
+
+        private final Runnable scan = new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        };
+
+        private final String tasksPath;
+
+        Worker(SplittableJob job) {
+            super();
+            this.job = job;
+            this.tasksPath = tasksPath(job.getUniqueName());
+        }
+
+        /**
+         * Claim the given task, returning whether it was claimed.
+         */
+        private boolean claim(String task) throws Exception {
+            final String claimPath = tasksPath + "/" + task + "/" + CLAIM;
+            try {
+                client.create().withMode(CreateMode.EPHEMERAL).forPath(claimPath);
+                return true;
+            } catch (final KeeperException.NodeExistsException ex) {
+                // watch the claim so the task is claimed again if its owner dies
+                if (client.checkExists().usingWatcher(this).forPath(claimPath) == null) {
+                    requestScan();
+                }
+            } catch (final KeeperException.NoNodeException ex) {
+                // already acknowledged
+            }
+            return false;
+        }
+
+        /**
+         * Execute a claimed task and acknowledge it, atomically removing the task and its claim. The task is only
+         * acknowledged while this member's session still owns the claim; a claim lost with an earlier session may
+         * since have been taken by another member, whose claim must not be removed.
+         */
+        private void execute(String task) {
+            if (!running) {
+                // destroyed while queued, so the claim is released instead
+                return;
+            }
+
+            final String taskPath = tasksPath + "/" + task;
+            try {
+                final byte[] data = client.getData().forPath(taskPath);
+                boolean completed = false;
+                try {
+                    job.executeTask(data);
+                    completed = true;
+                } catch (final RuntimeException ex) {
+                    LOG.warn("task " + task + " of job " + job.getUniqueName() + " failed.", ex);
+                }
+
+                final String claimPath = taskPath + "/" + CLAIM;
+                final Stat claim = client.checkExists().forPath(claimPath);
+                if (claim == null
+                    || claim.getEphemeralOwner() != client.getZookeeperClient().getZooKeeper().getSessionId()) {
+                    LOG.warn("lost the claim of task {} of job {}, another member executes it again.", task,
+                        job.getUniqueName());
+                    return;
+                }
+
+                final String ackPath = acksPath(job.getUniqueName()) + "/" + task
+                    + (completed ? COMPLETED_SUFFIX : FAILED_SUFFIX);
+                client.inTransaction().create().forPath(ackPath).and().delete().withVersion(claim.getVersion())
+                    .forPath(claimPath).and().delete().forPath(taskPath).and().commit();
+            } catch (final Exception ex) {
+                // the claim was lost with the session, so another member executes the task again
+                LOG.warn("could not acknowledge task " + task + " of job " + job.getUniqueName() + ".", ex);
+            } finally {
+                claimed.remove(task);
+                claimedCount.decrementAndGet();
+                scanAll();
+            }
+        }
+
+        @Override
+        public void process(WatchedEvent event) {
+            requestScan();
+        }
+
+        /**
+         * Delete the claims of the tasks this member has not acknowledged. A claim is only deleted while this
+         * member's session still owns it.
+         */
+        void release() {
+            final long sessionId;
+            try {
+                sessionId = client.getZookeeperClient().getZooKeeper().getSessionId();
+            } catch (final Exception ex) {
+                LOG.warn("could not release the claims of job " + job.getUniqueName() + ".", ex);
+                return;
+            }
+            for (final String task : claimed) {
+                final String claimPath = tasksPath + "/" + task + "/" + CLAIM;
+                try {
+                    final Stat claim = client.checkExists().forPath(claimPath);
+                    if (claim != null && claim.getEphemeralOwner() == sessionId) {
+                        client.delete().withVersion(claim.getVersion()).forPath(claimPath);
+                        LOG.info("released task {} of job {}.", task, job.getUniqueName());
+                    }
+                } catch (final Exception ex) {
+                    LOG.debug("could not release task {} of job {}.", task, job.getUniqueName());
+                }
+            }
+        }
+
+        void requestScan() {
+            final ForkJoinPool current = pool;
+            if (running && current != null) {
+                current.execute(scan);
+            }
+        }
+
+        /**
+         * Claim unclaimed tasks until this member's parallelism is used up.
+         */
+        private synchronized void scan() {
+            if (!running) {
+                return;
+            }
+
+            try {
+                final List<String> tasks;
+                try {
+                    tasks = client.getChildren().usingWatcher(this).forPath(tasksPath);
+                } catch (final KeeperException.NoNodeException ex) {
+                    // nothing has been distributed yet
+                    if (client.checkExists().usingWatcher(this).forPath(tasksPath) != null) {
+                        requestScan();
+                    }
+                    return;
+                }
+
+                // visit tasks in random order so members do not all contend for the same ones
+                Collections.shuffle(tasks);
+                for (final String task : tasks) {
+                    if (claimedCount.get() >= parallelism) {
+                        return;
+                    }
+                    if (!claimed.contains(task) && claim(task)) {
+                        claimed.add(task);
+                        claimedCount.incrementAndGet();
+                        pool.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                execute(task);
+                            }
+                        });
+                    }
+                }
+            } catch (final Exception ex) {
+                LOG.warn("failed to claim tasks of job " + job.getUniqueName() + ".", ex);
+            }
+        }
+    }
+}
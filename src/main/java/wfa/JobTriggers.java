@@ -0,0 +1,295 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.CuratorWatcher;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Requests runs of a job on demand and watches for such requests. A trigger is a persistent sequential node under
+ * <code>/job/&lt;name&gt;/triggers</code>, so requests survive leadership changes and are served at least once. The
+ * job's current leader watches the node's children and starts its pending run as soon as a trigger appears, instead
+ * of at the run's scheduled execution time. Between runs, the last leader of an asynchronous job keeps watching while
+ * it waits to rejoin the election and rejoins at once when triggered. Other nodes do not watch.
+ * <p>
+ * A run serves every trigger this node observed before the run started, so concurrent triggers coalesce into a single
+ * run, and deletes them once it finishes. A trigger observed after the run started gets a run of its own, since that
+ * run may have missed whatever the trigger was meant to pick up. A cancelled run serves no triggers.
+ * <p>
+ * The watch is a plain ZooKeeper child watch renewed by background reads, so a trigger reaches the leader in two round
+ * trips without a thread of its own.
+ */
+public class JobTriggers {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobTriggers.class);
+
+    /** the name prefix of trigger nodes. */
+    private static final String TRIGGER_PREFIX = "trigger-";
+
+    /**
+     * Request a run of the given job as soon as possible. The job's current leader starts its pending run at once; a
+     * job without an active leader runs once one is elected.
+     *
+     * @param client
+     *            the client used to write the trigger.
+     * @param jobName
+     *            the unique name of the job.
+     * @return the path of the trigger node.
+     */
+    public static String trigger(CuratorFramework client, String jobName) throws Exception {
+        return client.create().creatingParentsIfNeeded().withMode(CreateMode.PERSISTENT_SEQUENTIAL)
+            .forPath(triggersPath(jobName) + "/" + TRIGGER_PREFIX);
+    }
+
+    /**
+     * Access the path holding the triggers of the given job.
+     */
+    static String triggersPath(String jobName) {
+        return "/job/" + jobName + "/triggers";
+    }
+
+    private final CuratorFramework client;
+
+    /** renews the watch after a session expired, since ZooKeeper only restores watches within a session. */
+    private final ConnectionStateListener connectionListener = new ConnectionStateListener() {
+        @Override
+        public void stateChanged(CuratorFramework client, ConnectionState newState) {
+            if (newState == ConnectionState.LOST) {
+                lost = true;
+            } else if (newState == ConnectionState.RECONNECTED && lost) {
+                lost = false;
+                list();
+            }
+        }
+    };
+
+    /** the served triggers not yet known to be deleted. */
+    private final Set<String> consumed = new HashSet<String>();
+
+    private final String jobName;
+
+    /** receives the background reads of the triggers node. */
+    private final BackgroundCallback listed = new BackgroundCallback() {
+        @Override
+        public void processResult(CuratorFramework client, CuratorEvent event) {
+            if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                if (event.getChildren() != null) {
+                    update(event.getChildren());
+                }
+            } else if (event.getResultCode() == KeeperException.Code.NONODE.intValue()) {
+                // nothing was ever triggered, wait for the first trigger to create the node
+                watchCreation();
+            } else {
+                LOG.warn("could not read triggers of job {}: {}.", jobName,
+                    KeeperException.Code.get(event.getResultCode()));
+            }
+        }
+    };
+
+    /** the callback notified when triggers are pending. */
+    private final Runnable listener;
+
+    /** whether the session was lost since the watch was last renewed. */
+    private volatile boolean lost;
+
+    /** the pending triggers mapped to the time this node first observed them. */
+    private final Map<String, Long> observed = new ConcurrentHashMap<String, Long>();
+
+    /** the path holding the triggers. */
+    private final String path;
+
+    /** whether the watch is active. */
+    private volatile boolean running;
+
+    /** renews the watch whenever the triggers change. */
+    private final CuratorWatcher watcher = new CuratorWatcher() {
+        @Override
+        public void process(WatchedEvent event) {
+            if (running && event.getType() != Watcher.Event.EventType.None) {
+                list();
+            }
+        }
+    };
+
+    /**
+     * Construct a watch of the triggers of the given job.
+     *
+     * @param client
+     *            the client used to watch and delete triggers.
+     * @param jobName
+     *            the unique name of the job.
+     * @param listener
+     *            the callback notified whenever triggers are pending, on a ZooKeeper event thread.
+     */
+    JobTriggers(CuratorFramework client, String jobName, Runnable listener) {
+        super();
+        this.client = client;
+        this.jobName = jobName;
+        this.listener = listener;
+        this.path = triggersPath(jobName);
+    }
+
+    /**
+     * Stop watching the triggers.
+     */
+    void close() {
+        running = false;
+        client.getConnectionStateListenable().removeListener(connectionListener);
+        observed.clear();
+    }
+
+    /**
+     * Delete the triggers served by a run that started at the given time, which are those observed before it started.
+     *
+     * @param actualExecutionTime
+     *            the time the run started, in milliseconds since the epoch.
+     */
+    synchronized void consume(long actualExecutionTime) {
+        final Iterator<Map.Entry<String, Long>> entries = observed.entrySet().iterator();
+        while (entries.hasNext()) {
+            final Map.Entry<String, Long> entry = entries.next();
+            if (entry.getValue().longValue() > actualExecutionTime) {
+                continue;
+            }
+
+            final String name = entry.getKey();
+            entries.remove();
+            consumed.add(name);
+            try {
+                client.delete().inBackground(new BackgroundCallback() {
+                    @Override
+                    public void processResult(CuratorFramework client, CuratorEvent event) {
+                        final int rc = event.getResultCode();
+                        if (rc != KeeperException.Code.OK.intValue() && rc != KeeperException.Code.NONODE.intValue()) {
+                            LOG.warn("could not delete trigger {} of job {}, it will run again.", name, jobName);
+                            unconsume(name);
+                        }
+                    }
+                }).forPath(path + "/" + name);
+            } catch (final Exception ex) {
+                LOG.warn("could not delete trigger " + name + " of job " + jobName + ", it will run again.", ex);
+                unconsume(name);
+            }
+        }
+    }
+
+    /**
+     * Determine whether triggers are waiting for a run.
+     */
+    boolean isPending() {
+        return !observed.isEmpty();
+    }
+
+    /**
+     * Read the triggers and renew the watch, in the background.
+     */
+    private void list() {
+        try {
+            client.getChildren().usingWatcher(watcher).inBackground(listed).forPath(path);
+        } catch (final Exception ex) {
+            LOG.warn("could not watch triggers of job " + jobName + ".", ex);
+        }
+    }
+
+    /**
+     * Start watching the triggers. Triggers written before the watch started are reported once they are read.
+     */
+    void start() {
+        running = true;
+        client.getConnectionStateListenable().addListener(connectionListener);
+        list();
+    }
+
+    /**
+     * Return a trigger whose deletion failed to the pending triggers.
+     */
+    private synchronized void unconsume(String name) {
+        if (consumed.remove(name)) {
+            observed.put(name, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Record the triggers currently present and notify the listener if any of them wait for a run.
+     */
+    private void update(List<String> children) {
+        synchronized (this) {
+            final long now = System.currentTimeMillis();
+            final Set<String> present = new HashSet<String>(children);
+            observed.keySet().retainAll(present);
+            consumed.retainAll(present);
+            for (final String name : children) {
+                if (!consumed.contains(name) && !observed.containsKey(name)) {
+                    observed.put(name, now);
+                }
+            }
+        }
+
+        if (running && !observed.isEmpty()) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Wait for the triggers node to be created by the first trigger.
+     */
+    private void watchCreation() {
+        try {
+            client.checkExists().usingWatcher(watcher).inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(CuratorFramework client, CuratorEvent event) {
+                    if (event.getStat() != null) {
+                        // created before the watch was set
+                        list();
+                    }
+                }
+            }).forPath(path);
+        } catch (final Exception ex) {
+            LOG.warn("could not watch triggers of job " + jobName + ".", ex);
+        }
+    }
+}
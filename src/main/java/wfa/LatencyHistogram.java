@@ -0,0 +1,204 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values with a bounded relative error. Values are counted in log-linear buckets:
+ * every power of two is split into {@value #SUB_BUCKET_COUNT} equal buckets, so a reported percentile is at most 12.5%
+ * above the recorded value. Recording is a single atomic increment plus uncontended updates of the sum and maximum, so
+ * concurrent recorders never block each other.
+ */
+public class LatencyHistogram {
+
+    /** the largest value counted in its own bucket; larger values are recorded as this value. */
+    public static final long MAX_VALUE = (1L << 44) - 1L;
+
+    private static final int SUB_BUCKET_BITS = 3;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int BUCKET_COUNT = indexOf(MAX_VALUE) + 1;
+
+    /**
+     * Compute the bucket counting the given value.
+     */
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS)
+            + (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    /**
+     * Compute the largest value counted by the given bucket.
+     */
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int exponent = (index >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        final long width = 1L << (exponent - SUB_BUCKET_BITS);
+        final long lowest = (1L << exponent) + (index & (SUB_BUCKET_COUNT - 1)) * width;
+        return lowest + width - 1L;
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicLong max = new AtomicLong();
+
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Record a value. Negative values are recorded as zero and values above {@link #MAX_VALUE} as {@link #MAX_VALUE}.
+     *
+     * @param value
+     *            the value to record.
+     */
+    public void record(long value) {
+        final long clamped = value < 0L ? 0L : Math.min(value, MAX_VALUE);
+        counts.incrementAndGet(indexOf(clamped));
+        sum.add(clamped);
+
+        long current = max.get();
+        while (clamped > current && !max.compareAndSet(current, clamped)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Capture the count, mean, maximum and common percentiles of the values recorded so far. Values recorded while the
+     * snapshot is taken may or may not be included.
+     *
+     * @return the snapshot.
+     */
+    public Snapshot snapshot() {
+        final long[] buckets = new long[BUCKET_COUNT];
+        long count = 0L;
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            buckets[i] = counts.get(i);
+            count += buckets[i];
+        }
+
+        final long maxValue = max.get();
+        final double mean = count == 0L ? 0.0 : (double) sum.sum() / count;
+        return new Snapshot(count, maxValue, mean, valueAt(buckets, count, maxValue, 0.5),
+            valueAt(buckets, count, maxValue, 0.9), valueAt(buckets, count, maxValue, 0.99),
+            valueAt(buckets, count, maxValue, 0.999));
+    }
+
+    private long valueAt(long[] buckets, long count, long maxValue, double quantile) {
+        if (count == 0L) {
+            return 0L;
+        }
+
+        final long rank = Math.max(1L, (long) Math.ceil(quantile * count));
+        long seen = 0L;
+        for (int i = 0; i < buckets.length; ++i) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.min(highestValueAt(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    /**
+     * An immutable summary of a histogram. Exposed through JMX as composite data.
+     */
+    public static class Snapshot {
+
+        private final long count;
+
+        private final long max;
+
+        private final double mean;
+
+        private final long p50;
+
+        private final long p90;
+
+        private final long p99;
+
+        private final long p999;
+
+        @ConstructorProperties({ "count", "max", "mean", "p50", "p90", "p99", "p999" })
+        public Snapshot(long count, long max, double mean, long p50, long p90, long p99, long p999) {
+            super();
+            this.count = count;
+            this.max = max;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getP999() {
+            return p999;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + ", mean=" + mean + ", p50=" + p50 + ", p90=" + p90 + ", p99=" + p99 + ", p999="
+                + p999 + ", max=" + max;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the leadership of a job or partition through brief suspensions of the ZooKeeper connection. Without it, a
+ * suspended connection cancels leadership at once, so a short network blip or garbage collection pause stops every run
+ * on the node and sends all of its elections back to ZooKeeper together.
+ * <p>
+ * With a grace period, runs continue while the connection is suspended. Leadership is revalidated on reconnection by
+ * comparing the session with the one the term was won in: a reconnection within the same session keeps the term, since
+ * the session's election node never went away. Leadership is abandoned only once the session is confirmed lost, either
+ * because the client reconnected with a new session or because the connection stayed suspended past the grace period.
+ * The grace period never exceeds a third of the negotiated session timeout: the client suspends the connection after
+ * two thirds of the timeout without hearing from the server, so the session may expire on the server a third of the
+ * timeout later, at which point another node can win the election.
+ * <p>
+ * After abandoning leadership a term waits a random delay of up to the re-election stagger before contending again, so
+ * the elections of a node that lost its session are spread out instead of contending at once.
+ */
+class LeadershipGrace {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LeadershipGrace.class);
+
+    /** stops the current term: cancels its runs and interrupts its leadership. */
+    private final Runnable abandon;
+
+    /** whether the current term was abandoned. */
+    private volatile boolean abandoned;
+
+    private final CuratorFramework client;
+
+    /** whether the leader is being closed. */
+    private volatile boolean closed;
+
+    private final JobExecutor executor;
+
+    /** abandons the term once the grace period runs out while still suspended. */
+    private final Runnable expire = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (LeadershipGrace.this) {
+                expiry = null;
+            }
+            LOG.warn("connection stayed suspended past the grace period of {}.", name);
+            abandon();
+        }
+    };
+
+    /** the pending end of the grace period, or <code>null</code> if the connection is not suspended. */
+    private JobTimeout expiry;
+
+    /** the longest a suspended connection keeps leadership. */
+    private final long graceMillis;
+
+    /** what leads, for logging. */
+    private final String name;
+
+    /** the session the current term was won in, or zero between terms. */
+    private volatile long sessionId;
+
+    /** the longest random delay before contending again after abandoning leadership. */
+    private final long staggerMillis;
+
+    /**
+     * Construct a grace period for the leadership of the given name.
+     *
+     * @param name
+     *            what leads, for logging.
+     * @param client
+     *            the client holding the session.
+     * @param executor
+     *            the executor timing the grace period.
+     * @param graceMillis
+     *            the longest a suspended connection keeps leadership, or zero to cancel leadership at once.
+     * @param staggerMillis
+     *            the longest random delay before contending again after abandoning leadership.
+     * @param abandon
+     *            the callback stopping the current term.
+     */
+    LeadershipGrace(String name, CuratorFramework client, JobExecutor executor, long graceMillis, long staggerMillis,
+        Runnable abandon) {
+        super();
+        this.name = name;
+        this.client = client;
+        this.executor = executor;
+        this.graceMillis = graceMillis;
+        this.staggerMillis = staggerMillis;
+        this.abandon = abandon;
+    }
+
+    /**
+     * Abandon the current term once.
+     */
+    private void abandon() {
+        synchronized (this) {
+            if (sessionId == 0L || abandoned) {
+                return;
+            }
+            abandoned = true;
+        }
+        LOG.warn("abandoning leadership of {} after losing its session.", name);
+        abandon.run();
+    }
+
+    /**
+     * Wait before contending again if the term that just ended was abandoned. The interrupt that ended the abandoned
+     * term is cleared first, but an interrupt from closing the leader is kept and ends the wait at once.
+     */
+    void awaitStagger() {
+        if (!abandoned || staggerMillis <= 0L || closed) {
+            return;
+        }
+        if (Thread.interrupted() && closed) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(staggerMillis));
+        } catch (final InterruptedException ex) {
+            // closed while waiting
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Cancel the pending end of the grace period, if any.
+     */
+    private synchronized void cancelExpiry() {
+        if (expiry != null) {
+            expiry.cancel();
+            expiry = null;
+        }
+    }
+
+    /**
+     * Record that the leader is being closed, so an abandoned term does not wait to contend again.
+     */
+    void closed() {
+        closed = true;
+    }
+
+    /**
+     * Access the current session, or zero if it cannot be determined.
+     */
+    private long currentSessionId() {
+        try {
+            return client.getZookeeperClient().getZooKeeper().getSessionId();
+        } catch (final Exception ex) {
+            return 0L;
+        }
+    }
+
+    /**
+     * Record that a term was won in the current session.
+     */
+    synchronized void elected() {
+        abandoned = false;
+        sessionId = currentSessionId();
+    }
+
+    /**
+     * Determine whether the current or last term was abandoned after its session was lost.
+     */
+    boolean isAbandoned() {
+        return abandoned;
+    }
+
+    /**
+     * Access a random delay of up to the re-election stagger.
+     */
+    long nextStaggerMillis() {
+        if (staggerMillis <= 0L) {
+            return 0L;
+        }
+        return ThreadLocalRandom.current().nextLong(staggerMillis);
+    }
+
+    /**
+     * Record that the current term ended.
+     */
+    void relinquished() {
+        cancelExpiry();
+        sessionId = 0L;
+    }
+
+    /**
+     * React to a change of the connection state while leading.
+     *
+     * @return whether the change was handled, <code>false</code> if leadership should be cancelled as usual because
+     *         no grace period is configured.
+     */
+    boolean stateChanged(ConnectionState newState) {
+        if (graceMillis <= 0L) {
+            return false;
+        }
+
+        if (newState == ConnectionState.SUSPENDED) {
+            suspended();
+        } else if (newState == ConnectionState.RECONNECTED) {
+            cancelExpiry();
+            if (sessionId != 0L) {
+                if (currentSessionId() == sessionId) {
+                    LOG.info("reconnected within the session, keeping leadership of {}.", name);
+                } else {
+                    abandon();
+                }
+            }
+        } else if (newState == ConnectionState.LOST) {
+            // lost is also reported when an operation gives up retrying, so only a new session confirms the loss
+            final long current = currentSessionId();
+            if (sessionId != 0L && current != 0L && current != sessionId) {
+                abandon();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Start the grace period of a suspended connection.
+     */
+    private void suspended() {
+        final long delay;
+        synchronized (this) {
+            if (sessionId == 0L || expiry != null) {
+                return;
+            }
+            long sessionTimeout = graceMillis * 3L;
+            try {
+                sessionTimeout = client.getZookeeperClient().getZooKeeper().getSessionTimeout();
+            } catch (final Exception ex) {
+                LOG.debug("could not read session timeout, using the grace period.", ex);
+            }
+            delay = Math.min(graceMillis, sessionTimeout / 3L);
+            expiry = executor.scheduleWakeUp(expire, delay);
+        }
+        LOG.info("connection suspended, keeping leadership of {} for up to {} ms.", name, delay);
+    }
+}
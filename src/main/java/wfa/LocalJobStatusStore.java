@@ -0,0 +1,341 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps job statuses in a local memory-mapped file, so persisting a status costs a few memory writes instead of a
+ * ZooKeeper quorum write. Other nodes cannot see the statuses, so the store only suits jobs that are always led by this
+ * node, for example in a single node deployment or in tests.
+ * <p>
+ * The file holds {@link #setSlotCount(int) a fixed number} of {@value #SLOT_SIZE} byte slots, one per job, assigned the
+ * first time a job's status is read. A slot holds:
+ * <ol>
+ * <li>the length of the job name as a short, zero for a free slot,</li>
+ * <li>the UTF-8 job name, at most {@value #MAX_NAME_LENGTH} bytes,</li>
+ * <li>two status copies of {@value #COPY_SIZE} bytes at the end of the slot, each a version int, a length byte and the
+ * {@link JobStatusCodec encoded status}.</li>
+ * </ol>
+ * The copy with the larger version is current. A write fills the other copy and stores its version last, so a write
+ * cut short by a crash leaves the previous status intact. A new slot's name length is written last for the same
+ * reason.
+ * <p>
+ * Written statuses live in the operating system's page cache, so they survive a crash of the process. A background
+ * thread forces the file to disk at most once every {@link #setSyncIntervalMillis(long) sync interval}, covering all
+ * writes made in between with one sync, so a crash of the machine loses at most the writes of the last interval. A sync
+ * interval of zero forces the file on every write instead.
+ */
+public class LocalJobStatusStore implements JobStatusStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LocalJobStatusStore.class);
+
+    /** the size of a status copy. */
+    private static final int COPY_SIZE = 96;
+
+    /** the offset of the status data within a copy, after the version and length. */
+    private static final int DATA_OFFSET = 5;
+
+    /** the size of a job slot. */
+    private static final int SLOT_SIZE = 512;
+
+    /** the longest job name in UTF-8 bytes. */
+    private static final int MAX_NAME_LENGTH = SLOT_SIZE - 2 * COPY_SIZE - 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** the mapped store file. */
+    private MappedByteBuffer buffer;
+
+    /** whether statuses were written since the file was last forced to disk. */
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    /** the store file. */
+    private File file;
+
+    /** the next free slot. */
+    private int nextSlot;
+
+    /** whether the store accepts reads and writes. */
+    private volatile boolean running;
+
+    /** the number of job slots in the file. */
+    private int slotCount = 1024;
+
+    /** the slots of the stored jobs keyed by name. */
+    private final Map<String, Integer> slots = new HashMap<String, Integer>();
+
+    /** how often written statuses are forced to disk, or zero to force them on every write. */
+    private long syncIntervalMillis = 100L;
+
+    /** the background thread forcing written statuses to disk. */
+    private Thread syncer;
+
+    /** the view of the mapped file positioned for each read and write, so they allocate none. Guarded by this store. */
+    private ByteBuffer view;
+
+    /**
+     * Assign a free slot to the given job, starting it with an empty status.
+     */
+    private int allocateSlot(String jobName) {
+        final byte[] name = jobName.getBytes(UTF8);
+        if (name.length > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("job name " + jobName + " is too long for the local status store.");
+        }
+        if (nextSlot >= slotCount) {
+            throw new IllegalStateException("local status store is full, no slot left for job " + jobName + ".");
+        }
+
+        final int slot = nextSlot++;
+        final int start = slot * SLOT_SIZE;
+        final ByteBuffer data = buffer.duplicate();
+        data.position(copyOffset(slot, 0) + DATA_OFFSET);
+        JobStatusCodec.encode(new JobStatus(), data);
+        buffer.put(copyOffset(slot, 0) + 4, (byte) (data.position() - copyOffset(slot, 0) - DATA_OFFSET));
+        buffer.putInt(copyOffset(slot, 0), 0);
+        buffer.putInt(copyOffset(slot, 1), -1);
+        data.position(start + 2);
+        data.put(name);
+        buffer.putShort(start, (short) name.length);
+
+        slots.put(jobName, slot);
+        return slot;
+    }
+
+    /**
+     * Access the offset of the copy of the given slot holding the given version.
+     */
+    private int copyOffset(int slot, int version) {
+        return (slot + 1) * SLOT_SIZE - (2 - (version & 1)) * COPY_SIZE;
+    }
+
+    /**
+     * Access the current version of the given slot.
+     */
+    private int currentVersion(int slot) {
+        return Math.max(buffer.getInt(copyOffset(slot, 0)), buffer.getInt(copyOffset(slot, 1)));
+    }
+
+    /**
+     * Decode the given version of the given slot into the given status.
+     */
+    private void decode(int slot, int version, JobStatus status) {
+        final int offset = copyOffset(slot, version);
+        view.clear();
+        view.position(offset + DATA_OFFSET);
+        view.limit(offset + DATA_OFFSET + buffer.get(offset + 4));
+        JobStatusCodec.decode(view, status);
+        status.setVersion(version);
+    }
+
+    /**
+     * Force the written statuses to disk and close the store.
+     */
+    public synchronized void destroyStore() {
+        running = false;
+        if (syncer != null) {
+            syncer.interrupt();
+            syncer = null;
+        }
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+            view = null;
+        }
+        slots.clear();
+        nextSlot = 0;
+    }
+
+    /**
+     * Open the store file, creating it if needed, and index the jobs it holds.
+     *
+     * @throws IOException
+     *             if the file could not be opened or mapped.
+     */
+    public synchronized void initializeStore() throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            // a file created with more slots keeps them
+            slotCount = Math.max(slotCount, (int) (raf.length() / SLOT_SIZE));
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0L, (long) slotCount * SLOT_SIZE);
+            view = buffer.duplicate();
+        } finally {
+            raf.close();
+        }
+
+        final byte[] name = new byte[MAX_NAME_LENGTH];
+        nextSlot = 0;
+        while (nextSlot < slotCount) {
+            final int start = nextSlot * SLOT_SIZE;
+            final int length = buffer.getShort(start);
+            if (length <= 0 || length > MAX_NAME_LENGTH) {
+                break;
+            }
+            final ByteBuffer data = buffer.duplicate();
+            data.position(start + 2);
+            data.get(name, 0, length);
+            slots.put(new String(name, 0, length, UTF8), nextSlot++);
+        }
+        LOG.info("opened local status store {} with {} jobs.", file, slots.size());
+
+        running = true;
+        if (syncIntervalMillis > 0L) {
+            syncer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    syncPeriodically();
+                }
+            }, "wfa-status-sync");
+            syncer.setDaemon(true);
+            syncer.start();
+        }
+    }
+
+    @Override
+    public synchronized void readStatus(String jobName, JobStatus status) {
+        final int slot = slotOf(jobName);
+        decode(slot, currentVersion(slot), status);
+    }
+
+    /**
+     * Modify the store file. It is created if it does not exist.
+     */
+    public void setFile(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Modify the number of job slots in the file, the most jobs the store holds. An existing file with more slots keeps
+     * them.
+     */
+    public void setSlotCount(int slotCount) {
+        if (slotCount < 1) {
+            throw new IllegalArgumentException("slot count must be positive.");
+        }
+        this.slotCount = slotCount;
+    }
+
+    /**
+     * Modify how often written statuses are forced to disk. Zero forces the file on every write, making each write
+     * durable before it returns at the cost of a disk sync per write.
+     */
+    public void setSyncIntervalMillis(long syncIntervalMillis) {
+        if (syncIntervalMillis < 0L) {
+            throw new IllegalArgumentException("sync interval must not be negative.");
+        }
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    /**
+     * Access the slot of the given job, assigning one if the job is new.
+     */
+    private int slotOf(String jobName) {
+        if (!running) {
+            throw new IllegalStateException("local status store is not initialized.");
+        }
+        final Integer slot = slots.get(jobName);
+        if (slot == null) {
+            return allocateSlot(jobName);
+        }
+        return slot.intValue();
+    }
+
+    /**
+     * Force the file to disk whenever statuses were written during the last sync interval, until the store is
+     * destroyed.
+     */
+    private void syncPeriodically() {
+        try {
+            while (running) {
+                Thread.sleep(syncIntervalMillis);
+                final MappedByteBuffer mapped = buffer;
+                if (mapped != null && dirty.getAndSet(false)) {
+                    mapped.force();
+                }
+            }
+        } catch (final InterruptedException ex) {
+            // destroyed
+        }
+    }
+
+    @Override
+    public synchronized boolean writeStatus(String jobName, JobStatus status) {
+        final int slot = slotOf(jobName);
+        final int version = currentVersion(slot);
+        if (status.getVersion() != version) {
+            final JobStatus current = new JobStatus();
+            decode(slot, version, current);
+            if (current.getFencingToken() > status.getFencingToken()) {
+                LOG.warn("status of job {} was written by a later leader, dropping the write of term {}.", jobName,
+                    status.getFencingToken());
+                return false;
+            }
+            if (current.getLastScheduledExecutionTimeMillis() > status.getLastScheduledExecutionTimeMillis()) {
+                // this term scheduled from an outdated status, so keep the later run and only claim the status
+                LOG.warn("status of job {} records a later run than term {}, keeping it.", jobName,
+                    status.getFencingToken());
+                final long fencingToken = status.getFencingToken();
+                decode(slot, version, status);
+                status.setFencingToken(fencingToken);
+            } else {
+                LOG.warn("status of job {} was modified by another leader, overwriting.", jobName);
+            }
+        }
+
+        final int next = version + 1;
+        final int offset = copyOffset(slot, next);
+        view.clear();
+        view.position(offset + DATA_OFFSET);
+        view.limit(offset + COPY_SIZE);
+        JobStatusCodec.encode(status, view);
+        buffer.put(offset + 4, (byte) (view.position() - offset - DATA_OFFSET));
+        buffer.putInt(offset, next);
+        status.setVersion(next);
+
+        if (syncIntervalMillis == 0L) {
+            buffer.force();
+        } else {
+            dirty.set(true);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+/**
+ * A {@link JobSchedule} that computes execution times as milliseconds since the epoch. Job leaders prefer this method
+ * over the {@link java.util.Date} based one so that computing the next execution time allocates nothing. Unknown
+ * times are represented by {@link JobStatus#NO_TIME}.
+ */
+public interface MillisJobSchedule extends JobSchedule {
+
+    /**
+     * the next scheduled execution time of a job waiting for something other than time, such as the jobs a
+     * {@link DependentJobSchedule} depends on.
+     */
+    long NEVER = Long.MAX_VALUE;
+
+    /**
+     * Compute the next scheduled execution time for a job based on three timings from the last execution.
+     * 
+     * @param lastScheduledExecutionTime
+     *            the last time the job was <strong>scheduled</strong> to execute, or {@link JobStatus#NO_TIME}.
+     * @param lastActualExecutionTime
+     *            the last time the job was <strong>actually</strong> executed, or {@link JobStatus#NO_TIME}.
+     * @param lastCompletionTime
+     *            the last time the job execution actually completed, or {@link JobStatus#NO_TIME}.
+     * @return the next scheduled execution time in milliseconds since the epoch.
+     */
+    long nextScheduledExecutionTimeMillis(long lastScheduledExecutionTime, long lastActualExecutionTime,
+        long lastCompletionTime);
+
+}
@@ -0,0 +1,501 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.function.BiConsumer;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.leader.LeaderSelector;
+import org.apache.curator.framework.recipes.leader.LeaderSelectorListenerAdapter;
+import org.apache.curator.framework.state.ConnectionState;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A job leader that shares leader elections among many jobs. Jobs are hashed by unique name into a fixed number of
+ * partitions and each partition holds a single leader election under
+ * <code>/group/&lt;groupName&gt;/partition/&lt;n&gt;/leader</code>. The winner of a partition election schedules every
+ * job in that partition through the {@link JobExecutor}, so the cost of electing leaders and failing over grows with
+ * the number of partitions rather than the number of jobs. A new partition winner reads the statuses of all of the
+ * partition's jobs in a single pipelined pass, and each following run is scheduled from the status its previous run
+ * persisted. Runs are submitted without blocking, so a partition winner only holds one thread per partition no matter
+ * how many jobs it leads, and statuses are persisted on a {@link #setStatusExecutorService(ExecutorService) separate
+ * executor} so the thread finishing a run never waits on ZooKeeper.
+ * <p>
+ * Every node in a group must use the same group name and partition count and should register the same jobs so that
+ * each partition winner is able to run all of the partition's jobs.
+ * <p>
+ * Partition winners hold leadership until they lose their connection, so the first nodes to start tend to lead most
+ * partitions. With a {@link #setPlacement(JobPlacement) placement}, a node leading more than its share of jobs
+ * declines partitions and yields partitions it holds while another node is waiting to take them.
+ */
+public class PartitionedJobLeader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionedJobLeader.class);
+
+    /** the delay before retrying a job whose next run could not be scheduled. */
+    private static final long RETRY_DELAY_MILLIS = 1000L;
+
+    /**
+     * Compute the partition for the given job name. The computation depends only on the name and the partition count
+     * so every node in a group assigns a job to the same partition.
+     *
+     * @param jobName
+     *            the globally unique job name.
+     * @param partitionCount
+     *            the number of partitions.
+     * @return the partition index in the range [0, {@code partitionCount}).
+     */
+    static int partitionOf(String jobName, int partitionCount) {
+        return (jobName.hashCode() & Integer.MAX_VALUE) % partitionCount;
+    }
+
+    /** the checkpointer persisting the progress of runs of all jobs, or <code>null</code> to not persist it. */
+    private JobCheckpointer checkpointer;
+
+    private CuratorFramework client;
+
+    private JobExecutor executor;
+
+    /** the log recording each run of all jobs, or <code>null</code> to keep no history. */
+    private JobHistoryLog history;
+
+    /** the name of the node group that shares these partitions. */
+    private String groupName = "default";
+
+    /** the job leaders added before initialization, elected through the partitions. */
+    private final List<JobLeader> jobLeaders = new ArrayList<JobLeader>();
+
+    /** the number of partitions jobs are hashed into. */
+    private int partitionCount = 16;
+
+    /** the most missed execution times each job runs back to back under {@link MisfirePolicy#CATCH_UP}. */
+    private int maxBurst = 10;
+
+    /** the registry providing job metrics, or <code>null</code> to disable metrics. */
+    private JobMetricsRegistry metricsRegistry;
+
+    /** what each job does with scheduled execution times that were missed. */
+    private MisfirePolicy misfirePolicy = MisfirePolicy.FIRE_ONCE;
+
+    private final List<Partition> partitions = new ArrayList<Partition>();
+
+    /** whether the status executor service was created by, and so is shut down with, this leader. */
+    private boolean ownsStatusExecutorService;
+
+    /** the placement balancing partitions across nodes, or <code>null</code> to keep partitions once won. */
+    private JobPlacement placement;
+
+    /** the longest random delay before contending for a partition again after abandoning it. */
+    private long reelectionStaggerMillis;
+
+    /** the cache serving status reads of all jobs, or <code>null</code> to always read ZooKeeper. */
+    private JobStatusCache statusCache;
+
+    /** the executor service persisting statuses and scheduling the following runs once runs finish. */
+    private ExecutorService statusExecutorService;
+
+    /** the store persisting the statuses of all jobs, or <code>null</code> to keep them in ZooKeeper. */
+    private JobStatusStore statusStore;
+
+    /** the writer batching status writes of all jobs, or <code>null</code> to write synchronously. */
+    private JobStatusWriter statusWriter;
+
+    /** how long partition leadership survives a suspended connection, or zero to give it up at once. */
+    private long suspensionGraceMillis;
+
+    /**
+     * Add a job to be led by this partitioned leader. Jobs must be added before {@link #initializeLeader()} is called.
+     *
+     * @param job
+     *            the job to lead.
+     * @param schedule
+     *            the schedule used to compute the job's execution times.
+     */
+    public void addJob(Job job, JobSchedule schedule) {
+        final JobLeader jobLeader = new JobLeader();
+        jobLeader.setJob(job);
+        jobLeader.setSchedule(schedule);
+        jobLeaders.add(jobLeader);
+    }
+
+    public void destroyLeader() {
+        for (final Partition partition : partitions) {
+            partition.close();
+        }
+        partitions.clear();
+        for (final JobLeader jobLeader : jobLeaders) {
+            jobLeader.destroyLeader();
+        }
+        if (ownsStatusExecutorService) {
+            statusExecutorService.shutdown();
+            statusExecutorService = null;
+            ownsStatusExecutorService = false;
+        }
+    }
+
+    public void initializeLeader() {
+        if (statusExecutorService == null) {
+            statusExecutorService = JobExecutor.newVirtualThreadExecutor();
+            ownsStatusExecutorService = true;
+        }
+
+        final List<List<JobLeader>> partitionJobs = new ArrayList<List<JobLeader>>(partitionCount);
+        for (int i = 0; i < partitionCount; ++i) {
+            partitionJobs.add(new ArrayList<JobLeader>());
+        }
+
+        for (final JobLeader jobLeader : jobLeaders) {
+            jobLeader.setCheckpointer(checkpointer);
+            jobLeader.setClient(client);
+            jobLeader.setExecutor(executor);
+            jobLeader.setHistory(history);
+            jobLeader.setMaxBurst(maxBurst);
+            jobLeader.setMetricsRegistry(metricsRegistry);
+            jobLeader.setMisfirePolicy(misfirePolicy);
+            jobLeader.setStatusCache(statusCache);
+            jobLeader.setStatusStore(statusStore);
+            jobLeader.setStatusWriter(statusWriter);
+            jobLeader.initializeStatus();
+            partitionJobs.get(partitionOf(jobLeader.getJob().getUniqueName(), partitionCount)).add(jobLeader);
+        }
+
+        // only contend for partitions that have jobs to run
+        for (int i = 0; i < partitionCount; ++i) {
+            if (!partitionJobs.get(i).isEmpty()) {
+                final Partition partition = new Partition(i, partitionJobs.get(i));
+                partitions.add(partition);
+                partition.start();
+            }
+        }
+    }
+
+    /**
+     * Modify the checkpointer persisting the progress of runs of all jobs. See
+     * {@link JobLeader#setCheckpointer(JobCheckpointer)}.
+     */
+    public void setCheckpointer(JobCheckpointer checkpointer) {
+        this.checkpointer = checkpointer;
+    }
+
+    public void setClient(CuratorFramework client) {
+        this.client = client;
+    }
+
+    public void setExecutor(JobExecutor executor) {
+        this.executor = executor;
+    }
+
+    public void setGroupName(String groupName) {
+        this.groupName = groupName;
+    }
+
+    public void setHistory(JobHistoryLog history) {
+        this.history = history;
+    }
+
+    public void setMaxBurst(int maxBurst) {
+        this.maxBurst = maxBurst;
+    }
+
+    public void setMetricsRegistry(JobMetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    public void setMisfirePolicy(MisfirePolicy misfirePolicy) {
+        this.misfirePolicy = misfirePolicy;
+    }
+
+    public void setPartitionCount(int partitionCount) {
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("partition count must be positive.");
+        }
+        this.partitionCount = partitionCount;
+    }
+
+    public void setPlacement(JobPlacement placement) {
+        this.placement = placement;
+    }
+
+    /**
+     * Modify the longest random delay before contending for a partition again after abandoning it. See
+     * {@link JobLeader#setReelectionStaggerMillis(long)}.
+     */
+    public void setReelectionStaggerMillis(long reelectionStaggerMillis) {
+        this.reelectionStaggerMillis = reelectionStaggerMillis;
+    }
+
+    public void setStatusCache(JobStatusCache statusCache) {
+        this.statusCache = statusCache;
+    }
+
+    /**
+     * Modify the executor service persisting statuses and scheduling the following runs once runs finish, so neither
+     * blocks the thread that finished the run. Defaults to an executor service from
+     * {@link JobExecutor#newVirtualThreadExecutor()}, shut down by {@link #destroyLeader()}.
+     */
+    public void setStatusExecutorService(ExecutorService statusExecutorService) {
+        this.statusExecutorService = statusExecutorService;
+    }
+
+    public void setStatusStore(JobStatusStore statusStore) {
+        this.statusStore = statusStore;
+    }
+
+    public void setStatusWriter(JobStatusWriter statusWriter) {
+        this.statusWriter = statusWriter;
+    }
+
+    /**
+     * Modify how long partition leadership survives a suspended connection, during which the partition's jobs keep
+     * running. See {@link JobLeader#setSuspensionGraceMillis(long)}.
+     */
+    public void setSuspensionGraceMillis(long suspensionGraceMillis) {
+        this.suspensionGraceMillis = suspensionGraceMillis;
+    }
+
+    /**
+     * A single partition election and the jobs it leads.
+     */
+    private class Partition extends LeaderSelectorListenerAdapter {
+
+        /** when this node last started contending for the partition, from {@link System#nanoTime()}. */
+        private volatile long contendingSinceNanos;
+
+        /** keeps leadership of the partition through brief connection suspensions. */
+        private LeadershipGrace grace;
+
+        /** the partition index. */
+        private final int index;
+
+        /** the jobs hashed to this partition. */
+        private final List<JobLeader> jobLeaders;
+
+        private LeaderSelector leader;
+
+        /** the path of the partition's leader election. */
+        private final String leaderPath;
+
+        /** whether this partition currently holds leadership and should keep running its jobs. */
+        private volatile boolean leading;
+
+        /** the generation of the current leadership term, so run chains of earlier terms stop. */
+        private volatile int term;
+
+        Partition(int index, List<JobLeader> jobLeaders) {
+            super();
+            this.index = index;
+            this.jobLeaders = jobLeaders;
+            this.leaderPath = "/group/" + groupName + "/partition/" + index + "/leader";
+        }
+
+        void close() {
+            leading = false;
+            for (final JobLeader jobLeader : jobLeaders) {
+                executor.cancel(jobLeader.getJob());
+            }
+            grace.closed();
+            leader.close();
+        }
+
+        /**
+         * Hold leadership until interrupted by a connection problem or close, or until the placement asks this node to
+         * yield the partition to a node waiting for it.
+         */
+        private void hold() throws Exception {
+            if (placement == null) {
+                new CountDownLatch(1).await();
+                return;
+            }
+
+            while (true) {
+                Thread.sleep(placement.getRefreshIntervalMillis());
+                if (placement.shouldYield(jobLeaders.size()) && leader.getParticipants().size() > 1) {
+                    LOG.info("yielding partition {}.", index);
+                    return;
+                }
+            }
+        }
+
+        void start() {
+            if (executor.getLeaderExecutorService() == null) {
+                leader = new LeaderSelector(client, leaderPath, this);
+            } else {
+                leader = new LeaderSelector(client, leaderPath, executor.getLeaderExecutorService(), this);
+            }
+            leader.autoRequeue();
+            grace = new LeadershipGrace("partition " + index, client, executor, suspensionGraceMillis,
+                reelectionStaggerMillis, new Runnable() {
+                    @Override
+                    public void run() {
+                        leading = false;
+                        leader.interruptLeadership();
+                    }
+                });
+            contendingSinceNanos = System.nanoTime();
+            leader.start();
+        }
+
+        @Override
+        public void stateChanged(CuratorFramework client, ConnectionState newState) {
+            if (!grace.stateChanged(newState)) {
+                super.stateChanged(client, newState);
+            }
+        }
+
+        /**
+         * Read the status of the given job in the background and schedule its next run once the status arrives, for
+         * as long as this partition holds leadership in the given term.
+         */
+        private void readAndSubmit(final JobLeader jobLeader, final int chainTerm) {
+            if (!leading || chainTerm != term) {
+                return;
+            }
+
+            jobLeader.readStatusInBackground().whenCompleteAsync(new BiConsumer<JobStatus, Throwable>() {
+                @Override
+                public void accept(JobStatus status, Throwable failure) {
+                    if (failure == null) {
+                        submitNext(jobLeader, status, chainTerm);
+                        return;
+                    }
+
+                    // a missing status is created by a synchronous read
+                    final JobStatus created;
+                    try {
+                        created = jobLeader.readStatus();
+                    } catch (final Exception ex) {
+                        retry(jobLeader, chainTerm, ex);
+                        return;
+                    }
+                    submitNext(jobLeader, created, chainTerm);
+                }
+            }, statusExecutorService);
+        }
+
+        /**
+         * Read the status of the given job and schedule its next run again after a delay.
+         */
+        private void retry(final JobLeader jobLeader, final int chainTerm, Exception cause) {
+            LOG.warn("failed to schedule job " + jobLeader.getJob().getUniqueName() + ".", cause);
+            executor.scheduleWakeUp(new Runnable() {
+                @Override
+                public void run() {
+                    readAndSubmit(jobLeader, chainTerm);
+                }
+            }, RETRY_DELAY_MILLIS);
+        }
+
+        /**
+         * Schedule the next run of the given job from the given status and, once the run's status is persisted, the run
+         * after that for as long as this partition holds leadership in the given term. The status persisted by a run
+         * schedules the next one, so it is only read again after a write that did not succeed. No thread is held while
+         * a job waits for its next run.
+         */
+        private void submitNext(final JobLeader jobLeader, final JobStatus status, final int chainTerm) {
+            if (!leading || chainTerm != term) {
+                return;
+            }
+
+            try {
+                if (jobLeader.isSuperseded(status)) {
+                    LOG.info("job {} is led by a later term of partition {}.", jobLeader.getJob().getUniqueName(),
+                        index);
+                    return;
+                }
+                jobLeader.submitNext(status, grace, statusExecutorService).whenComplete(
+                    new BiConsumer<Boolean, Throwable>() {
+                        @Override
+                        public void accept(Boolean written, Throwable failure) {
+                            if (failure == null && written.booleanValue()) {
+                                submitNext(jobLeader, status, chainTerm);
+                            } else {
+                                readAndSubmit(jobLeader, chainTerm);
+                            }
+                        }
+                    });
+            } catch (final Exception ex) {
+                retry(jobLeader, chainTerm, ex);
+            }
+        }
+
+        @Override
+        public void takeLeadership(CuratorFramework client) throws Exception {
+            if (placement != null && placement.shouldDecline("partition " + index, jobLeaders.size())
+                && leader.getParticipants().size() > 1) {
+                // requeued behind the nodes already waiting
+                LOG.info("declined leadership of partition {}.", index);
+                contendingSinceNanos = System.nanoTime();
+                return;
+            }
+
+            LOG.info("elected leader of partition {} with {} jobs.", index, jobLeaders.size());
+
+            if (placement != null) {
+                placement.acquired(jobLeaders.size());
+            }
+            final int currentTerm = ++term;
+            leading = true;
+            grace.elected();
+            try {
+                // the partition's term fences the status writes of all its jobs
+                final CompletableFuture<Long> fencingToken = JobLeader.readFencingToken(client, leaderPath);
+                for (final JobLeader jobLeader : jobLeaders) {
+                    jobLeader.elected(contendingSinceNanos, fencingToken);
+                }
+                // the statuses are read back to back while the token is read, and each job starts once both arrived
+                for (final JobLeader jobLeader : jobLeaders) {
+                    readAndSubmit(jobLeader, currentTerm);
+                }
+                JobLeader.await(fencingToken);
+
+                hold();
+            } finally {
+                grace.relinquished();
+                if (placement != null) {
+                    placement.released(jobLeaders.size());
+                }
+                leading = false;
+                for (final JobLeader jobLeader : jobLeaders) {
+                    executor.cancel(jobLeader.getJob());
+                    jobLeader.relinquished();
+                }
+                LOG.info("relinquished leadership of partition {}.", index);
+                grace.awaitStagger();
+                contendingSinceNanos = System.nanoTime();
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A {@link JobTimer} backed by a {@link ScheduledExecutorService}. Due tasks run on the scheduler's own threads. This
+ * is the timer used by a {@link JobExecutor} configured through {@link JobExecutor#setScheduler}.
+ */
+public class ScheduledExecutorJobTimer implements JobTimer {
+
+    /** the scheduler storing and running tasks. */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Construct a new timer using the given scheduler.
+     * 
+     * @param scheduler
+     *            the scheduler storing and running tasks.
+     */
+    public ScheduledExecutorJobTimer(ScheduledExecutorService scheduler) {
+        super();
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public JobTimeout schedule(Runnable task, long delay, TimeUnit unit) {
+        final FutureTimeout timeout = new FutureTimeout(task);
+        timeout.future = scheduler.schedule(timeout, delay, unit);
+        return timeout;
+    }
+
+    /**
+     * A {@link JobTimeout} view of a scheduled future, and the task scheduled in place of the given one so a single
+     * object tracks both. A scheduled future can still be cancelled while its task runs, so whether the task was
+     * handed off is tracked separately.
+     */
+    private static class FutureTimeout implements JobTimeout, Runnable {
+
+        /** updates whether the task was handed off. */
+        private static final AtomicIntegerFieldUpdater<FutureTimeout> HANDED_OFF_UPDATER = AtomicIntegerFieldUpdater
+            .newUpdater(FutureTimeout.class, "handedOff");
+
+        /** the scheduled future, set once the task is scheduled. */
+        volatile ScheduledFuture<?> future;
+
+        /** one once the task was started or cancelled, otherwise zero. */
+        volatile int handedOff;
+
+        /** the task to run. */
+        final Runnable task;
+
+        FutureTimeout(Runnable task) {
+            super();
+            this.task = task;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!HANDED_OFF_UPDATER.compareAndSet(this, 0, 1)) {
+                return false;
+            }
+            future.cancel(false);
+            return true;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return future.getDelay(unit);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return handedOff != 0;
+        }
+
+        @Override
+        public void run() {
+            if (HANDED_OFF_UPDATER.compareAndSet(this, 0, 1)) {
+                task.run();
+            }
+        }
+    }
+}
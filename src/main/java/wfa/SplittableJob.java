@@ -0,0 +1,65 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.List;
+
+/**
+ * A {@link Job} whose runs are split into independent tasks that any member of the cluster may execute. The elected
+ * leader calls {@link #split(JobContext)} and publishes the tasks through a {@link JobTaskDistributor}; every member
+ * that registered the job with its distributor claims tasks and calls {@link #executeTask(byte[])}. The run completes
+ * once every task has been acknowledged.
+ * <p>
+ * A task may be executed more than once, for example when the member executing it loses its ZooKeeper session, so
+ * task execution must be idempotent.
+ */
+public interface SplittableJob extends Job {
+
+    /**
+     * Execute a single task of a run. This method is called on whichever member claimed the task.
+     *
+     * @param task
+     *            the task data produced by {@link #split(JobContext)}.
+     * @throws RuntimeException
+     *             to mark the task, and therefore the run, as failed.
+     */
+    void executeTask(byte[] task);
+
+    /**
+     * Split the run described by the given context into tasks. This method is called on the elected leader. Each task
+     * is stored in its own ZooKeeper node so must be well under ZooKeeper's node size limit of one megabyte.
+     *
+     * @param ctx
+     *            the context of the run being split.
+     * @return the data of each task.
+     */
+    List<byte[]> split(JobContext ctx);
+
+}
@@ -0,0 +1,247 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps job statuses in ZooKeeper at <code>/job/&lt;name&gt;/status</code>, so whichever node is elected leader of a
+ * job continues from the status written by the previous leader. Reads can be served by a {@link JobStatusCache} and
+ * writes batched with other jobs by a {@link JobStatusWriter}.
+ */
+public class ZooKeeperJobStatusStore implements JobStatusStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZooKeeperJobStatusStore.class);
+
+    /**
+     * Complete the given future with the given status data decoded into the given status.
+     */
+    private static void decoded(CompletableFuture<JobStatus> read, JobStatus status, byte[] data, int version) {
+        try {
+            JobStatusCodec.decode(data, status);
+            status.setVersion(version);
+            read.complete(status);
+        } catch (final IllegalArgumentException ex) {
+            read.completeExceptionally(ex);
+        }
+    }
+
+    private static String statusPath(String jobName) {
+        return "/job/" + jobName + "/status";
+    }
+
+    private CuratorFramework client;
+
+    /** the cache serving status reads on leadership hand off, or <code>null</code> to always read ZooKeeper. */
+    private JobStatusCache statusCache;
+
+    /** the writer batching status writes, or <code>null</code> to write synchronously. */
+    private JobStatusWriter statusWriter;
+
+    /**
+     * Determine whether a read of the given job's status would be served by the status cache.
+     */
+    boolean isCached(String jobName) {
+        return statusCache != null && statusCache.isCached(statusPath(jobName));
+    }
+
+    /**
+     * Read the status from ZooKeeper or the status cache, creating it on the first execution.
+     */
+    @Override
+    public void readStatus(String jobName, JobStatus status) throws Exception {
+        final String statusPath = statusPath(jobName);
+        final Stat stat = new Stat();
+
+        byte[] data;
+        try {
+            data = readStatusData(statusPath, stat);
+        } catch (final KeeperException.NoNodeException ex) {
+            // first execution: create the status with an empty payload in the same round trip
+            status.clear();
+            data = JobStatusCodec.encode(status);
+            try {
+                client.create().creatingParentsIfNeeded().forPath(statusPath, data);
+                if (statusCache != null) {
+                    statusCache.update(statusPath, data, 0);
+                }
+                status.setVersion(0);
+                return;
+            } catch (final KeeperException.NodeExistsException nodeExists) {
+                data = readStatusData(statusPath, stat);
+            }
+        }
+
+        JobStatusCodec.decode(data, status);
+        status.setVersion(stat.getVersion());
+    }
+
+    /**
+     * Read the status data, through the status cache if one is configured.
+     */
+    private byte[] readStatusData(String statusPath, Stat stat) throws Exception {
+        if (statusCache != null) {
+            return statusCache.getData(statusPath, stat);
+        }
+        return client.getData().storingStatIn(stat).forPath(statusPath);
+    }
+
+    /**
+     * Read the status without blocking, from the status cache or with a ZooKeeper background read, so the statuses of
+     * many jobs are read in a single pipelined pass. Unlike {@link #readStatus(String, JobStatus)} a missing status is
+     * not created; the future fails with a {@link KeeperException.NoNodeException} instead.
+     *
+     * @return the future providing the given status once read.
+     */
+    CompletableFuture<JobStatus> readStatusInBackground(String jobName, final JobStatus status) {
+        final String statusPath = statusPath(jobName);
+        final CompletableFuture<JobStatus> read = new CompletableFuture<JobStatus>();
+        if (statusCache != null) {
+            final Stat stat = new Stat();
+            statusCache.getDataInBackground(statusPath, stat).whenComplete(new BiConsumer<byte[], Throwable>() {
+                @Override
+                public void accept(byte[] data, Throwable failure) {
+                    if (failure != null) {
+                        read.completeExceptionally(failure);
+                    } else {
+                        decoded(read, status, data, stat.getVersion());
+                    }
+                }
+            });
+            return read;
+        }
+
+        try {
+            client.getData().inBackground(new BackgroundCallback() {
+                @Override
+                public void processResult(CuratorFramework client, CuratorEvent event) {
+                    if (event.getResultCode() == KeeperException.Code.OK.intValue()) {
+                        decoded(read, status, event.getData(), event.getStat().getVersion());
+                    } else {
+                        read.completeExceptionally(KeeperException.create(
+                            KeeperException.Code.get(event.getResultCode()), event.getPath()));
+                    }
+                }
+            }).forPath(statusPath);
+        } catch (final Exception ex) {
+            read.completeExceptionally(ex);
+        }
+        return read;
+    }
+
+    public void setClient(CuratorFramework client) {
+        this.client = client;
+    }
+
+    /**
+     * Modify the cache used to serve status reads locally when this node wrote the latest status.
+     */
+    public void setStatusCache(JobStatusCache statusCache) {
+        this.statusCache = statusCache;
+    }
+
+    /**
+     * Modify the writer used to batch status writes with other jobs. Without a writer each status write is its own
+     * ZooKeeper transaction.
+     */
+    public void setStatusWriter(JobStatusWriter statusWriter) {
+        this.statusWriter = statusWriter;
+    }
+
+    /**
+     * Encode and write the status as a versioned <code>setData</code>, and record it in the status cache. On a version
+     * conflict the stored status is read back to compare fencing tokens and scheduled execution times.
+     */
+    @Override
+    public boolean writeStatus(String jobName, JobStatus status) throws Exception {
+        final String statusPath = statusPath(jobName);
+        byte[] data = JobStatusCodec.encode(status);
+        int version = status.getVersion();
+        while (true) {
+            try {
+                status.setVersion(writeStatusData(statusPath, data, version).getVersion());
+                break;
+            } catch (final KeeperException.BadVersionException ex) {
+                final Stat stat = new Stat();
+                final byte[] stored = client.getData().storingStatIn(stat).forPath(statusPath);
+                final JobStatus current = new JobStatus();
+                JobStatusCodec.decode(stored, current);
+                if (current.getFencingToken() > status.getFencingToken()) {
+                    LOG.warn("status of job {} was written by a later leader, dropping the write of term {}.", jobName,
+                        status.getFencingToken());
+                    return false;
+                }
+                if (current.getLastScheduledExecutionTimeMillis() > status.getLastScheduledExecutionTimeMillis()) {
+                    // this term scheduled from an outdated status, so keep the later run and only claim the status
+                    LOG.warn("status of job {} records a later run than term {}, keeping it.", jobName,
+                        status.getFencingToken());
+                    final long fencingToken = status.getFencingToken();
+                    JobStatusCodec.decode(stored, status);
+                    status.setFencingToken(fencingToken);
+                    data = JobStatusCodec.encode(status);
+                } else {
+                    LOG.warn("status of job {} was modified by another leader, overwriting.", jobName);
+                }
+                version = stat.getVersion();
+            }
+        }
+
+        if (statusCache != null) {
+            statusCache.update(statusPath, data, status.getVersion());
+        }
+        return true;
+    }
+
+    /**
+     * Write the given status data conditioned on the given version, through the status writer if one is configured.
+     *
+     * @return the stat of the status node after the write.
+     */
+    private Stat writeStatusData(String statusPath, byte[] data, int version) throws Exception {
+        if (statusWriter != null) {
+            return JobLeader.await(statusWriter.write(statusPath, data, version));
+        }
+
+        final Collection<CuratorTransactionResult> results = client.inTransaction().setData().withVersion(version)
+            .forPath(statusPath, data).and().commit();
+        return results.iterator().next().getResultStat();
+    }
+}
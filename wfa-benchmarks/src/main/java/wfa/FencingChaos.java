@@ -0,0 +1,203 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryNTimes;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.KillSession;
+import org.apache.curator.test.TestingCluster;
+
+/**
+ * Chaos check of fenced status writes on a three server ZooKeeper ensemble. Two nodes contend for the single partition
+ * of one job whose runs ignore cancellation. Each round expires the session of the node running the job, so its run
+ * finishes and writes its status after the other node has won the partition. An observer reads the stored status
+ * throughout and fails if its scheduled time or fencing token ever moves backward; the writes dropped as stale are
+ * counted by the status store.
+ * <p>
+ * This is a runnable program, not a JMH benchmark:
+ *
+ * <pre>
+ * java --add-opens=java.base/java.lang=ALL-UNNAMED -cp target/benchmarks.jar wfa.FencingChaos [rounds]
+ * </pre>
+ *
+ * It exits with status 1 if the stored status moved backward.
+ */
+public class FencingChaos {
+
+    /** the delay between runs of the job. */
+    private static final long DELAY_MILLIS = 200L;
+
+    /** how long the stored status is observed after each expiry. */
+    private static final long OBSERVE_MILLIS = 4000L;
+
+    /** how long each run takes, long enough to outlive the session of its node. */
+    private static final long RUN_MILLIS = 1500L;
+
+    private static final int SESSION_TIMEOUT_MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+        final TestingCluster cluster = new TestingCluster(3);
+        cluster.start();
+        final String connectString = cluster.getConnectString();
+        final CuratorFramework observer = CuratorFrameworkFactory.newClient(connectString, new RetryOneTime(100));
+        observer.start();
+
+        final AtomicReference<Node> running = new AtomicReference<Node>();
+        final AtomicInteger fenced = new AtomicInteger();
+        final List<Node> nodes = new ArrayList<Node>();
+        for (int i = 0; i < 2; ++i) {
+            nodes.add(new Node("node-" + i, connectString, running, fenced));
+        }
+
+        long lastScheduled = Long.MIN_VALUE;
+        long lastToken = Long.MIN_VALUE;
+        final List<Long> tokens = new ArrayList<Long>();
+        int violations = 0;
+        for (int round = 1; round <= rounds; ++round) {
+            Node victim;
+            while ((victim = running.get()) == null) {
+                Thread.sleep(10L);
+            }
+            System.out.println("round " + round + ": expiring the session of " + victim.name + " during its run.");
+            KillSession.kill(victim.client.getZookeeperClient().getZooKeeper(), connectString);
+
+            final long end = System.currentTimeMillis() + OBSERVE_MILLIS;
+            while (System.currentTimeMillis() < end) {
+                final JobStatus status = new JobStatus();
+                JobStatusCodec.decode(observer.getData().forPath("/job/chaos/status"), status);
+                if (status.getLastScheduledExecutionTimeMillis() < lastScheduled
+                    || status.getFencingToken() < lastToken) {
+                    System.out.println("VIOLATION: stored status moved back to scheduled time "
+                        + status.getLastScheduledExecutionTimeMillis() + " and token " + status.getFencingToken()
+                        + " after " + lastScheduled + " and " + lastToken + ".");
+                    ++violations;
+                }
+                lastScheduled = Math.max(lastScheduled, status.getLastScheduledExecutionTimeMillis());
+                if (status.getFencingToken() > lastToken) {
+                    lastToken = status.getFencingToken();
+                    tokens.add(Long.valueOf(lastToken));
+                }
+                Thread.sleep(20L);
+            }
+        }
+
+        System.out.println("rounds: " + rounds + ", terms seen: " + tokens.size() + ", stale writes dropped: "
+            + fenced.get() + ", violations: " + violations + ".");
+        System.out.println("fencing tokens: " + tokens);
+        for (final Node node : nodes) {
+            node.close();
+        }
+        observer.close();
+        cluster.close();
+        System.exit(violations == 0 ? 0 : 1);
+    }
+
+    /**
+     * A node leading the job's partition with its own client and executor.
+     */
+    private static class Node {
+
+        final CuratorFramework client;
+
+        final JobExecutor executor;
+
+        final PartitionedJobLeader leader;
+
+        final String name;
+
+        Node(String name, String connectString, final AtomicReference<Node> running, final AtomicInteger fenced)
+            throws Exception {
+            super();
+            this.name = name;
+            client = CuratorFrameworkFactory.newClient(connectString, SESSION_TIMEOUT_MILLIS, SESSION_TIMEOUT_MILLIS,
+                new RetryNTimes(20, 200));
+            client.start();
+
+            executor = new JobExecutor();
+            executor.setScheduler(Executors.newScheduledThreadPool(2));
+            executor.setLeaderExecutorService(Executors.newCachedThreadPool());
+
+            final ZooKeeperJobStatusStore statusStore = new ZooKeeperJobStatusStore() {
+                @Override
+                public boolean writeStatus(String jobName, JobStatus status) throws Exception {
+                    final boolean written = super.writeStatus(jobName, status);
+                    if (!written) {
+                        fenced.incrementAndGet();
+                    }
+                    return written;
+                }
+            };
+            statusStore.setClient(client);
+
+            final RunnableJob job = new RunnableJob(new Runnable() {
+                @Override
+                public void run() {
+                    running.set(Node.this);
+                    // ignore cancellation so the run outlives the session it was started in
+                    final long end = System.currentTimeMillis() + RUN_MILLIS;
+                    while (System.currentTimeMillis() < end) {
+                        try {
+                            Thread.sleep(10L);
+                        } catch (final InterruptedException ex) {
+                            // keep running
+                        }
+                    }
+                    running.compareAndSet(Node.this, null);
+                }
+            });
+            job.setUniqueName("chaos");
+
+            leader = new PartitionedJobLeader();
+            leader.setClient(client);
+            leader.setExecutor(executor);
+            leader.setGroupName("chaos");
+            leader.setPartitionCount(1);
+            leader.setStatusStore(statusStore);
+            leader.addJob(job, new FixedDelayJobSchedule(DELAY_MILLIS));
+            leader.initializeLeader();
+        }
+
+        void close() {
+            leader.destroyLeader();
+            executor.destroyExecutor();
+            client.close();
+        }
+    }
+}
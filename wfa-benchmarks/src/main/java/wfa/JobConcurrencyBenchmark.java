@@ -0,0 +1,144 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how many I/O bound jobs a single {@link JobExecutor} holds at once. Each invocation submits a due run of
+ * every job; each run blocks for {@link #BLOCK_MILLIS}, like a job waiting on a remote call, and the invocation ends
+ * once all runs completed. With enough threads for every blocked run the invocation takes about one blocking period;
+ * the number of runs held at once is the number of jobs times the blocking period divided by the invocation time.
+ * <p>
+ * Job bodies run on a fixed pool of {@link #POOL_THREADS} platform threads, on a platform thread per blocked run, or on
+ * virtual threads (see {@link JobExecutor#setVirtualThreads(boolean)}). Virtual threads need Java 21; on older
+ * runtimes the virtual mode falls back to a platform thread per blocked run, like the cached mode.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@Fork(1)
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+public class JobConcurrencyBenchmark {
+
+    /** how long each run blocks. */
+    private static final long BLOCK_MILLIS = 100L;
+
+    /** the size of the fixed platform thread pool. */
+    private static final int POOL_THREADS = 200;
+
+    private JobExecutor executor;
+
+    /** the number of jobs run at once. */
+    @Param({ "1000", "10000" })
+    public int jobCount;
+
+    private final List<Job> jobs = new ArrayList<Job>();
+
+    private ScheduledExecutorService scheduler;
+
+    /** the threads running job bodies: a fixed platform pool, a platform thread per run or virtual threads. */
+    @Param({ "fixed", "cached", "virtual" })
+    public String threads;
+
+    private ExecutorService workers;
+
+    @Benchmark
+    public void holdBlockingJobs() throws Exception {
+        final long now = System.currentTimeMillis();
+        final List<CompletableFuture<JobContext>> runs = new ArrayList<CompletableFuture<JobContext>>(jobCount);
+        for (final Job job : jobs) {
+            runs.add(executor.submit(new JobContext(job, now)));
+        }
+        for (final CompletableFuture<JobContext> run : runs) {
+            run.get();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        executor = new JobExecutor();
+        executor.setScheduler(scheduler);
+        if ("virtual".equals(threads)) {
+            executor.setVirtualThreads(true);
+        } else {
+            workers = "fixed".equals(threads) ? Executors.newFixedThreadPool(POOL_THREADS)
+                : Executors.newCachedThreadPool();
+            executor.setWorkerExecutor(workers);
+        }
+
+        for (int i = 0; i < jobCount; ++i) {
+            final RunnableJob job = new RunnableJob(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(BLOCK_MILLIS);
+                    } catch (final InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            job.setUniqueName("benchmark-" + i);
+            jobs.add(job);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.destroyExecutor();
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        scheduler.shutdownNow();
+        jobs.clear();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link JobExecutor} throughput: submitting and cancelling a future run, and submitting a due run and waiting
+ * for it to complete, with job bodies on the timer thread or on virtual threads. Sample time mode reports latency
+ * percentiles.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+public class JobExecutorBenchmark {
+
+    private JobExecutor executor;
+
+    private Job job;
+
+    private ScheduledExecutorService scheduler;
+
+    private HashedWheelJobTimer wheel;
+
+    /** the timer storing scheduled runs. */
+    @Param({ "wheel", "scheduledExecutor" })
+    public String timerType;
+
+    /** whether job bodies run on virtual threads. */
+    @Param({ "false", "true" })
+    public boolean virtualThreads;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        executor = new JobExecutor();
+        if ("wheel".equals(timerType)) {
+            wheel = new HashedWheelJobTimer(1, TimeUnit.MILLISECONDS, 512, scheduler);
+            executor.setTimer(wheel);
+        } else {
+            executor.setScheduler(scheduler);
+        }
+        executor.setVirtualThreads(virtualThreads);
+
+        final RunnableJob runnableJob = new RunnableJob(new Runnable() {
+            @Override
+            public void run() {
+                // measure the executor, not the job
+            }
+        });
+        runnableJob.setUniqueName("benchmark");
+        job = runnableJob;
+    }
+
+    @Benchmark
+    public JobContext submitAndCancel() {
+        final JobContext ctx = new JobContext(job, System.currentTimeMillis() + 60000L);
+        executor.submit(ctx);
+        executor.cancel(job);
+        return ctx;
+    }
+
+    @Benchmark
+    public JobContext submitAndRun() throws Exception {
+        return executor.submit(new JobContext(job, System.currentTimeMillis())).get();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.destroyExecutor();
+        if (wheel != null) {
+            wheel.stop();
+        }
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cold start of a node registering many jobs through a {@link JobRegistry} against an in-process
+ * ZooKeeper server: creating every job's tree and starting the elections of the jobs due within the activation lead.
+ * Job periods are spread between one minute and one day, so with lazy activation only a small fraction of the leaders
+ * join their elections at start up. Each invocation registers the jobs under a fresh namespace so every job is new.
+ * <p>
+ * The forked JVM opens <code>java.lang</code> because the testing server patches ZooKeeper classes at start up.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@Fork(value = 1, jvmArgsAppend = { "-XX:+IgnoreUnrecognizedVMOptions", "--add-opens=java.base/java.lang=ALL-UNNAMED" })
+@Measurement(iterations = 5)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 2)
+public class JobRegistryBenchmark {
+
+    private CuratorFramework client;
+
+    private JobExecutor executor;
+
+    /** the number of jobs registered. */
+    @Param({ "1000", "10000" })
+    public int jobCount;
+
+    private Map<Job, JobSchedule> jobs;
+
+    /** whether leaders are activated shortly before their jobs are due instead of all at once. */
+    @Param({ "true", "false" })
+    public boolean lazy;
+
+    private int namespace;
+
+    private JobRegistry registry;
+
+    private ScheduledExecutorService scheduler;
+
+    private TestingServer server;
+
+    @Benchmark
+    public JobRegistry coldStart() throws Exception {
+        registry.registerJobs(jobs);
+        registry.initializeRegistry();
+        return registry;
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        registry = new JobRegistry();
+        registry.setClient(client.usingNamespace("cold-start-" + namespace++));
+        registry.setExecutor(executor);
+        if (!lazy) {
+            registry.setActivationLeadMillis(TimeUnit.DAYS.toMillis(2L));
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws Exception {
+        server = new TestingServer();
+        client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        client.getZookeeperClient().blockUntilConnectedOrTimedOut();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        executor = new JobExecutor();
+        executor.setScheduler(scheduler);
+        executor.setVirtualThreads(true);
+
+        final Runnable noop = new Runnable() {
+            @Override
+            public void run() {
+                // only registration is measured
+            }
+        };
+        jobs = new LinkedHashMap<Job, JobSchedule>();
+        for (int i = 0; i < jobCount; ++i) {
+            final RunnableJob job = new RunnableJob(noop);
+            job.setUniqueName("job-" + i);
+            jobs.put(job, new FixedRateJobSchedule(1L + i % 1440L, TimeUnit.MINUTES));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        registry.destroyRegistry();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial() throws Exception {
+        executor.destroyExecutor();
+        scheduler.shutdownNow();
+        client.close();
+        server.close();
+    }
+}
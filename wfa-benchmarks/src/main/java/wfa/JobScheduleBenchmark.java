@@ -0,0 +1,107 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures next execution time computation for each {@link JobSchedule} implementation, through both the millisecond
+ * path used by job leaders and the {@link Date} adapter. Run with <code>-prof gc</code> to confirm the millisecond path
+ * allocates nothing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+public class JobScheduleBenchmark {
+
+    /** the schedule under test. */
+    @Param({ "fixedDelay", "fixedRate", "cronEveryMinute", "cronWeekdays", "cronLeapDay" })
+    public String schedule;
+
+    /** the advancing last scheduled execution time, so each call computes a different time. */
+    private long lastScheduledExecutionTime;
+
+    private MillisJobSchedule millisSchedule;
+
+    @Benchmark
+    public Date nextDate() {
+        final Date last = new Date(lastScheduledExecutionTime);
+        final Date next = millisSchedule.nextScheduledExecutionTime(last, last, last);
+        lastScheduledExecutionTime = next.getTime();
+        return next;
+    }
+
+    @Benchmark
+    public long nextMillis() {
+        lastScheduledExecutionTime = millisSchedule.nextScheduledExecutionTimeMillis(lastScheduledExecutionTime,
+            lastScheduledExecutionTime, lastScheduledExecutionTime);
+        return lastScheduledExecutionTime;
+    }
+
+    @Setup
+    public void setUp() {
+        final TimeZone timeZone = TimeZone.getTimeZone("America/New_York");
+        if ("fixedDelay".equals(schedule)) {
+            millisSchedule = new FixedDelayJobSchedule(1, TimeUnit.MINUTES);
+        } else if ("fixedRate".equals(schedule)) {
+            millisSchedule = new FixedRateJobSchedule(1, TimeUnit.MINUTES);
+        } else {
+            final String expression;
+            if ("cronEveryMinute".equals(schedule)) {
+                expression = "* * * * *";
+            } else if ("cronWeekdays".equals(schedule)) {
+                expression = "0 9 * * MON-FRI";
+            } else {
+                expression = "30 2 29 2 *";
+            }
+            millisSchedule = new CronJobSchedule(expression, timeZone);
+        }
+
+        // start well in the past so the schedules keep returning missed times without consulting the clock
+        lastScheduledExecutionTime = 0L;
+    }
+}
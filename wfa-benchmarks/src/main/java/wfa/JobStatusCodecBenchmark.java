@@ -0,0 +1,106 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link JobStatusCodec} encoding and decoding, into fresh arrays and into reused buffers, and decoding of the
+ * legacy format.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 1)
+public class JobStatusCodecBenchmark {
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(JobStatusCodec.MAX_ENCODED_LENGTH);
+
+    private byte[] encoded;
+
+    private byte[] legacy;
+
+    private final JobStatus status = new JobStatus();
+
+    private final JobStatus target = new JobStatus();
+
+    @Benchmark
+    public JobStatus decode() {
+        JobStatusCodec.decode(encoded, target);
+        return target;
+    }
+
+    @Benchmark
+    public JobStatus decodeLegacy() {
+        JobStatusCodec.decode(legacy, target);
+        return target;
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return JobStatusCodec.encode(status);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeReused() {
+        buffer.clear();
+        JobStatusCodec.encode(status, buffer);
+        return buffer;
+    }
+
+    @Setup
+    public void setUp() {
+        final long now = System.currentTimeMillis();
+        status.setLastScheduledExecutionTimeMillis(now);
+        status.setLastActualExecutionTimeMillis(now + 3L);
+        status.setLastActualCompletionTimeMillis(now + 250L);
+        status.setLastDurationMillis(247L);
+        status.setLastOutcome(JobOutcome.COMPLETED);
+        status.setRunCount(123456L);
+        encoded = JobStatusCodec.encode(status);
+
+        legacy = ByteBuffer.allocate(JobStatusCodec.LEGACY_LENGTH).putLong(now + 250L).putLong(now + 3L).putLong(now)
+            .array();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures status write throughput on a busy node against an in-process ZooKeeper server. Each benchmark thread stands
+ * for a short job that completes back to back and waits for its status write, as a leader does. Writes are made
+ * directly, through a {@link JobStatusWriter} that batches whatever queued during the previous transaction, or through
+ * one that also waits up to the group commit delay for a full batch.
+ * <p>
+ * The forked JVM opens <code>java.lang</code> because the testing server patches ZooKeeper classes at start up.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@Fork(value = 1, jvmArgsAppend = { "-XX:+IgnoreUnrecognizedVMOptions", "--add-opens=java.base/java.lang=ALL-UNNAMED" })
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Threads(64)
+@Warmup(iterations = 3, time = 2)
+public class JobStatusWriterBenchmark {
+
+    private CuratorFramework client;
+
+    /** the group commit delay in milliseconds, or -1 to write without a status writer. */
+    @Param({ "-1", "0", "2" })
+    public long maxDelayMillis;
+
+    private final AtomicInteger nextJob = new AtomicInteger();
+
+    private TestingServer server;
+
+    private ZooKeeperJobStatusStore store;
+
+    private JobStatusWriter writer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new TestingServer();
+        client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        client.getZookeeperClient().blockUntilConnectedOrTimedOut();
+
+        store = new ZooKeeperJobStatusStore();
+        store.setClient(client);
+        if (maxDelayMillis >= 0L) {
+            writer = new JobStatusWriter();
+            writer.setClient(client);
+            writer.setMaxDelayMillis(maxDelayMillis);
+            writer.initializeWriter();
+            store.setStatusWriter(writer);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        if (writer != null) {
+            writer.destroyWriter();
+        }
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public boolean writeStatus(JobState job) throws Exception {
+        job.status.setRunCount(job.status.getRunCount() + 1L);
+        return store.writeStatus(job.name, job.status);
+    }
+
+    /**
+     * The status of the job completed by one benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class JobState {
+
+        String name;
+
+        final JobStatus status = new JobStatus();
+
+        @Setup(Level.Trial)
+        public void setUp(JobStatusWriterBenchmark benchmark) throws Exception {
+            name = "job-" + benchmark.nextJob.getAndIncrement();
+            benchmark.store.readStatus(name, status);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link HashedWheelJobTimer} with the {@link ScheduledExecutorJobTimer} when scheduling and cancelling
+ * timeouts, while a fixed population of long timeouts stays pending as it does on a node leading many jobs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Threads(4)
+@Warmup(iterations = 3, time = 1)
+public class JobTimerBenchmark {
+
+    private static final Runnable NOTHING = new Runnable() {
+        @Override
+        public void run() {
+            // timeouts are always cancelled or outlive the benchmark
+        }
+    };
+
+    /** the number of long timeouts pending while measuring. */
+    @Param({ "0", "100000" })
+    public int pendingCount;
+
+    private ScheduledExecutorService scheduler;
+
+    private JobTimer timer;
+
+    /** the timer under test. */
+    @Param({ "wheel", "scheduledExecutor" })
+    public String timerType;
+
+    @Benchmark
+    public boolean scheduleAndCancel() {
+        return timer.schedule(NOTHING, 30, TimeUnit.SECONDS).cancel();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        if ("wheel".equals(timerType)) {
+            timer = new HashedWheelJobTimer(scheduler);
+        } else {
+            timer = new ScheduledExecutorJobTimer(scheduler);
+        }
+        for (int i = 0; i < pendingCount; ++i) {
+            timer.schedule(NOTHING, 1 + i % 3600, TimeUnit.HOURS);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (timer instanceof HashedWheelJobTimer) {
+            ((HashedWheelJobTimer) timer).stop();
+        }
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency from writing an on demand {@link JobTriggers trigger} to the start of the triggered run against
+ * an in-process ZooKeeper server. The job's schedule has an hour long delay, so every run is started by a trigger. Each
+ * invocation first lets the leader settle back into waiting for its next run, so the latency is that of a trigger
+ * reaching an idle leader: the trigger write, the watch notification, the read of the triggers and the hand off to the
+ * executor.
+ * <p>
+ * The forked JVM opens <code>java.lang</code> because the testing server patches ZooKeeper classes at start up.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@Fork(value = 1, jvmArgsAppend = { "-XX:+IgnoreUnrecognizedVMOptions", "--add-opens=java.base/java.lang=ALL-UNNAMED" })
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+public class JobTriggerBenchmark {
+
+    /** how long the leader is given to settle after a run. */
+    private static final long SETTLE_MILLIS = 50L;
+
+    /** whether the leader only holds leadership while a run is due. */
+    @Param({ "false", "true" })
+    public boolean asynchronous;
+
+    private CuratorFramework client;
+
+    private ExecutorService dispatcher;
+
+    private JobExecutor executor;
+
+    private JobLeader leader;
+
+    private ScheduledExecutorService scheduler;
+
+    private TestingServer server;
+
+    /** the start times of triggered runs, from {@link System#nanoTime()}. */
+    private final BlockingQueue<Long> starts = new LinkedBlockingQueue<Long>();
+
+    /** the timer used by the executor. */
+    @Param({ "scheduled", "wheel" })
+    public String timer;
+
+    private HashedWheelJobTimer wheel;
+
+    @Setup(Level.Invocation)
+    public void settle() throws InterruptedException {
+        Thread.sleep(SETTLE_MILLIS);
+        starts.clear();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new TestingServer();
+        client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        client.getZookeeperClient().blockUntilConnectedOrTimedOut();
+
+        dispatcher = Executors.newCachedThreadPool();
+        executor = new JobExecutor();
+        if ("wheel".equals(timer)) {
+            wheel = new HashedWheelJobTimer(dispatcher);
+            executor.setTimer(wheel);
+        } else {
+            scheduler = Executors.newSingleThreadScheduledExecutor();
+            executor.setScheduler(scheduler);
+        }
+        executor.setLeaderExecutorService(dispatcher);
+
+        final RunnableJob job = new RunnableJob(new Runnable() {
+            @Override
+            public void run() {
+                starts.add(System.nanoTime());
+            }
+        });
+        job.setUniqueName("benchmark");
+
+        leader = new JobLeader();
+        leader.setAsynchronous(asynchronous);
+        leader.setClient(client);
+        leader.setExecutor(executor);
+        leader.setJob(job);
+        leader.setSchedule(new FixedDelayJobSchedule(1L, TimeUnit.HOURS));
+        leader.initializeLeader();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        leader.destroyLeader();
+        executor.destroyExecutor();
+        if (wheel != null) {
+            wheel.stop();
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        dispatcher.shutdownNow();
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public long trigger() throws Exception {
+        JobTriggers.trigger(client, "benchmark");
+        final Long start = starts.poll(10L, TimeUnit.SECONDS);
+        if (start == null) {
+            throw new IllegalStateException("triggered run did not start.");
+        }
+        return start.longValue();
+    }
+}
@@ -0,0 +1,150 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a complete leader cycle against an in-process ZooKeeper server: read the job status, compute the next
+ * execution time, run the job through the {@link JobExecutor} and write the updated status. The schedule has no delay
+ * so the cycle time is the framework's overhead plus ZooKeeper round trips. Sample time mode reports latency
+ * percentiles; run with <code>-prof gc</code> for the allocation rate.
+ * <p>
+ * The forked JVM opens <code>java.lang</code> because the testing server patches ZooKeeper classes at start up.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@Fork(value = 1, jvmArgsAppend = { "-XX:+IgnoreUnrecognizedVMOptions", "--add-opens=java.base/java.lang=ALL-UNNAMED" })
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+public class LeaderCycleBenchmark {
+
+    private CuratorFramework client;
+
+    private JobExecutor executor;
+
+    private JobLeader leader;
+
+    /** whether job metrics are recorded. */
+    @Param({ "false", "true" })
+    public boolean metrics;
+
+    private ScheduledExecutorService scheduler;
+
+    private TestingServer server;
+
+    /** whether status reads are served by a {@link JobStatusCache}. */
+    @Param({ "false", "true" })
+    public boolean statusCache;
+
+    /** whether status writes go through a {@link JobStatusWriter}. */
+    @Param({ "false", "true" })
+    public boolean statusWriter;
+
+    private JobStatusWriter writer;
+
+    @Benchmark
+    public void cycle() throws Exception {
+        leader.executeNext();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = new TestingServer();
+        client = CuratorFrameworkFactory.newClient(server.getConnectString(), new RetryOneTime(100));
+        client.start();
+        client.getZookeeperClient().blockUntilConnectedOrTimedOut();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        executor = new JobExecutor();
+        executor.setScheduler(scheduler);
+
+        final RunnableJob job = new RunnableJob(new Runnable() {
+            @Override
+            public void run() {
+                // measure the leader, not the job
+            }
+        });
+        job.setUniqueName("benchmark");
+
+        leader = new JobLeader();
+        leader.setClient(client);
+        leader.setExecutor(executor);
+        leader.setJob(job);
+        leader.setSchedule(new FixedDelayJobSchedule(0L));
+        if (metrics) {
+            leader.setMetricsRegistry(new JobMetricsRegistry());
+        }
+        if (statusCache) {
+            final JobStatusCache cache = new JobStatusCache();
+            cache.setClient(client);
+            leader.setStatusCache(cache);
+        }
+        if (statusWriter) {
+            writer = new JobStatusWriter();
+            writer.setClient(client);
+            writer.initializeWriter();
+            leader.setStatusWriter(writer);
+        }
+        leader.initializeStatus();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        executor.destroyExecutor();
+        if (writer != null) {
+            writer.destroyWriter();
+        }
+        scheduler.shutdownNow();
+        client.close();
+        server.close();
+    }
+}
@@ -0,0 +1,240 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.test.InstanceSpec;
+import org.apache.curator.test.KillSession;
+import org.apache.curator.test.TestingCluster;
+
+/**
+ * Chaos check of the {@link JobLeader#setSuspensionGraceMillis(long) suspension grace period} on a three server
+ * ZooKeeper ensemble. A node leads a number of synchronous jobs whose runs last until they are cancelled, and the
+ * program counts the elections and restarted runs caused by the chosen fault:
+ * <ul>
+ * <li><code>blip</code>: three times, the server the node is connected to is killed for a few seconds, well within
+ * the session timeout. A second node contends for every job, and two runs of the same job at once fail the check.</li>
+ * <li><code>expire</code>: the node's session is expired, and the spread of its re-elections shows the effect of the
+ * {@link JobLeader#setReelectionStaggerMillis(long) re-election stagger}.</li>
+ * </ul>
+ * This is a runnable program, not a JMH benchmark. Compare a grace period of zero with a grace period of a few
+ * seconds:
+ *
+ * <pre>
+ * java --add-opens=java.base/java.lang=ALL-UNNAMED -cp target/benchmarks.jar wfa.LeadershipGraceChaos 0 0 blip
+ * java --add-opens=java.base/java.lang=ALL-UNNAMED -cp target/benchmarks.jar wfa.LeadershipGraceChaos 5000 0 blip
+ * java --add-opens=java.base/java.lang=ALL-UNNAMED -cp target/benchmarks.jar wfa.LeadershipGraceChaos 5000 3000 expire
+ * </pre>
+ *
+ * It exits with status 1 if two nodes ran the same job at once.
+ */
+public class LeadershipGraceChaos {
+
+    private static final int CONNECTION_TIMEOUT_MILLIS = 3000;
+
+    private static final int JOBS = 20;
+
+    private static final int SESSION_TIMEOUT_MILLIS = 15000;
+
+    public static void main(String[] args) throws Exception {
+        final long graceMillis = args.length > 0 ? Long.parseLong(args[0]) : 5000L;
+        final long staggerMillis = args.length > 1 ? Long.parseLong(args[1]) : 0L;
+        final boolean blip = args.length <= 2 || "blip".equals(args[2]);
+
+        final TestingCluster cluster = new TestingCluster(3);
+        cluster.start();
+
+        final Counters counters = new Counters();
+        final Node node = new Node(cluster.getConnectString(), graceMillis, staggerMillis, counters);
+        while (counters.starts.get() < JOBS) {
+            Thread.sleep(100L);
+        }
+        final int initialElections = counters.elections.get();
+        Node contender = null;
+        if (blip) {
+            contender = new Node(cluster.getConnectString(), graceMillis, staggerMillis, counters);
+            Thread.sleep(1000L);
+        }
+
+        final long start = System.currentTimeMillis();
+        if (blip) {
+            for (int i = 0; i < 3; ++i) {
+                final InstanceSpec spec = cluster.findConnectionInstance(node.client.getZookeeperClient()
+                    .getZooKeeper());
+                System.out.println("killing server " + spec.getPort() + " for 6 s.");
+                cluster.killServer(spec);
+                Thread.sleep(6000L);
+                cluster.restartServer(spec);
+                Thread.sleep(8000L);
+            }
+        } else {
+            System.out.println("expiring the session.");
+            KillSession.kill(node.client.getZookeeperClient().getZooKeeper(), cluster.getConnectString());
+            Thread.sleep(8000L);
+        }
+
+        long first = Long.MAX_VALUE;
+        long last = 0L;
+        synchronized (counters.electedAt) {
+            for (final Long electedAt : counters.electedAt) {
+                if (electedAt.longValue() >= start) {
+                    first = Math.min(first, electedAt.longValue());
+                    last = Math.max(last, electedAt.longValue());
+                }
+            }
+        }
+        System.out.println("grace " + graceMillis + " ms, stagger " + staggerMillis + " ms, "
+            + (blip ? "blip" : "expire") + ": initial elections " + initialElections + ", re-elections "
+            + (counters.elections.get() - initialElections) + ", restarted runs " + (counters.starts.get() - JOBS)
+            + (last > 0L ? ", re-elections spread over " + (last - first) + " ms" : "") + ", double leaders "
+            + counters.doubleLeaders.get() + ".");
+
+        if (contender != null) {
+            contender.close();
+        }
+        node.close();
+        cluster.close();
+        System.exit(counters.doubleLeaders.get() == 0 ? 0 : 1);
+    }
+
+    /**
+     * The counts shared by the nodes.
+     */
+    private static class Counters {
+
+        /** the number of times two runs of the same job were in progress at once. */
+        final AtomicInteger doubleLeaders = new AtomicInteger();
+
+        /** when each election was won. */
+        final List<Long> electedAt = Collections.synchronizedList(new ArrayList<Long>());
+
+        /** the number of elections won. */
+        final AtomicInteger elections = new AtomicInteger();
+
+        /** the number of runs in progress for each job. */
+        final AtomicInteger[] running = new AtomicInteger[JOBS];
+
+        /** the number of runs started. */
+        final AtomicInteger starts = new AtomicInteger();
+
+        Counters() {
+            super();
+            for (int i = 0; i < JOBS; ++i) {
+                running[i] = new AtomicInteger();
+            }
+        }
+    }
+
+    /**
+     * A node leading every job with its own client and executor.
+     */
+    private static class Node {
+
+        final CuratorFramework client;
+
+        final JobExecutor executor;
+
+        final List<JobLeader> leaders = new ArrayList<JobLeader>();
+
+        Node(String connectString, long graceMillis, long staggerMillis, final Counters counters) throws Exception {
+            super();
+            client = CuratorFrameworkFactory.newClient(connectString, SESSION_TIMEOUT_MILLIS,
+                CONNECTION_TIMEOUT_MILLIS, new ExponentialBackoffRetry(100, 3));
+            client.start();
+            client.getZookeeperClient().blockUntilConnectedOrTimedOut();
+
+            executor = new JobExecutor();
+            executor.setScheduler(Executors.newScheduledThreadPool(2));
+            executor.setVirtualThreads(true);
+
+            for (int i = 0; i < JOBS; ++i) {
+                final AtomicInteger running = counters.running[i];
+                final String name = "grace-" + i;
+                final Job job = new Job() {
+                    @Override
+                    public void execute(JobContext ctx) {
+                        counters.starts.incrementAndGet();
+                        if (running.incrementAndGet() > 1) {
+                            counters.doubleLeaders.incrementAndGet();
+                        }
+                        try {
+                            // run until the leader cancels the run
+                            while (!ctx.isCancellationRequested()) {
+                                Thread.sleep(10L);
+                            }
+                        } catch (final InterruptedException ex) {
+                            // cancelled
+                        } finally {
+                            running.decrementAndGet();
+                        }
+                    }
+
+                    @Override
+                    public String getUniqueName() {
+                        return name;
+                    }
+                };
+
+                final JobLeader leader = new JobLeader() {
+                    @Override
+                    public void takeLeadership(CuratorFramework client) throws Exception {
+                        counters.elections.incrementAndGet();
+                        counters.electedAt.add(Long.valueOf(System.currentTimeMillis()));
+                        super.takeLeadership(client);
+                    }
+                };
+                leader.setClient(client);
+                leader.setExecutor(executor);
+                leader.setJob(job);
+                leader.setSchedule(new FixedDelayJobSchedule(1L));
+                leader.setSuspensionGraceMillis(graceMillis);
+                leader.setReelectionStaggerMillis(staggerMillis);
+                leader.initializeLeader();
+                leaders.add(leader);
+            }
+        }
+
+        void close() {
+            for (final JobLeader leader : leaders) {
+                leader.destroyLeader();
+            }
+            executor.destroyExecutor();
+            client.close();
+        }
+    }
+}
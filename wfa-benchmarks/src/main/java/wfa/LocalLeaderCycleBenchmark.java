@@ -0,0 +1,142 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a complete leader cycle without ZooKeeper: the job status lives in a {@link LocalJobStatusStore}, so the
+ * cycle is the framework's own work of reading the status, computing the next execution time, running the job through
+ * the {@link JobExecutor} and writing the updated status. Run with <code>-prof gc</code> for the bytes a steady state
+ * cycle allocates.
+ * <p>
+ * The leader reuses its status, context and run between cycles, so the framework allocates nothing in the steady
+ * state. With the <code>scheduled</code> and <code>wheel</code> timers the remaining bytes are the JDK executor's
+ * own task and queue nodes for handing the run to its thread; the <code>inline</code> timer dispatches the due run on
+ * the leader's thread and measures the framework alone.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+public class LocalLeaderCycleBenchmark {
+
+    private JobExecutor executor;
+
+    private File file;
+
+    private JobLeader leader;
+
+    private ScheduledExecutorService scheduler;
+
+    private LocalJobStatusStore store;
+
+    private HashedWheelJobTimer wheel;
+
+    /** the timer used by the executor. */
+    @Param({ "scheduled", "wheel", "inline" })
+    public String timer;
+
+    @Benchmark
+    public void cycle() throws Exception {
+        leader.executeNext();
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = File.createTempFile("wfa-status", ".dat");
+        store = new LocalJobStatusStore();
+        store.setFile(file);
+        store.initializeStore();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        executor = new JobExecutor();
+        if ("wheel".equals(timer)) {
+            wheel = new HashedWheelJobTimer(scheduler);
+            executor.setTimer(wheel);
+        } else if ("inline".equals(timer)) {
+            wheel = new HashedWheelJobTimer(new Executor() {
+                @Override
+                public void execute(Runnable command) {
+                    command.run();
+                }
+            });
+            executor.setTimer(wheel);
+        } else {
+            executor.setScheduler(scheduler);
+        }
+
+        final RunnableJob job = new RunnableJob(new Runnable() {
+            @Override
+            public void run() {
+                // measure the leader, not the job
+            }
+        });
+        job.setUniqueName("benchmark");
+
+        leader = new JobLeader();
+        leader.setExecutor(executor);
+        leader.setJob(job);
+        leader.setSchedule(new FixedDelayJobSchedule(0L));
+        leader.setStatusStore(store);
+        leader.initializeStatus();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.destroyExecutor();
+        if (wheel != null) {
+            wheel.stop();
+        }
+        scheduler.shutdownNow();
+        store.destroyStore();
+        file.delete();
+    }
+}
@@ -0,0 +1,174 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.test.TestingCluster;
+
+/**
+ * Convergence check of {@link JobPlacement load-aware placement} on a three server ZooKeeper ensemble. A first node
+ * leads every partition of a {@link PartitionedJobLeader} group on its own, then two more nodes join and the program
+ * follows the number of jobs each node leads as the first node yields partitions to them. The counts have converged
+ * once no node leads more than the tolerance above the average, every job is led once, and this holds for a few
+ * refresh intervals in a row.
+ * <p>
+ * This is a runnable program, not a JMH benchmark. The arguments are the number of jobs, the number of partitions
+ * and the tolerance:
+ *
+ * <pre>
+ * java --add-opens=java.base/java.lang=ALL-UNNAMED -cp target/benchmarks.jar wfa.PlacementConvergenceChaos 60 30 2
+ * </pre>
+ *
+ * It exits with status 1 if the counts have not converged within a minute of the other nodes joining.
+ */
+public class PlacementConvergenceChaos {
+
+    /** how long the counts may take to converge. */
+    private static final long CONVERGENCE_MILLIS = 60000L;
+
+    private static final int NODES = 3;
+
+    /** how often each node publishes its load. */
+    private static final long REFRESH_INTERVAL_MILLIS = 500L;
+
+    /** the number of refresh intervals in a row the counts must stay converged. */
+    private static final int STABLE_INTERVALS = 4;
+
+    public static void main(String[] args) throws Exception {
+        final int jobs = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+        final int partitions = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        final int tolerance = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        final TestingCluster cluster = new TestingCluster(3);
+        cluster.start();
+
+        final List<Node> nodes = new ArrayList<Node>();
+        nodes.add(new Node(cluster.getConnectString(), 0, jobs, partitions, tolerance));
+        while (nodes.get(0).placement.getLeadingCount() < jobs) {
+            Thread.sleep(100L);
+        }
+        System.out.println("node-0 alone leads " + jobs + " jobs in " + partitions + " partitions.");
+        for (int i = 1; i < NODES; ++i) {
+            nodes.add(new Node(cluster.getConnectString(), i, jobs, partitions, tolerance));
+        }
+
+        final long start = System.currentTimeMillis();
+        final int[] counts = new int[NODES];
+        int stable = 0;
+        while (stable < STABLE_INTERVALS && System.currentTimeMillis() - start < CONVERGENCE_MILLIS) {
+            Thread.sleep(REFRESH_INTERVAL_MILLIS);
+            int total = 0;
+            int max = 0;
+            for (int i = 0; i < NODES; ++i) {
+                counts[i] = nodes.get(i).placement.getLeadingCount();
+                total += counts[i];
+                max = Math.max(max, counts[i]);
+            }
+            final boolean converged = total == jobs && max <= (double) jobs / NODES + tolerance;
+            stable = converged ? stable + 1 : 0;
+            System.out.println((System.currentTimeMillis() - start) + " ms: jobs led per node "
+                + Arrays.toString(counts) + (converged ? ", converged." : "."));
+        }
+
+        final boolean converged = stable >= STABLE_INTERVALS;
+        System.out.println(converged ? "converged within a tolerance of " + tolerance + " in "
+            + (System.currentTimeMillis() - start) + " ms." : "did not converge within a tolerance of " + tolerance
+            + ".");
+        for (final Node node : nodes) {
+            node.close();
+        }
+        cluster.close();
+        System.exit(converged ? 0 : 1);
+    }
+
+    /**
+     * A node leading the group's partitions with its own client, executor and placement.
+     */
+    private static class Node {
+
+        final CuratorFramework client;
+
+        final JobExecutor executor;
+
+        final PartitionedJobLeader leader;
+
+        final JobPlacement placement;
+
+        Node(String connectString, int index, int jobs, int partitions, int tolerance) throws Exception {
+            super();
+            client = CuratorFrameworkFactory.newClient(connectString, new ExponentialBackoffRetry(100, 3));
+            client.start();
+
+            executor = new JobExecutor();
+            executor.setScheduler(Executors.newScheduledThreadPool(2));
+            executor.setVirtualThreads(true);
+
+            placement = new JobPlacement();
+            placement.setClient(client);
+            placement.setExecutor(executor);
+            placement.setNodeId("node-" + index);
+            placement.setRefreshIntervalMillis(REFRESH_INTERVAL_MILLIS);
+            placement.setTolerance(tolerance);
+            placement.initializePlacement();
+
+            leader = new PartitionedJobLeader();
+            leader.setClient(client);
+            leader.setExecutor(executor);
+            leader.setGroupName("placement");
+            leader.setPartitionCount(partitions);
+            leader.setPlacement(placement);
+            for (int i = 0; i < jobs; ++i) {
+                final RunnableJob job = new RunnableJob(new Runnable() {
+                    @Override
+                    public void run() {
+                        // nothing to do, only leadership is measured
+                    }
+                });
+                job.setUniqueName("placement-" + i);
+                leader.addJob(job, new FixedDelayJobSchedule(60000L));
+            }
+            leader.initializeLeader();
+        }
+
+        void close() {
+            leader.destroyLeader();
+            placement.destroyPlacement();
+            executor.destroyExecutor();
+            client.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * Chaos check of destroying a {@link JobStatusWriter} while jobs are still writing. Each round starts a writer, lets
+ * several threads queue writes as fast as they can and destroys the writer at a random moment. Every future returned
+ * by {@link JobStatusWriter#write(String, byte[], int)} must then complete, either committed or rejected; a future
+ * that never completes would block its job leader forever.
+ * <p>
+ * This is a runnable program, not a JMH benchmark:
+ *
+ * <pre>
+ * java --add-opens=java.base/java.lang=ALL-UNNAMED -cp target/benchmarks.jar wfa.StatusWriterDestroyChaos [rounds]
+ * </pre>
+ *
+ * It exits with status 1 if any write was left incomplete.
+ */
+public class StatusWriterDestroyChaos {
+
+    /** how long a future may take to complete after the writer is destroyed. */
+    private static final long COMPLETION_MILLIS = 5000L;
+
+    /** the number of writes each thread queues before waiting for the last of them. */
+    private static final int MAX_OUTSTANDING = 64;
+
+    private static final int THREADS = 32;
+
+    public static void main(String[] args) throws Exception {
+        final int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+
+        final TestingServer server = new TestingServer();
+        final CuratorFramework client = CuratorFrameworkFactory.newClient(server.getConnectString(),
+            new RetryOneTime(100));
+        client.start();
+        for (int i = 0; i < THREADS; ++i) {
+            client.create().creatingParentsIfNeeded().forPath("/chaos/status-" + i);
+        }
+
+        int lost = 0;
+        long writes = 0L;
+        for (int round = 1; round <= rounds; ++round) {
+            final JobStatusWriter writer = new JobStatusWriter();
+            writer.setClient(client);
+            writer.initializeWriter();
+
+            final List<List<CompletableFuture<Stat>>> futures = new ArrayList<List<CompletableFuture<Stat>>>();
+            final CountDownLatch started = new CountDownLatch(THREADS);
+            final List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < THREADS; ++i) {
+                final String path = "/chaos/status-" + i;
+                final List<CompletableFuture<Stat>> written = new ArrayList<CompletableFuture<Stat>>();
+                futures.add(written);
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        CompletableFuture<Stat> last;
+                        do {
+                            // unversioned so the writes of a round do not conflict with each other
+                            last = writer.write(path, new byte[] { 1 }, -1);
+                            written.add(last);
+                            if (written.size() % MAX_OUTSTANDING == 0) {
+                                // let the writer catch up instead of queueing without bound
+                                try {
+                                    last.get(COMPLETION_MILLIS, TimeUnit.MILLISECONDS);
+                                } catch (final Exception ex) {
+                                    // counted below
+                                }
+                            }
+                        } while (!last.isCompletedExceptionally());
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+
+            started.await();
+            Thread.sleep((long) (Math.random() * 5.0));
+            writer.destroyWriter();
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+
+            final long deadline = System.currentTimeMillis() + COMPLETION_MILLIS;
+            for (final List<CompletableFuture<Stat>> written : futures) {
+                for (final CompletableFuture<Stat> future : written) {
+                    ++writes;
+                    try {
+                        future.get(Math.max(1L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    } catch (final TimeoutException ex) {
+                        ++lost;
+                    } catch (final Exception ex) {
+                        // rejected or failed, but completed
+                    }
+                }
+            }
+        }
+
+        System.out.println("rounds: " + rounds + ", writes: " + writes + ", writes never completed: " + lost + ".");
+        client.close();
+        server.close();
+        System.exit(lost == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,223 @@
+/*
+Copyright (c) 2014, Brent Worden
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+ * Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+ * Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+ * Neither the name of Brent Worden nor the names of the
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package wfa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+
+/**
+ * Measures how the wall clock time of a {@link JobTaskDistributor distributed} run shrinks as members are added. Each
+ * run splits into tasks that sleep for a fixed time, so the measurement does not depend on the number of processors of
+ * the machine running it. Every cluster size runs the same job a few times and reports its fastest run and its speedup
+ * over a single member.
+ * <p>
+ * A last round destroys the distributor of one of two members while it executes tasks, as a rolling deploy would,
+ * and checks that the run still completes on the remaining member.
+ * <p>
+ * This is a runnable program, not a JMH benchmark. The arguments are the cluster sizes to measure:
+ *
+ * <pre>
+ * java --add-opens=java.base/java.lang=ALL-UNNAMED -cp target/benchmarks.jar wfa.TaskDistributionScaling 1 2 4
+ * </pre>
+ *
+ * It exits with status 1 if the largest cluster is less than half as fast as a perfect speedup, or if the run of the
+ * last round fails or does not complete.
+ */
+public class TaskDistributionScaling {
+
+    /** how long the run of the last round may take once a member was destroyed. */
+    private static final long DEPARTURE_TIMEOUT_MILLIS = 30000L;
+
+    /** the tasks each member executes at once. */
+    private static final int PARALLELISM = 2;
+
+    /** the runs measured for each cluster size. */
+    private static final int ROUNDS = 3;
+
+    /** how long each task takes. */
+    private static final long TASK_MILLIS = 50L;
+
+    /** the number of tasks each run is split into. */
+    private static final int TASKS = 64;
+
+    public static void main(String[] args) throws Exception {
+        final List<Integer> sizes = new ArrayList<Integer>();
+        for (final String arg : args) {
+            sizes.add(Integer.valueOf(arg));
+        }
+        if (sizes.isEmpty()) {
+            sizes.add(Integer.valueOf(1));
+            sizes.add(Integer.valueOf(2));
+            sizes.add(Integer.valueOf(4));
+        }
+
+        final TestingServer server = new TestingServer();
+        long single = 0L;
+        double speedup = 0.0;
+        int largest = 0;
+        for (final Integer size : sizes) {
+            final List<Member> members = new ArrayList<Member>();
+            for (int i = 0; i < size.intValue(); ++i) {
+                members.add(new Member(server.getConnectString()));
+            }
+
+            long fastest = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; ++round) {
+                final long start = System.nanoTime();
+                members.get(0).run();
+                fastest = Math.min(fastest, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+            if (single == 0L) {
+                single = fastest * sizes.get(0).intValue();
+            }
+            largest = size.intValue();
+            speedup = (double) single / fastest;
+            System.out.println(size + " members: " + TASKS + " tasks of " + TASK_MILLIS + " ms in " + fastest
+                + " ms, speedup " + String.format("%.2f", Double.valueOf(speedup)) + ".");
+
+            for (final Member member : members) {
+                member.close();
+            }
+        }
+
+        final boolean completed = departure(server.getConnectString());
+        server.close();
+        System.exit(speedup >= largest / 2.0 && completed ? 0 : 1);
+    }
+
+    /**
+     * Run the job on two members and destroy the distributor of the second one while it executes tasks.
+     *
+     * @return whether the run completed.
+     */
+    private static boolean departure(String connectString) throws Exception {
+        final Member leader = new Member(connectString);
+        final Member leaving = new Member(connectString);
+        final ExecutorService runner = Executors.newSingleThreadExecutor();
+        final long start = System.nanoTime();
+        final Future<Object> run = runner.submit(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                leader.run();
+                return null;
+            }
+        });
+
+        Thread.sleep(TASKS * TASK_MILLIS / (4 * PARALLELISM));
+        // the member's session outlives its distributor, as it would on a node that keeps running other components
+        leaving.distributor.destroyDistributor();
+        String result;
+        try {
+            run.get(DEPARTURE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            result = "completed";
+        } catch (final ExecutionException ex) {
+            result = "failed (" + ex.getCause().getMessage() + ")";
+        } catch (final TimeoutException ex) {
+            result = "did not complete";
+        }
+        System.out.println("member destroyed during the run: run " + result + " in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+
+        runner.shutdownNow();
+        leaving.client.close();
+        leader.close();
+        return "completed".equals(result);
+    }
+
+    /**
+     * A member with its own client and distributor, registering the job.
+     */
+    private static class Member {
+
+        final CuratorFramework client;
+
+        final JobTaskDistributor distributor;
+
+        final AbstractSplittableJob job;
+
+        Member(String connectString) {
+            super();
+            client = CuratorFrameworkFactory.newClient(connectString, new RetryOneTime(100));
+            client.start();
+
+            job = new AbstractSplittableJob() {
+                @Override
+                public void executeTask(byte[] task) {
+                    try {
+                        Thread.sleep(TASK_MILLIS);
+                    } catch (final InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("interrupted.", ex);
+                    }
+                }
+
+                @Override
+                public List<byte[]> split(JobContext ctx) {
+                    final List<byte[]> tasks = new ArrayList<byte[]>();
+                    for (int i = 0; i < TASKS; ++i) {
+                        tasks.add(new byte[] { (byte) i });
+                    }
+                    return tasks;
+                }
+            };
+            job.setUniqueName("scaling");
+
+            distributor = new JobTaskDistributor();
+            distributor.setClient(client);
+            distributor.setParallelism(PARALLELISM);
+            distributor.addJob(job);
+            distributor.initializeDistributor();
+        }
+
+        void close() {
+            distributor.destroyDistributor();
+            client.close();
+        }
+
+        /**
+         * Run the job once through this member's distributor.
+         */
+        void run() {
+            job.execute(new JobContext(job, System.currentTimeMillis()));
+        }
+    }
+}